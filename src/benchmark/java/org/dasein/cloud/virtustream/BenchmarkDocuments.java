@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.Cloud;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Builds documents shaped like the ones Virtustream returns for benchmarks to map, and a provider that is
+ * connected to nothing for the mappers to run against. Document <code>i</code> is spread over 5 tenants,
+ * 3 regions, 12 sites, 40 resource pools and 200 networks.
+ */
+public class BenchmarkDocuments {
+    static private String id(@Nonnull String prefix, int value) {
+        return prefix + String.format("%012d", value);
+    }
+
+    static private @Nonnull JSONObject site(int i) throws JSONException {
+        JSONObject region = new JSONObject().put("RegionID", id("9a7ba5a9-1c5e-4f5e-b8b5-", i % 3));
+
+        return new JSONObject().put("SiteID", id("5d4c0e1c-7a51-4a24-9d27-", i % 12)).put("Region", region);
+    }
+
+    static private @Nonnull JSONObject vmOrTemplate(int i, boolean template) throws JSONException {
+        JSONObject site = site(i);
+        JSONObject nic = new JSONObject()
+                .put("VirtualMachineNicID", id("4f1a2b3c-0d1e-4f2a-8b3c-", i))
+                .put("NetworkID", id("c0ffee00-3b2a-4c4e-8a55-", i % 200))
+                .put("DeviceKey", 4000)
+                .put("AdapterType", 3);
+        JSONArray disks = new JSONArray();
+
+        for (int d=0; d<2; d++) {
+            disks.put(new JSONObject()
+                    .put("VirtualMachineDiskID", id("d15c0000-1a2b-4c3d-9e8f-", 2*i + d))
+                    .put("DiskFileName", "[datastore1] vm-" + i + "/vm-" + i + "_" + d + ".vmdk")
+                    .put("CapacityKB", 41943040L * (d + 1))
+                    .put("UnitNumber", String.valueOf(d))
+                    .put("DiskNumber", d)
+                    .put("DeviceKey", 2000 + d));
+        }
+        return new JSONObject()
+                .put("VirtualMachineID", id("00000000-aaaa-4bbb-8ccc-", i))
+                .put("CustomerDefinedName", (template ? "template-" : "vm-") + i)
+                .put("Description", "Benchmark " + (template ? "template " : "vm ") + i)
+                .put("IsTemplate", template)
+                .put("IsGlobalTemplate", false)
+                .put("IsRemoved", false)
+                .put("OS", (i % 2 == 0 ? "windows8Server64Guest" : "centos64Guest"))
+                .put("OSFullName", (i % 2 == 0 ? "Microsoft Windows Server 2012 (64-bit)" : "CentOS 4/5/6 (64-bit)"))
+                .put("TenantID", id("0b1e2f5a-6d7c-4e8f-9a0b-", i % 5))
+                .put("RegionID", site.getJSONObject("Region").getString("RegionID"))
+                .put("ResourcePoolID", id("7e3d9c1b-2a4f-4b6e-8d0c-", i % 40))
+                .put("PowerState", (i % 3 == 0 ? "poweredOff" : "poweredOn"))
+                .put("BootTime", String.format("2015-06-%02dT10:%02d:%02d.%03dZ", 1 + i % 28, i % 60, (i / 60) % 60, i % 1000))
+                .put("IPAddress", "10." + (i / 65536 % 256) + "." + (i / 256 % 256) + "." + (i % 256))
+                .put("NumCpu", 1 + i % 4)
+                .put("RamAllocatedMB", 1024 * (1 + i % 4))
+                .put("Hypervisor", new JSONObject().put("HypervisorID", id("4a5b6c7d-1e2f-4a3b-8c4d-", i % 60)).put("Site", site))
+                .put("Nics", new JSONArray().put(nic))
+                .put("Disks", disks);
+    }
+
+    /**
+     * @param i the document number
+     * @return a live VM with one NIC and two disks
+     */
+    static public @Nonnull JSONObject virtualMachine(int i) throws JSONException {
+        return vmOrTemplate(i, false);
+    }
+
+    /**
+     * @param i the document number
+     * @return a private template with one NIC and two disks
+     */
+    static public @Nonnull JSONObject template(int i) throws JSONException {
+        return vmOrTemplate(i, true);
+    }
+
+    /**
+     * @param i the document number
+     * @return a network available on four compute resources
+     */
+    static public @Nonnull JSONObject network(int i) throws JSONException {
+        JSONArray computeIds = new JSONArray();
+
+        for (int c=0; c<4; c++) {
+            computeIds.put(id("6c7d8e9f-0a1b-4c2d-8e3f-", (i + c) % 60));
+        }
+        return new JSONObject()
+                .put("NetworkID", id("c0ffee00-3b2a-4c4e-8a55-", i))
+                .put("Name", "network-" + i)
+                .put("Description", "Benchmark network " + i)
+                .put("IsRemoved", false)
+                .put("TenantID", id("0b1e2f5a-6d7c-4e8f-9a0b-", i % 5))
+                .put("Address", "10." + (i / 256 % 256) + "." + (i % 256) + ".1")
+                .put("Mask", "255.255.255.0")
+                .put("Hypervisor", new JSONObject().put("Site", site(i)))
+                .put("ComputeResourceIDs", computeIds);
+    }
+
+    /**
+     * @return a provider with a context but no connection to a cloud, for mappers that read the context
+     * @throws CloudException the provider could not be created
+     * @throws InternalException the provider could not be created
+     */
+    static public @Nonnull Virtustream connect() throws CloudException, InternalException {
+        Cloud cloud = Cloud.register("Virtustream", "Virtustream", "https://localhost", Virtustream.class);
+        ProviderContext ctx = cloud.createContext("benchmark", id("9a7ba5a9-1c5e-4f5e-b8b5-", 0));
+
+        return (Virtustream)ctx.connect();
+    }
+}
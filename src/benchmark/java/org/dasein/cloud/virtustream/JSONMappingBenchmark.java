@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link JSONMapping} helpers with the code they replaced in the mappers, over the fields of 10,000
+ * VM documents: a new SimpleDateFormat per boot time with a ParseException fallback, and an uncached platform and
+ * architecture guess per VM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class JSONMappingBenchmark {
+    static private final int DOCUMENTS = 10000;
+
+    private String[] bootTimes;
+    private String[] osNames;
+    private String[] osFullNames;
+
+    @Setup
+    public void setUp() throws Exception {
+        bootTimes = new String[DOCUMENTS];
+        osNames = new String[DOCUMENTS];
+        osFullNames = new String[DOCUMENTS];
+        for (int i=0; i<DOCUMENTS; i++) {
+            JSONObject json = BenchmarkDocuments.virtualMachine(i);
+
+            // half the boot times come without milliseconds, which the old code only parsed after an exception
+            bootTimes[i] = (i % 2 == 0 ? json.getString("BootTime") : json.getString("BootTime").replaceAll("\\.[0-9]+Z$", "Z"));
+            osNames[i] = json.getString("OS");
+            osFullNames[i] = json.getString("OSFullName");
+        }
+    }
+
+    static private long parseTimestampPerCall(String timestamp) {
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").parse(timestamp).getTime();
+        }
+        catch (ParseException e) {
+            try {
+                return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'").parse(timestamp).getTime();
+            }
+            catch (ParseException e2) {
+                return -1L;
+            }
+        }
+    }
+
+    static private Architecture guessArchitecture(String desc) {
+        Architecture arch = Architecture.I64;
+
+        if( desc.contains("x64") ) {
+            arch = Architecture.I64;
+        }
+        else if( desc.contains("x32") ) {
+            arch = Architecture.I32;
+        }
+        else if( desc.contains("64 bit") ) {
+            arch = Architecture.I64;
+        }
+        else if( desc.contains("32 bit") ) {
+            arch = Architecture.I32;
+        }
+        else if( desc.contains("i386") ) {
+            arch = Architecture.I32;
+        }
+        else if( desc.contains("64") ) {
+            arch = Architecture.I64;
+        }
+        else if( desc.contains("32") ) {
+            arch = Architecture.I32;
+        }
+        return arch;
+    }
+
+    @Benchmark
+    public void parseTimestamps(Blackhole bh) {
+        for (String bootTime : bootTimes) {
+            bh.consume(JSONMapping.parseTimestamp(bootTime));
+        }
+    }
+
+    @Benchmark
+    public void parseTimestampsPerCall(Blackhole bh) {
+        for (String bootTime : bootTimes) {
+            bh.consume(parseTimestampPerCall(bootTime));
+        }
+    }
+
+    @Benchmark
+    public void guessOperatingSystems(Blackhole bh) {
+        for (int i=0; i<DOCUMENTS; i++) {
+            bh.consume(JSONMapping.guessPlatform(osNames[i]));
+            bh.consume(JSONMapping.guessArchitecture(osFullNames[i]));
+        }
+    }
+
+    @Benchmark
+    public void guessOperatingSystemsUncached(Blackhole bh) {
+        for (int i=0; i<DOCUMENTS; i++) {
+            bh.consume(Platform.guess(osNames[i]));
+            bh.consume(guessArchitecture(osFullNames[i]));
+        }
+    }
+}
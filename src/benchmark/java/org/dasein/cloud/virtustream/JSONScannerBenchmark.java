@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the ID and power state of 10,000 full VM documents from a listing body, with {@link JSONScanner} and by
+ * parsing the body with org.json and looking the fields up, which is what the status sweeps did before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class JSONScannerBenchmark {
+    static private final int      DOCUMENTS = 10000;
+    static private final String[] FIELDS    = { "VirtualMachineID", "PowerState" };
+
+    private String body;
+
+    @Setup
+    public void setUp() throws Exception {
+        JSONArray array = new JSONArray();
+
+        for (int i=0; i<DOCUMENTS; i++) {
+            array.put(BenchmarkDocuments.virtualMachine(i));
+        }
+        body = array.toString();
+    }
+
+    @Benchmark
+    public void scan(final Blackhole bh) throws Exception {
+        JSONScanner.scan(body, FIELDS, new JSONScanner.FieldHandler() {
+            public void element(@Nonnull String[] values) {
+                bh.consume(values[0]);
+                bh.consume(values[1]);
+            }
+        });
+    }
+
+    @Benchmark
+    public void parseAndLookUp(Blackhole bh) throws Exception {
+        JSONArray array = JSONMapping.parseArray(body);
+
+        for (int i=0; i<array.length(); i++) {
+            JSONObject json = array.getJSONObject(i);
+
+            bh.consume(JSONMapping.optString(json, FIELDS[0]));
+            bh.consume(JSONMapping.optString(json, FIELDS[1]));
+        }
+    }
+}
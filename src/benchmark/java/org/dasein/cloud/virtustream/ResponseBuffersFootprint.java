@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated per response to read a page of 400 VM documents into a string, with
+ * {@link EntityUtils#toString(HttpEntity)} and with {@link ResponseBuffers}, for responses that declare their
+ * content length and for chunked responses that do not. Needs a HotSpot JVM, whose thread bean counts the bytes
+ * each thread allocates.
+ */
+public class ResponseBuffersFootprint {
+    static private final int PAGE      = 400;
+    static private final int RESPONSES = 1000;
+
+    static private long allocated() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static private @Nonnull HttpEntity entity(@Nonnull byte[] body, boolean chunked) {
+        if (chunked) {
+            return new InputStreamEntity(new ByteArrayInputStream(body), -1);
+        }
+        return new ByteArrayEntity(body);
+    }
+
+    static private long measure(@Nonnull byte[] body, boolean chunked, boolean pooled) throws Exception {
+        long length = 0L;
+        long before = allocated();
+
+        for (int i=0; i<RESPONSES; i++) {
+            HttpEntity entity = entity(body, chunked);
+
+            length += (pooled ? ResponseBuffers.toString(entity) : EntityUtils.toString(entity)).length();
+        }
+        long after = allocated();
+
+        if (length != (long)body.length * RESPONSES) {
+            throw new IllegalStateException("Bodies were not read in full");
+        }
+        return (after - before) / RESPONSES;
+    }
+
+    static public void main(String ... args) throws Exception {
+        JSONArray page = new JSONArray();
+
+        for (int i=0; i<PAGE; i++) {
+            page.put(BenchmarkDocuments.virtualMachine(i));
+        }
+        byte[] body = page.toString().getBytes("ISO-8859-1");
+
+        System.out.println(String.format("page of %d VMs: %,d bytes", PAGE, body.length));
+        // the first round loads and compiles the classes involved
+        for (int round=0; round<=3; round++) {
+            for (boolean chunked : new boolean[] { false, true }) {
+                long plain = measure(body, chunked, false);
+                long pooled = measure(body, chunked, true);
+
+                if (round > 0) {
+                    System.out.println(String.format("round %d, %s: %,d bytes per response with EntityUtils, %,d with ResponseBuffers (%.0f%% less)", round, (chunked ? "chunked" : "with length"), plain, pooled, 100.0 * (plain - pooled) / plain));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap retained by the identifiers of a cached inventory of 50,000 VMs with and without
+ * {@link StringInterner}. Each VM is parsed from its own document, as a listing does, and keeps the identifier
+ * fields the VM mapper stores. The tenant has 5 tenants, 3 regions, 12 sites, 40 resource pools and 200 networks.
+ */
+public class StringInternerFootprint {
+    static private final int VMS = 50000;
+
+    /**
+     * The identifiers a mapped VM holds on to.
+     */
+    static private class MappedIds {
+        String dataCenterId;
+        String networkId;
+        String ownerId;
+        String productId;
+        String regionId;
+        String resourcePoolId;
+    }
+
+    static private @Nonnull String document(int i) throws JSONException {
+        JSONObject region = new JSONObject().put("RegionID", "9a7ba5a9-1c5e-4f5e-b8b5-0000000000" + String.format("%02d", i % 3));
+        JSONObject site = new JSONObject().put("SiteID", "5d4c0e1c-7a51-4a24-9d27-0000000000" + String.format("%02d", i % 12)).put("Region", region);
+        JSONObject nic = new JSONObject().put("NetworkID", "c0ffee00-3b2a-4c4e-8a55-000000000" + String.format("%03d", i % 200));
+
+        return new JSONObject()
+                .put("VirtualMachineID", "vm-" + i)
+                .put("TenantID", "0b1e2f5a-6d7c-4e8f-9a0b-0000000000" + String.format("%02d", i % 5))
+                .put("RegionID", region.getString("RegionID"))
+                .put("ResourcePoolID", "7e3d9c1b-2a4f-4b6e-8d0c-0000000000" + String.format("%02d", i % 40))
+                .put("RamAllocatedMB", 1024 * (1 + i % 4))
+                .put("NumCpu", 1 + i % 4)
+                .put("Hypervisor", new JSONObject().put("Site", site))
+                .put("Nics", new JSONArray().put(nic))
+                .toString();
+    }
+
+    static private @Nonnull MappedIds map(@Nonnull JSONObject json, boolean intern) throws JSONException {
+        MappedIds ids = new MappedIds();
+        JSONObject site = json.getJSONObject("Hypervisor").getJSONObject("Site");
+
+        ids.ownerId = canonical(json.getString("TenantID"), intern);
+        ids.regionId = canonical(json.getString("RegionID"), intern);
+        ids.dataCenterId = canonical(site.getString("SiteID"), intern);
+        ids.resourcePoolId = canonical(json.getString("ResourcePoolID"), intern);
+        ids.networkId = canonical(json.getJSONArray("Nics").getJSONObject(0).getString("NetworkID"), intern);
+        ids.productId = canonical(json.getInt("RamAllocatedMB") + ":" + json.getInt("NumCpu"), intern);
+        return ids;
+    }
+
+    static private String canonical(@Nonnull String value, boolean intern) {
+        return (intern ? StringInterner.intern(value) : value);
+    }
+
+    static private long usedHeap() throws InterruptedException {
+        for (int i=0; i<5; i++) {
+            System.gc();
+            Thread.sleep(100L);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    static private long measure(boolean intern) throws Exception {
+        StringInterner.clear();
+        long before = usedHeap();
+        MappedIds[] inventory = new MappedIds[VMS];
+
+        for (int i=0; i<VMS; i++) {
+            inventory[i] = map(new JSONObject(document(i)), intern);
+        }
+        long after = usedHeap();
+
+        if (inventory[VMS - 1].ownerId == null) {
+            throw new IllegalStateException("Inventory was not mapped");
+        }
+        return after - before;
+    }
+
+    static public void main(String ... args) throws Exception {
+        // the first round loads and compiles the classes involved
+        measure(false);
+        measure(true);
+        for (int round=1; round<=3; round++) {
+            long copies = measure(false);
+            long interned = measure(true);
+
+            System.out.println(String.format("round %d: %,d bytes without interning, %,d bytes interned, %,d bytes (%.0f%%) saved", round, copies, interned, copies - interned, 100.0 * (copies - interned) / copies));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.virtustream.BenchmarkDocuments;
+import org.dasein.cloud.virtustream.PagedResults;
+import org.dasein.cloud.virtustream.ParallelMapping;
+import org.dasein.cloud.virtustream.Virtustream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps 10,000 template documents with {@link ParallelMapping}, on the calling thread and then in parallel in JVMs
+ * limited to 1, 2, 4 and 8 cores, to show how the mapping stage scales with the cores available. The mapping pool
+ * has one thread per core, so each core count gets its own fork. The forks need a JVM that honours
+ * <code>-XX:ActiveProcessorCount</code> (8u191 or later), and core counts beyond the machine's own do not scale
+ * further.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ParallelMappingBenchmark {
+    static private final int DOCUMENTS = 10000;
+
+    private PagedResults.Mapper<MachineImage> mapper;
+    private Virtustream                       provider;
+    private JSONArray                         templates;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Templates support;
+
+        provider = BenchmarkDocuments.connect();
+        support = new Templates(provider);
+        mapper = new PagedResults.Mapper<MachineImage>() {
+            @Override
+            public MachineImage map(@Nonnull JSONObject json) throws InternalException, CloudException {
+                return support.toImage(json);
+            }
+        };
+        templates = new JSONArray();
+        for (int i=0; i<DOCUMENTS; i++) {
+            templates.put(BenchmarkDocuments.template(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Benchmark
+    public List<MachineImage> mapTemplatesOnCallingThread() throws Exception {
+        return ParallelMapping.map(0, templates, mapper);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=1")
+    public List<MachineImage> mapTemplatesOn1Core() throws Exception {
+        return ParallelMapping.map(1, templates, mapper);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=2")
+    public List<MachineImage> mapTemplatesOn2Cores() throws Exception {
+        return ParallelMapping.map(1, templates, mapper);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=4")
+    public List<MachineImage> mapTemplatesOn4Cores() throws Exception {
+        return ParallelMapping.map(1, templates, mapper);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-XX:ActiveProcessorCount=8")
+    public List<MachineImage> mapTemplatesOn8Cores() throws Exception {
+        return ParallelMapping.map(1, templates, mapper);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.network;
+
+import org.dasein.cloud.virtustream.BenchmarkDocuments;
+import org.dasein.cloud.virtustream.Virtustream;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps 10,000 network documents into VLANs. Documents are parsed once in the setup, so only mapping is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class VlanMappingBenchmark {
+    static private final int DOCUMENTS = 10000;
+
+    private JSONObject[] networks;
+    private Virtustream  provider;
+    private Networks     support;
+
+    @Setup
+    public void setUp() throws Exception {
+        provider = BenchmarkDocuments.connect();
+        support = new Networks(provider);
+        networks = new JSONObject[DOCUMENTS];
+        for (int i=0; i<DOCUMENTS; i++) {
+            networks[i] = BenchmarkDocuments.network(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Benchmark
+    public void mapVlans(Blackhole bh) throws Exception {
+        for (JSONObject json : networks) {
+            bh.consume(support.toVlan(json));
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of independent Virtustream requests with a bounded number in flight at once, optionally spacing out
+ * the moment each one starts so a burst does not land on the same backend all at once. Results keep the order of
+ * the batch. Every request is allowed to finish, and the caller then sees the failure of the earliest one that
+ * failed, exactly as it would running them one at a time.
+ */
+public class ConcurrentRequests {
+    static private final Logger logger = Virtustream.getLogger(ConcurrentRequests.class);
+
+    static private final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Virtustream request");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * A single request of a batch.
+     */
+    public interface Request<T> {
+        /**
+         * @return the request's result
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        public @Nullable T call() throws InternalException, CloudException;
+    }
+
+    /**
+     * Reads a concurrency limit from a context custom property.
+     * @param provider the provider whose context holds the property
+     * @param property the property name
+     * @param defaultLimit the limit to use if the property is not set or is invalid
+     * @return the limit, at least 1
+     */
+    static public int getConfiguredLimit(@Nonnull Virtustream provider, @Nonnull String property, int defaultLimit) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String limit = (p == null ? null : p.getProperty(property));
+
+        if (limit != null && limit.length() > 0) {
+            try {
+                return Math.max(1, Integer.parseInt(limit));
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Invalid " + property + " property " + limit);
+            }
+        }
+        return Math.max(1, defaultLimit);
+    }
+
+    /**
+     * @param requests the requests to run
+     * @param limit the most requests in flight at once
+     * @param stagger the minimum time in milliseconds between the start of one request and the next
+     * @return the result of each request, in batch order
+     * @throws InternalException the earliest failed request could not parse its response, or the caller was interrupted
+     * @throws CloudException the earliest failed request got an error from Virtustream
+     */
+    @SuppressWarnings("unchecked")
+    static public @Nonnull <T> List<T> run(@Nonnull List<? extends Request<T>> requests, int limit, long stagger) throws InternalException, CloudException {
+        Object[] slots = execute(requests, limit, stagger);
+        List<T> results = new ArrayList<T>(slots.length);
+
+        for (Object slot : slots) {
+            if (slot instanceof ParallelMapping.Failure) {
+                Exception cause = ((ParallelMapping.Failure)slot).cause;
+
+                if (cause instanceof InternalException) {
+                    throw (InternalException)cause;
+                }
+                if (cause instanceof CloudException) {
+                    throw (CloudException)cause;
+                }
+                throw (RuntimeException)cause;
+            }
+            results.add((T)slot);
+        }
+        return results;
+    }
+
+    /**
+     * Runs the batch and reports each request's outcome instead of throwing, for callers that want to keep the
+     * results of the requests that succeeded.
+     * @param requests the requests to run
+     * @param limit the most requests in flight at once
+     * @param stagger the minimum time in milliseconds between the start of one request and the next
+     * @return one slot per request holding its result or, if it failed, the exception it threw
+     * @throws InternalException the caller was interrupted while waiting for the requests
+     */
+    static public @Nonnull Object[] runSlots(@Nonnull List<? extends Request<?>> requests, int limit, long stagger) throws InternalException {
+        Object[] slots = execute(requests, limit, stagger);
+
+        for (int i=0; i<slots.length; i++) {
+            if (slots[i] instanceof ParallelMapping.Failure) {
+                slots[i] = ((ParallelMapping.Failure)slots[i]).cause;
+            }
+        }
+        return slots;
+    }
+
+    static private @Nonnull Object[] execute(@Nonnull final List<? extends Request<?>> requests, int limit, final long stagger) throws InternalException {
+        final int n = requests.size();
+        final Object[] slots = new Object[n];
+        final AtomicInteger next = new AtomicInteger(0);
+        final long[] nextStart = { 0L };
+        int threads = Math.max(1, Math.min(limit, n));
+        List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+
+        if (n == 0) {
+            return slots;
+        }
+        for (int i=0; i<threads; i++) {
+            futures.add(workers.submit(new Runnable() {
+                public void run() {
+                    int index;
+
+                    while ((index = next.getAndIncrement()) < n) {
+                        if (stagger > 0 && !awaitTurn(nextStart, stagger)) {
+                            slots[index] = new ParallelMapping.Failure(new InternalException("Interrupted before starting request"));
+                            continue;
+                        }
+                        slots[index] = callOne(requests.get(index));
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted while waiting for requests");
+        }
+        catch (ExecutionException e) {
+            // callOne traps exceptions, so only errors reach here
+            throw new RuntimeException(e.getCause());
+        }
+        return slots;
+    }
+
+    static private boolean awaitTurn(@Nonnull long[] nextStart, long stagger) {
+        long wait;
+
+        synchronized (nextStart) {
+            long now = System.currentTimeMillis();
+            long start = Math.max(now, nextStart[0]);
+
+            nextStart[0] = start + stagger;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static private Object callOne(@Nonnull Request<?> request) {
+        try {
+            return request.call();
+        }
+        catch (InternalException e) {
+            return new ParallelMapping.Failure(e);
+        }
+        catch (CloudException e) {
+            return new ParallelMapping.Failure(e);
+        }
+        catch (RuntimeException e) {
+            return new ParallelMapping.Failure(e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.ProviderContext;
+import org.dasein.util.CalendarWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent, keyed cache whose entries expire a fixed time after they were stored. Unlike the dasein
+ * {@link org.dasein.cloud.util.Cache}, which holds one collection per context, this caches individual entities
+ * by ID so single-entity lookups can be served and invalidated on their own. A TTL of zero disables the cache.
+ * <p>
+ * A value read from the cloud while the same entity is being changed may be stale. To keep such a value out of
+ * the cache, take the entity's generation with {@link #getGeneration} before reading it and store it with
+ * {@link #put(String, Object, long)}, which drops it if the entity was invalidated in between. Generations are kept
+ * per stripe of keys rather than per key, so an invalidation may also drop a value of another key in its stripe.
+ * </p>
+ */
+public class ExpiringCache<T> {
+    static private class Entry<T> {
+        final long expires;
+        final T    value;
+
+        Entry(@Nonnull T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * Reads a TTL from a context custom property given in seconds.
+     * @param provider the provider whose context holds the property
+     * @param property the property name
+     * @param defaultTtl the TTL in milliseconds to use if the property is not set or is invalid
+     * @return the TTL in milliseconds
+     */
+    static public long getConfiguredTtl(@Nonnull Virtustream provider, @Nonnull String property, long defaultTtl) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String seconds = (p == null ? null : p.getProperty(property));
+
+        if (seconds != null && seconds.length() > 0) {
+            try {
+                long value = Long.parseLong(seconds);
+
+                if (value >= 0) {
+                    return value * CalendarWrapper.SECOND;
+                }
+            }
+            catch (NumberFormatException ignore) {
+                // fall through to the default
+            }
+        }
+        return defaultTtl;
+    }
+
+    static private final int STRIPES = 64;
+
+    private final ConcurrentHashMap<String,Entry<T>> entries = new ConcurrentHashMap<String, Entry<T>>();
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    private volatile long ttl;
+
+    /**
+     * @param ttl the time in milliseconds an entry stays valid; zero disables caching
+     */
+    public ExpiringCache(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+        if (ttl <= 0) {
+            clear();
+        }
+    }
+
+    public boolean isEnabled() {
+        return (ttl > 0);
+    }
+
+    /**
+     * @param key the entity ID
+     * @return the cached value or <code>null</code> if there is none or it has expired
+     */
+    public @Nullable T get(@Nonnull String key) {
+        Entry<T> entry = entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void put(@Nonnull String key, @Nonnull T value) {
+        long t = ttl;
+
+        if (t > 0) {
+            entries.put(key, new Entry<T>(value, System.currentTimeMillis() + t));
+        }
+    }
+
+    /**
+     * @param key the entity ID
+     * @return the entity's current generation, which changes each time it is invalidated
+     */
+    public long getGeneration(@Nonnull String key) {
+        return generations.get(stripe(key));
+    }
+
+    /**
+     * Stores a value unless the entity has been invalidated since its generation was taken.
+     * @param key the entity ID
+     * @param value the value read from the cloud
+     * @param generation the entity's generation from before the value was read
+     */
+    public void put(@Nonnull String key, @Nonnull T value, long generation) {
+        long t = ttl;
+
+        if (t > 0) {
+            Entry<T> entry = new Entry<T>(value, System.currentTimeMillis() + t);
+
+            entries.put(key, entry);
+            // invalidation moves the generation on before removing, so either it removes this entry or this sees it
+            if (getGeneration(key) != generation) {
+                entries.remove(key, entry);
+            }
+        }
+    }
+
+    public void invalidate(@Nonnull String key) {
+        generations.incrementAndGet(stripe(key));
+        entries.remove(key);
+    }
+
+    public void clear() {
+        for (int i=0; i<STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        entries.clear();
+    }
+
+    static private int stripe(@Nonnull String key) {
+        return (key.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    /**
+     * Drops expired entries that have not been read since they expired.
+     */
+    public void prune() {
+        long now = System.currentTimeMillis();
+
+        for (Iterator<Map.Entry<String,Entry<T>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue().expires < now) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Helpers shared by the JSON to model mappers: single-lookup field access, timestamp parsing that never throws,
+ * and memoised guesses of platform and architecture from the OS descriptors Virtustream returns.
+ */
+public class JSONMapping {
+    static private final int MAX_GUESSES = 1024;
+
+    static private final String[] TIMESTAMP_FORMATS = { "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", "yyyy-MM-dd'T'HH:mm:ss'Z'" };
+
+    /**
+     * SimpleDateFormat is not thread-safe, so each thread compiles the formats once and keeps them.
+     */
+    static private final ThreadLocal<SimpleDateFormat[]> timestampFormats = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            SimpleDateFormat[] formats = new SimpleDateFormat[TIMESTAMP_FORMATS.length];
+
+            for (int i=0; i<formats.length; i++) {
+                formats[i] = new SimpleDateFormat(TIMESTAMP_FORMATS[i]);
+            }
+            return formats;
+        }
+    };
+
+    static private final ConcurrentHashMap<String,Architecture> architectures = new ConcurrentHashMap<String, Architecture>();
+    static private final ConcurrentHashMap<String,Platform>     platforms     = new ConcurrentHashMap<String, Platform>();
+
+    /**
+     * Reads a field with a single lookup in place of the <code>has</code>/<code>isNull</code>/<code>getString</code>
+     * sequence.
+     * @param json the object to read from
+     * @param field the field name
+     * @return the field's value as a string, or <code>null</code> if it is absent or null
+     */
+    static public @Nullable String optString(@Nonnull JSONObject json, @Nonnull String field) {
+        Object value = json.opt(field);
+
+        if (value == null || JSONObject.NULL.equals(value)) {
+            return null;
+        }
+        return value.toString();
+    }
+
+    /**
+     * @param json the object to read from
+     * @param field the field name
+     * @return the field's value as an object, or <code>null</code> if it is absent or not an object
+     */
+    static public @Nullable JSONObject optObject(@Nonnull JSONObject json, @Nonnull String field) {
+        Object value = json.opt(field);
+
+        return (value instanceof JSONObject ? (JSONObject)value : null);
+    }
+
+    /**
+     * @param body a response body holding a JSON array
+     * @return the parsed array
+     * @throws InternalException the body is not a valid JSON array
+     */
+    static public @Nonnull JSONArray parseArray(@Nonnull String body) throws InternalException {
+        try {
+            return new JSONArray(body);
+        }
+        catch (JSONException e) {
+            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+        }
+    }
+
+    /**
+     * @param body a response body holding a JSON object
+     * @return the parsed object
+     * @throws InternalException the body is not a valid JSON object
+     */
+    static public @Nonnull JSONObject parseObject(@Nonnull String body) throws InternalException {
+        try {
+            return new JSONObject(body);
+        }
+        catch (JSONException e) {
+            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+        }
+    }
+
+    /**
+     * Maps every entry of an array, in array order.
+     * @param array the entries to map
+     * @param mapper the mapper for a single entry
+     * @return the non-null results in array order
+     * @throws InternalException an entry could not be parsed
+     * @throws CloudException an entry describes an invalid cloud state
+     */
+    static public @Nonnull <T> List<T> mapAll(@Nonnull JSONArray array, @Nonnull PagedResults.Mapper<T> mapper) throws InternalException, CloudException {
+        List<T> list = new ArrayList<T>(array.length());
+
+        for (int i=0; i<array.length(); i++) {
+            try {
+                T item = mapper.map(array.getJSONObject(i));
+
+                if (item != null) {
+                    list.add(item);
+                }
+            }
+            catch (JSONException e) {
+                throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Parses a Virtustream timestamp, with or without milliseconds, without using exceptions for the format that
+     * does not match.
+     * @param timestamp the timestamp to parse
+     * @return the timestamp in milliseconds since the epoch, or -1 if it matches no known format
+     */
+    static public long parseTimestamp(@Nullable String timestamp) {
+        if (timestamp == null) {
+            return -1L;
+        }
+        for (SimpleDateFormat format : timestampFormats.get()) {
+            ParsePosition position = new ParsePosition(0);
+            Date d = format.parse(timestamp, position);
+
+            if (d != null && position.getIndex() == timestamp.length()) {
+                return d.getTime();
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * @param os an OS descriptor such as the <code>OS</code> field
+     * @return the platform {@link Platform#guess(String)} finds for it, memoised per descriptor
+     */
+    static public @Nonnull Platform guessPlatform(@Nullable String os) {
+        if (os == null) {
+            return Platform.UNKNOWN;
+        }
+        Platform platform = platforms.get(os);
+
+        if (platform == null) {
+            platform = Platform.guess(os);
+            if (platforms.size() < MAX_GUESSES) {
+                platforms.put(os, platform);
+            }
+        }
+        return platform;
+    }
+
+    /**
+     * @param desc an OS descriptor such as the <code>OSFullName</code> field
+     * @return the architecture implied by the descriptor, defaulting to 64 bit, memoised per descriptor
+     */
+    static public @Nonnull Architecture guessArchitecture(@Nullable String desc) {
+        if (desc == null) {
+            return Architecture.I64;
+        }
+        Architecture arch = architectures.get(desc);
+
+        if (arch == null) {
+            arch = guess(desc);
+            if (architectures.size() < MAX_GUESSES) {
+                architectures.put(desc, arch);
+            }
+        }
+        return arch;
+    }
+
+    static private @Nonnull Architecture guess(@Nonnull String desc) {
+        Architecture arch = Architecture.I64;
+
+        if( desc.contains("x64") ) {
+            arch = Architecture.I64;
+        }
+        else if( desc.contains("x32") ) {
+            arch = Architecture.I32;
+        }
+        else if( desc.contains("64 bit") ) {
+            arch = Architecture.I64;
+        }
+        else if( desc.contains("32 bit") ) {
+            arch = Architecture.I32;
+        }
+        else if( desc.contains("i386") ) {
+            arch = Architecture.I32;
+        }
+        else if( desc.contains("64") ) {
+            arch = Architecture.I64;
+        }
+        else if( desc.contains("32") ) {
+            arch = Architecture.I32;
+        }
+        return arch;
+    }
+}
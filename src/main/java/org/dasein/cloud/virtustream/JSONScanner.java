@@ -0,0 +1,354 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Reads projections of a few fields out of a listing body in a single pass over the text. Keys are matched in
+ * place and every value that was not asked for is skipped without being materialised, so no org.json tree is
+ * built. Bodies that are mapped into model objects are parsed with org.json through {@link JSONMapping}.
+ */
+public class JSONScanner {
+    /**
+     * Receives the requested fields of each element of an array scanned with {@link JSONScanner#scan}.
+     */
+    public interface FieldHandler {
+        /**
+         * @param values the text of each requested field, in the order requested, or <code>null</code> where the
+         * field is absent or null; an object or array field is given as its JSON text as it appears in the body;
+         * the array is reused for every element
+         * @throws InternalException the values could not be interpreted
+         * @throws CloudException the values describe an invalid cloud state
+         */
+        public void element(@Nonnull String[] values) throws InternalException, CloudException;
+    }
+
+    /**
+     * Reads the named top-level fields of every object in a JSON array.
+     * @param body a response body holding a JSON array of objects
+     * @param fields the fields to read
+     * @param handler the recipient of each element's field values
+     * @return the number of elements in the array
+     * @throws InternalException the body is not a valid JSON array of objects
+     * @throws CloudException the handler rejected an element
+     */
+    static public int scan(@Nonnull String body, @Nonnull String[] fields, @Nonnull FieldHandler handler) throws InternalException, CloudException {
+        Cursor c = new Cursor(body);
+        String[] values = new String[fields.length];
+        int count = 0;
+
+        c.skipWhitespace();
+        c.expect('[');
+        c.skipWhitespace();
+        if (c.peek() == ']') {
+            c.pos++;
+            c.expectEnd();
+            return 0;
+        }
+        while (true) {
+            c.skipWhitespace();
+            c.expect('{');
+            Arrays.fill(values, null);
+            c.skipWhitespace();
+            if (c.peek() == '}') {
+                c.pos++;
+            }
+            else {
+                while (true) {
+                    c.skipWhitespace();
+                    int field = c.readKey(fields);
+
+                    c.skipWhitespace();
+                    c.expect(':');
+                    c.skipWhitespace();
+                    if (field >= 0) {
+                        values[field] = c.readFieldText();
+                    }
+                    else {
+                        c.skipValue();
+                    }
+                    c.skipWhitespace();
+                    if (c.peek() == ',') {
+                        c.pos++;
+                        continue;
+                    }
+                    c.expect('}');
+                    break;
+                }
+            }
+            handler.element(values);
+            count++;
+            c.skipWhitespace();
+            if (c.peek() == ',') {
+                c.pos++;
+                continue;
+            }
+            c.expect(']');
+            break;
+        }
+        c.expectEnd();
+        return count;
+    }
+
+    static private class Cursor {
+        private final String text;
+        private int          pos = 0;
+
+        Cursor(@Nonnull String text) {
+            this.text = text;
+        }
+
+        @Nonnull InternalException error(@Nonnull String message) {
+            return new InternalException("Unable to parse JSON at position " + pos + ": " + message);
+        }
+
+        char peek() throws InternalException {
+            if (pos >= text.length()) {
+                throw error("unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        void expect(char expected) throws InternalException {
+            if (peek() != expected) {
+                throw error("expected '" + expected + "' but found '" + text.charAt(pos) + "'");
+            }
+            pos++;
+        }
+
+        void expectEnd() throws InternalException {
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("unexpected trailing content");
+            }
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return;
+                }
+                pos++;
+            }
+        }
+
+        @Nonnull String readString() throws InternalException {
+            expect('"');
+            int start = pos;
+
+            // fast path: no escapes, so the value is a plain substring
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+
+                if (c == '"') {
+                    return text.substring(start, pos++);
+                }
+                if (c == '\\') {
+                    break;
+                }
+                pos++;
+            }
+            StringBuilder sb = new StringBuilder(text.substring(start, pos));
+
+            while (true) {
+                char c = peek();
+
+                pos++;
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = peek();
+
+                pos++;
+                switch (e) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("truncated unicode escape");
+                        }
+                        try {
+                            sb.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        }
+                        catch (NumberFormatException ex) {
+                            throw error("invalid unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: sb.append(e); break;
+                }
+            }
+        }
+
+        @Nonnull String readLiteral() throws InternalException {
+            int start = pos;
+
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+
+                if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error("expected a value");
+            }
+            return text.substring(start, pos);
+        }
+
+        /**
+         * Reads an object key and matches it against the requested fields without creating a string unless the key
+         * contains escapes.
+         * @return the index of the matching field or -1
+         */
+        int readKey(@Nonnull String[] fields) throws InternalException {
+            if (peek() != '"') {
+                throw error("expected a key");
+            }
+            int start = pos + 1;
+            int quote = start;
+            boolean escaped = false;
+
+            while (quote < text.length()) {
+                char c = text.charAt(quote);
+
+                if (c == '"') {
+                    break;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                    break;
+                }
+                quote++;
+            }
+            if (quote >= text.length()) {
+                throw error("unterminated key");
+            }
+            if (escaped) {
+                String key = readString();
+
+                for (int i=0; i<fields.length; i++) {
+                    if (fields[i].equals(key)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            pos = quote + 1;
+            int length = quote - start;
+
+            for (int i=0; i<fields.length; i++) {
+                if (fields[i].length() == length && text.regionMatches(start, fields[i], 0, length)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the text of a scalar value or the JSON text of an object or array, or <code>null</code> for null
+         */
+        @Nullable String readFieldText() throws InternalException {
+            char c = peek();
+
+            if (c == '"') {
+                return readString();
+            }
+            if (c == '{' || c == '[') {
+                int start = pos;
+
+                skipValue();
+                return text.substring(start, pos);
+            }
+            String literal = readLiteral();
+
+            return (literal.equals("null") ? null : literal);
+        }
+
+        void skipValue() throws InternalException {
+            char c = peek();
+
+            if (c == '"') {
+                skipString();
+                return;
+            }
+            if (c != '{' && c != '[') {
+                while (pos < text.length()) {
+                    c = text.charAt(pos);
+                    if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                        return;
+                    }
+                    pos++;
+                }
+                return;
+            }
+            int depth = 0;
+
+            while (true) {
+                c = peek();
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                pos++;
+                if (c == '{' || c == '[') {
+                    depth++;
+                }
+                else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        void skipString() throws InternalException {
+            expect('"');
+            while (true) {
+                char c = peek();
+
+                pos++;
+                if (c == '\\') {
+                    peek();
+                    pos++;
+                }
+                else if (c == '"') {
+                    return;
+                }
+            }
+        }
+    }
+}
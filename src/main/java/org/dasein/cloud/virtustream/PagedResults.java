@@ -0,0 +1,455 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.util.APITrace;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Lazily streams a paged Virtustream listing. The first page is fetched when the results are created so that
+ * request errors surface to the caller as checked exceptions. Each later page is requested in the background
+ * while the caller is still working through the page before it, so at most two pages are held at any time.
+ * An iterator cannot throw checked exceptions, so errors on later pages are thrown as a {@link PageException}
+ * carrying the {@link CloudException} or {@link InternalException} that occurred. Pages at least as long as the
+ * {@link ParallelMapping} threshold are mapped in parallel when the page is reached, so mappers must be thread-safe.
+ * <p>
+ * A listing ends at the first empty page rather than the first short one, so a server that caps pages below the
+ * requested size does not truncate it, and each page starts where the entities actually received end.
+ * </p>
+ * <p>
+ * Pages are addressed by position, so a listing that changes while it is read is not a consistent snapshot. An
+ * entity created ahead of the current position pushes entities already returned onto the next page; those are
+ * recognised by their key and returned only once. An entity removed ahead of the current position pulls the first
+ * entity of the next page back onto the page already read, and that entity is missing from the listing. Callers
+ * that must see every entity should list again after a change.
+ * </p>
+ * <p>
+ * A prefetched page is requested on a background thread, under an operation of the same name as the caller's
+ * so that its API calls are traced.
+ * </p>
+ */
+public class PagedResults<T> implements Iterable<T> {
+    static private final Logger logger = Virtustream.getLogger(PagedResults.class);
+
+    /**
+     * Maps a single listing entry into a model object.
+     */
+    public interface Mapper<T> {
+        /**
+         * @param json the listing entry
+         * @return the mapped object or <code>null</code> if the entry should be skipped
+         * @throws InternalException the entry could not be parsed
+         * @throws CloudException the entry describes an invalid cloud state
+         */
+        public @Nullable T map(@Nonnull JSONObject json) throws InternalException, CloudException;
+    }
+
+    /**
+     * Fetches a single page of a listing; see {@link VirtustreamMethod#getPage}.
+     */
+    interface PageSource {
+        public @Nullable String getPage(@Nonnull String resource, int skip, int top, @Nonnull String command) throws InternalException, CloudException;
+    }
+
+    /**
+     * Thrown from the iterator when a page after the first cannot be loaded or mapped.
+     */
+    static public class PageException extends RuntimeException {
+        private PageException(@Nonnull InternalException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        private PageException(@Nonnull CloudException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        /**
+         * Rethrows the checked exception that caused this one, for callers that can declare it.
+         * @throws InternalException a page could not be parsed or mapped
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        public void rethrow() throws InternalException, CloudException {
+            Throwable cause = getCause();
+
+            if (cause instanceof CloudException) {
+                throw (CloudException)cause;
+            }
+            throw (InternalException)cause;
+        }
+    }
+
+    /**
+     * Recognises entities that a listing returns again on the page after the one they were first returned on.
+     */
+    static private class Repeats {
+        private Set<String> current  = new HashSet<String>();
+        private Set<String> previous = Collections.emptySet();
+
+        /**
+         * @param key the key of an entity on the current page, <code>null</code> if it has none
+         * @return true if the entity was already returned on the previous page
+         */
+        boolean isRepeat(@Nullable String key) {
+            if (key == null) {
+                return false;
+            }
+            current.add(key);
+            return previous.contains(key);
+        }
+
+        void endPage() {
+            previous = current;
+            current = new HashSet<String>();
+        }
+    }
+
+    static private final ExecutorService prefetcher = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Virtustream page prefetch");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final String      command;
+    private final JSONArray   firstPage;
+    private final String      keyField;
+    private final Mapper<T>   mapper;
+    private final int         pageSize;
+    private final int         parallelThreshold;
+    private final Virtustream provider;
+    private final String      resource;
+    private final PageSource  source;
+
+    public PagedResults(@Nonnull Virtustream provider, @Nonnull String resource, @Nonnull String command, @Nonnull Mapper<T> mapper) throws InternalException, CloudException {
+        this(provider, new VirtustreamMethod(provider), new VirtustreamMethod(provider).getPageSize(), ParallelMapping.getThreshold(provider), resource, command, mapper);
+    }
+
+    /**
+     * @param provider the provider to trace prefetch requests against, <code>null</code> to leave them untraced
+     */
+    PagedResults(@Nullable Virtustream provider, @Nonnull PageSource source, int pageSize, @Nonnull String resource, @Nonnull String command, @Nonnull Mapper<T> mapper) throws InternalException, CloudException {
+        this(provider, source, pageSize, 0, resource, command, mapper);
+    }
+
+    /**
+     * @param provider the provider to trace prefetch requests against, <code>null</code> to leave them untraced
+     * @param parallelThreshold the smallest page to map in parallel, 0 to map every page on the iterating thread
+     */
+    PagedResults(@Nullable Virtustream provider, @Nonnull PageSource source, int pageSize, int parallelThreshold, @Nonnull String resource, @Nonnull String command, @Nonnull Mapper<T> mapper) throws InternalException, CloudException {
+        this.provider = provider;
+        this.parallelThreshold = parallelThreshold;
+        this.source = source;
+        this.keyField = VirtustreamMethod.getKeyField(resource);
+        this.pageSize = pageSize;
+        this.resource = resource;
+        this.command = command;
+        this.mapper = mapper;
+        this.firstPage = fetch(0);
+    }
+
+    private @Nonnull JSONArray fetch(int skip) throws InternalException, CloudException {
+        String obj = source.getPage(resource, skip, pageSize, command);
+
+        if (obj == null || obj.length() == 0) {
+            return new JSONArray();
+        }
+        return JSONMapping.parseArray(obj);
+    }
+
+    private @Nonnull JSONArray fetchTraced(int skip) throws InternalException, CloudException {
+        if (provider == null) {
+            return fetch(skip);
+        }
+        // the caller's trace belongs to its own thread
+        APITrace.begin(provider, command);
+        try {
+            return fetch(skip);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Fetches every page of a listing into a single array, one page after another on the calling thread.
+     * @param provider the provider to query
+     * @param resource the resource to list
+     * @param command the trace name of the calling operation
+     * @return every entry of the listing
+     * @throws InternalException a page could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    static public @Nonnull JSONArray fetchAll(@Nonnull Virtustream provider, @Nonnull String resource, @Nonnull String command) throws InternalException, CloudException {
+        VirtustreamMethod method = new VirtustreamMethod(provider);
+
+        return fetchAll(method, method.getPageSize(), resource, command);
+    }
+
+    static @Nonnull JSONArray fetchAll(@Nonnull PageSource source, int pageSize, @Nonnull String resource, @Nonnull String command) throws InternalException, CloudException {
+        JSONArray all = new JSONArray();
+        String keyField = VirtustreamMethod.getKeyField(resource);
+        Repeats repeats = new Repeats();
+        int skip = 0;
+
+        while (true) {
+            String obj = source.getPage(resource, skip, pageSize, command);
+
+            if (obj == null || obj.length() == 0) {
+                return all;
+            }
+            JSONArray page = JSONMapping.parseArray(obj);
+
+            if (page.length() == 0) {
+                return all;
+            }
+            for (int i=0; i<page.length(); i++) {
+                Object entry = page.opt(i);
+
+                if (!(entry instanceof JSONObject) || !repeats.isRepeat(JSONMapping.optString((JSONObject)entry, keyField))) {
+                    all.put(entry);
+                }
+            }
+            repeats.endPage();
+            skip += page.length();
+        }
+    }
+
+    /**
+     * Walks every page of a listing and hands the named top-level fields of each entry to the handler, without
+     * mapping entries into objects. Pages are fetched one after another on the calling thread. Repeated entries are
+     * only recognised when the entity key is among the fields.
+     * @param provider the provider to query
+     * @param resource the resource to list, usually a <code>$select</code> projection of the fields
+     * @param command the trace name of the calling operation
+     * @param fields the fields to read from each entry
+     * @param handler the recipient of each entry's field values
+     * @throws InternalException a page could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    static public void scan(@Nonnull Virtustream provider, @Nonnull String resource, @Nonnull String command, @Nonnull String[] fields, @Nonnull JSONScanner.FieldHandler handler) throws InternalException, CloudException {
+        VirtustreamMethod method = new VirtustreamMethod(provider);
+
+        scan(method, method.getPageSize(), resource, command, fields, handler);
+    }
+
+    static void scan(@Nonnull PageSource source, int pageSize, @Nonnull String resource, @Nonnull String command, @Nonnull String[] fields, @Nonnull final JSONScanner.FieldHandler handler) throws InternalException, CloudException {
+        final int keyIndex = Arrays.asList(fields).indexOf(VirtustreamMethod.getKeyField(resource));
+        final Repeats repeats = new Repeats();
+        JSONScanner.FieldHandler unique = handler;
+        int skip = 0;
+
+        if (keyIndex > -1) {
+            unique = new JSONScanner.FieldHandler() {
+                public void element(@Nonnull String[] values) throws InternalException, CloudException {
+                    if (!repeats.isRepeat(values[keyIndex])) {
+                        handler.element(values);
+                    }
+                }
+            };
+        }
+        while (true) {
+            String obj = source.getPage(resource, skip, pageSize, command);
+            int count = (obj == null || obj.length() == 0 ? 0 : JSONScanner.scan(obj, fields, unique));
+
+            if (count == 0) {
+                return;
+            }
+            repeats.endPage();
+            skip += count;
+        }
+    }
+
+    static private @Nonnull RuntimeException toPageException(@Nonnull Throwable cause) {
+        if (cause instanceof CloudException) {
+            return new PageException((CloudException)cause);
+        }
+        if (cause instanceof InternalException) {
+            return new PageException((InternalException)cause);
+        }
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException)cause;
+        }
+        return new PageException(new InternalException(cause));
+    }
+
+    @Override
+    public @Nonnull Iterator<T> iterator() {
+        return new PageIterator();
+    }
+
+    private class PageIterator implements Iterator<T> {
+        private boolean           done    = false;
+        private int               index   = 0;
+        private T                 item    = null;
+        private Future<JSONArray> next    = null;
+        private JSONArray         page    = firstPage;
+        private Repeats           repeats = new Repeats();
+        private int               skip    = 0;
+        private int               slot    = 0;
+        private Object[]          slots   = null;
+
+        PageIterator() {
+            prefetch();
+        }
+
+        private void prefetch() {
+            if (page.length() == 0) {
+                next = null;
+                return;
+            }
+            final int nextSkip = skip + page.length();
+
+            next = prefetcher.submit(new Callable<JSONArray>() {
+                public JSONArray call() throws Exception {
+                    return fetchTraced(nextSkip);
+                }
+            });
+        }
+
+        private @Nonnull JSONArray await(@Nonnull Future<JSONArray> future) {
+            try {
+                return future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PageException(new InternalException("Interrupted while loading page of " + resource));
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+
+                logger.error("Unable to load page of " + resource + ": " + cause.getMessage());
+                throw toPageException(cause);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (item == null && !done) {
+                if (slots != null && slot < slots.length) {
+                    item = fromSlot(slots[slot++]);
+                }
+                else if (index == 0 && slots == null && parallelThreshold > 0 && page.length() >= parallelThreshold) {
+                    slots = mapPage();
+                    slot = 0;
+                    index = page.length();
+                }
+                else if (index < page.length()) {
+                    try {
+                        JSONObject json = page.getJSONObject(index++);
+
+                        if (!repeats.isRepeat(JSONMapping.optString(json, keyField))) {
+                            item = mapper.map(json);
+                        }
+                    }
+                    catch (JSONException e) {
+                        logger.error(e);
+                        throw new PageException(new InternalException("Unable to parse JSONObject "+e.getMessage()));
+                    }
+                    catch (InternalException e) {
+                        throw new PageException(e);
+                    }
+                    catch (CloudException e) {
+                        throw new PageException(e);
+                    }
+                }
+                else if (next == null) {
+                    done = true;
+                }
+                else {
+                    repeats.endPage();
+                    skip += page.length();
+                    page = await(next);
+                    index = 0;
+                    slots = null;
+                    prefetch();
+                }
+            }
+            return (item != null);
+        }
+
+        /**
+         * Maps the entries of the current page that are not repeats in parallel.
+         * @return one slot per entry mapped; see {@link ParallelMapping#mapSlots}
+         */
+        private @Nonnull Object[] mapPage() {
+            JSONArray fresh = new JSONArray();
+
+            for (int i=0; i<page.length(); i++) {
+                Object entry = page.opt(i);
+
+                if (!(entry instanceof JSONObject) || !repeats.isRepeat(JSONMapping.optString((JSONObject)entry, keyField))) {
+                    fresh.put(entry);
+                }
+            }
+            try {
+                return ParallelMapping.mapSlots(fresh, mapper);
+            }
+            catch (InternalException e) {
+                throw new PageException(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private @Nullable T fromSlot(@Nullable Object slot) {
+            if (slot instanceof ParallelMapping.Failure) {
+                throw toPageException(((ParallelMapping.Failure)slot).cause);
+            }
+            return (T)slot;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T t = item;
+
+            item = null;
+            return t;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Paged results are read-only");
+        }
+    }
+}
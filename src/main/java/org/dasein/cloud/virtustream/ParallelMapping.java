@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Maps a JSON array into model objects, splitting the work across a shared pool of one thread per core when the
+ * array is at least as long as the <code>parallelMappingThreshold</code> custom property. Parallel mapping is off
+ * unless that property is set. Results keep the order of the array, and if entries fail to map the caller sees
+ * the failure of the earliest one, exactly as it would mapping them one at a time.
+ * <p>
+ * Java 6 has no fork-join pool, so the array is cut into a few chunks per thread and the chunks are run on a
+ * fixed pool. Mappers run on the pool threads, so they must not touch state that is not thread-safe.
+ * </p>
+ */
+public class ParallelMapping {
+    static private final Logger logger = Virtustream.getLogger(ParallelMapping.class);
+
+    static private final int CHUNKS_PER_THREAD = 4;
+    static private final int THREADS           = Runtime.getRuntime().availableProcessors();
+
+    static private final ExecutorService mappers = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Virtustream mapper");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Marks a slot whose work failed.
+     */
+    static final class Failure {
+        final Exception cause;
+
+        Failure(@Nonnull Exception cause) {
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * @param provider the provider whose context holds the property
+     * @return the smallest array that is mapped in parallel, or 0 if parallel mapping is off
+     */
+    static public int getThreshold(@Nonnull Virtustream provider) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String threshold = (p == null ? null : p.getProperty("parallelMappingThreshold"));
+
+        if (threshold != null && threshold.length() > 0) {
+            try {
+                return Math.max(0, Integer.parseInt(threshold));
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Invalid parallelMappingThreshold property " + threshold);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Maps every entry of the array, in parallel if the array reaches the threshold configured for the provider.
+     * @param provider the provider whose context sets the threshold
+     * @param array the entries to map
+     * @param mapper the mapper for a single entry
+     * @return the non-null results in array order
+     * @throws InternalException the earliest entry that failed could not be parsed
+     * @throws CloudException the earliest entry that failed describes an invalid cloud state
+     */
+    static public @Nonnull <T> List<T> map(@Nonnull Virtustream provider, @Nonnull JSONArray array, @Nonnull PagedResults.Mapper<T> mapper) throws InternalException, CloudException {
+        return map(getThreshold(provider), array, mapper);
+    }
+
+    /**
+     * Maps every entry of the array, in parallel if the array reaches the threshold.
+     * @param threshold the smallest array to map in parallel, 0 to always map on the calling thread
+     * @param array the entries to map
+     * @param mapper the mapper for a single entry
+     * @return the non-null results in array order
+     * @throws InternalException the earliest entry that failed could not be parsed
+     * @throws CloudException the earliest entry that failed describes an invalid cloud state
+     */
+    @SuppressWarnings("unchecked")
+    static public @Nonnull <T> List<T> map(int threshold, @Nonnull JSONArray array, @Nonnull PagedResults.Mapper<T> mapper) throws InternalException, CloudException {
+        if (threshold <= 0 || array.length() < threshold) {
+            return JSONMapping.mapAll(array, mapper);
+        }
+        List<T> list = new ArrayList<T>(array.length());
+
+        for (Object slot : mapSlots(array, mapper)) {
+            if (slot instanceof Failure) {
+                Exception cause = ((Failure)slot).cause;
+
+                if (cause instanceof InternalException) {
+                    throw (InternalException)cause;
+                }
+                if (cause instanceof CloudException) {
+                    throw (CloudException)cause;
+                }
+                throw (RuntimeException)cause;
+            }
+            if (slot != null) {
+                list.add((T)slot);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Maps the array in parallel chunks. Each slot of the result holds the mapped object, <code>null</code> for a
+     * skipped entry, or a {@link Failure}. A chunk stops at its first failure; slots after it stay empty.
+     * @param array the entries to map
+     * @param mapper the mapper for a single entry
+     * @return one slot per array entry
+     * @throws InternalException the calling thread was interrupted while waiting for the mappers
+     */
+    static @Nonnull Object[] mapSlots(@Nonnull final JSONArray array, @Nonnull final PagedResults.Mapper<?> mapper) throws InternalException {
+        final int n = array.length();
+        final Object[] slots = new Object[n];
+        int chunks = Math.max(1, Math.min(n, THREADS * CHUNKS_PER_THREAD));
+        int chunk = (n + chunks - 1) / chunks;
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunks);
+
+        for (int start=0; start<n; start+=chunk) {
+            final int from = start;
+            final int to = Math.min(n, start + chunk);
+
+            futures.add(mappers.submit(new Runnable() {
+                public void run() {
+                    for (int i=from; i<to; i++) {
+                        slots[i] = mapOne(array, i, mapper);
+                        if (slots[i] instanceof Failure) {
+                            return;
+                        }
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new InternalException("Interrupted while mapping results");
+        }
+        catch (ExecutionException e) {
+            // mapOne traps exceptions, so only errors reach here
+            throw new RuntimeException(e.getCause());
+        }
+        return slots;
+    }
+
+    static private Object mapOne(@Nonnull JSONArray array, int index, @Nonnull PagedResults.Mapper<?> mapper) {
+        try {
+            return mapper.map(array.getJSONObject(index));
+        }
+        catch (JSONException e) {
+            logger.error(e);
+            return new Failure(new InternalException("Unable to parse JSONObject "+e.getMessage()));
+        }
+        catch (InternalException e) {
+            return new Failure(e);
+        }
+        catch (CloudException e) {
+            return new Failure(e);
+        }
+        catch (RuntimeException e) {
+            return new Failure(e);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.util.CalendarWrapper;
+
+/**
+ * The pause between checks of something Virtustream is still working on. It starts short, so work that finishes
+ * quickly is noticed quickly, and doubles after every check up to the 15 second interval the API has always been
+ * polled at, so long-running work costs no more requests than before.
+ */
+public class PollingBackoff {
+    static public final long INITIAL_DELAY = CalendarWrapper.SECOND;
+    static public final long MAXIMUM_DELAY = CalendarWrapper.SECOND * 15;
+
+    private long delay = INITIAL_DELAY;
+
+    /**
+     * Waits for the current delay and doubles it for next time.
+     */
+    public void pause() {
+        try {
+            Thread.sleep(delay);
+        }
+        catch (InterruptedException ignore) {}
+        delay = Math.min(delay * 2, MAXIMUM_DELAY);
+    }
+}
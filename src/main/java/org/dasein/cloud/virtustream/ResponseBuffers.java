@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads response bodies into a pool of reusable byte buffers and decodes them with a single conversion to a
+ * string, in place of {@link org.apache.http.util.EntityUtils#toString(HttpEntity)}, which grows a fresh character
+ * buffer for every response and copies it again into the string. As with EntityUtils, bodies are decoded as
+ * ISO-8859-1 unless the response declares a charset. The number of buffer bytes allocated and of body bytes read
+ * are kept so the effect of the pool can be measured.
+ * <p>
+ * The pool keeps at most {@link #MAX_POOLED} buffers of up to {@link #MAX_RETAINED} bytes, so it never holds on to
+ * more than 4 MB. A buffer grown past that size for an unusually large body is dropped once the body is read.
+ * </p>
+ */
+public class ResponseBuffers {
+    static private final Charset DEFAULT_CHARSET = Charset.forName("ISO-8859-1");
+
+    static private final int INITIAL_SIZE = 64 * 1024;
+    static final int         MAX_POOLED   = 4;
+    static final int         MAX_RETAINED = 1024 * 1024;
+
+    static private final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<byte[]>();
+    static private final AtomicInteger pooled         = new AtomicInteger(0);
+    static private final AtomicLong    allocatedBytes = new AtomicLong(0L);
+    static private final AtomicLong    readBytes      = new AtomicLong(0L);
+
+    /**
+     * Reads and decodes an entity's content, closing its stream.
+     * @param entity the response entity
+     * @return the decoded body
+     * @throws IOException an error occurred reading the content
+     */
+    static public @Nonnull String toString(@Nonnull HttpEntity entity) throws IOException {
+        InputStream input = entity.getContent();
+
+        if (input == null) {
+            return "";
+        }
+        long length = entity.getContentLength();
+        byte[] buffer = acquire(length > 0 && length <= Integer.MAX_VALUE ? (int)length : INITIAL_SIZE);
+
+        try {
+            int count = 0;
+            int n;
+
+            while ((n = input.read(buffer, count, buffer.length - count)) != -1) {
+                count += n;
+                if (count == buffer.length) {
+                    // a buffer sized from the content length is usually exactly full, so check for more first
+                    int next = input.read();
+
+                    if (next == -1) {
+                        break;
+                    }
+                    byte[] larger = allocate(buffer.length * 2);
+
+                    System.arraycopy(buffer, 0, larger, 0, count);
+                    release(buffer);
+                    buffer = larger;
+                    buffer[count++] = (byte)next;
+                }
+            }
+            readBytes.addAndGet(count);
+            return new String(buffer, 0, count, getCharset(entity));
+        }
+        finally {
+            release(buffer);
+            input.close();
+        }
+    }
+
+    /**
+     * @return the total size of the buffers allocated since the class was loaded
+     */
+    static public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return the total size of the response bodies read since the class was loaded
+     */
+    static public long getReadBytes() {
+        return readBytes.get();
+    }
+
+    /**
+     * Empties the pool, so that a measurement or test starts without buffers left over from earlier responses.
+     */
+    static void clear() {
+        while (pool.poll() != null) {
+            pooled.decrementAndGet();
+        }
+    }
+
+    static private @Nonnull Charset getCharset(@Nonnull HttpEntity entity) {
+        try {
+            ContentType type = ContentType.get(entity);
+
+            if (type != null && type.getCharset() != null) {
+                return type.getCharset();
+            }
+        }
+        catch (RuntimeException ignore) {
+            // an unparseable or unsupported content type falls back to the default
+        }
+        return DEFAULT_CHARSET;
+    }
+
+    static private @Nonnull byte[] acquire(int size) {
+        byte[] buffer = pool.poll();
+
+        if (buffer != null) {
+            if (buffer.length >= size) {
+                pooled.decrementAndGet();
+                return buffer;
+            }
+            // too small for this response but still good for others
+            pool.offer(buffer);
+        }
+        return allocate(Math.max(size, INITIAL_SIZE));
+    }
+
+    static private @Nonnull byte[] allocate(int size) {
+        allocatedBytes.addAndGet(size);
+        return new byte[size];
+    }
+
+    static private void release(@Nonnull byte[] buffer) {
+        if (buffer.length > MAX_RETAINED) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(buffer);
+        }
+        else {
+            pooled.decrementAndGet();
+        }
+    }
+}
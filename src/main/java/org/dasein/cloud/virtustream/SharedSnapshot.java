@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONArray;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A short-lived copy of a full listing shared by every operation derived from it. Only one caller downloads the
+ * listing when it has expired; callers arriving during the download wait for it and share its result rather than
+ * issuing their own. The arrays handed out are shared, so callers must not modify them. A TTL of zero disables
+ * sharing between calls that do not overlap.
+ */
+public class SharedSnapshot {
+    /**
+     * Downloads the listing.
+     */
+    public interface Loader {
+        /**
+         * @return every entry of the listing
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        public @Nonnull JSONArray load() throws InternalException, CloudException;
+    }
+
+    private final Loader     loader;
+    private final Object     loadLock   = new Object();
+    private final long       ttl;
+    private final AtomicLong generation = new AtomicLong(0L);
+    private volatile long    loads      = 0L;
+    private volatile long    loaded     = 0L;
+    private volatile JSONArray snapshot = null;
+
+    /**
+     * @param ttl the time in milliseconds a snapshot may be reused
+     * @param loader the source of the listing
+     */
+    public SharedSnapshot(long ttl, @Nonnull Loader loader) {
+        this.ttl = ttl;
+        this.loader = loader;
+    }
+
+    /**
+     * @return the current listing, downloading it if the snapshot has expired or been invalidated
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public @Nonnull JSONArray get() throws InternalException, CloudException {
+        long requested = generation.get();
+        long seenLoads = loads;
+        JSONArray current = snapshot;
+
+        if (current != null && System.currentTimeMillis() - loaded < ttl) {
+            return current;
+        }
+        synchronized (loadLock) {
+            current = snapshot;
+            // a download finished while we waited and nothing has been invalidated since we asked, so share it
+            if (current != null && loads != seenLoads && generation.get() == requested) {
+                return current;
+            }
+            long started = generation.get();
+
+            current = loader.load();
+            if (generation.get() == started) {
+                snapshot = current;
+                loaded = System.currentTimeMillis();
+                loads++;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return the current listing if it has neither expired nor been invalidated, otherwise <code>null</code>;
+     * never downloads anything
+     */
+    public @Nullable JSONArray peek() {
+        JSONArray current = snapshot;
+
+        if (current != null && System.currentTimeMillis() - loaded < ttl) {
+            return current;
+        }
+        return null;
+    }
+
+    /**
+     * Discards the snapshot so the next caller downloads the listing again. A download in progress when this is
+     * called is returned to the caller that started it but not kept.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+}
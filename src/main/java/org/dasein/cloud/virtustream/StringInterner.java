@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonicalises the identifier strings shared by many mapped objects (tenant, region, site, resource pool and
+ * network IDs) so a cached inventory holds one copy of each value rather than one per object. Unlike
+ * {@link String#intern()} the table is never consulted for anything else and cannot grow the JVM string pool.
+ * <p>
+ * The table holds at most {@link #MAX_ENTRIES} values. When it fills up it is emptied and starts over, so values
+ * that are no longer in use are released; objects mapped before then keep the instances they were given.
+ * </p>
+ */
+public class StringInterner {
+    static final int MAX_ENTRIES = 16384;
+
+    static private final ConcurrentHashMap<String,String> canonical = new ConcurrentHashMap<String, String>(256);
+
+    /**
+     * @param value the value to canonicalise
+     * @return the canonical instance equal to the value
+     */
+    static public @Nullable String intern(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = canonical.get(value);
+
+        if (existing != null) {
+            return existing;
+        }
+        if (canonical.size() >= MAX_ENTRIES) {
+            // concurrent callers may clear together or add a few entries past the bound before it is cleared
+            canonical.clear();
+        }
+        existing = canonical.putIfAbsent(value, value);
+        return (existing == null ? value : existing);
+    }
+
+    /**
+     * @return the number of canonical values held
+     */
+    static public int size() {
+        return canonical.size();
+    }
+
+    /**
+     * Drops every canonical value; values already handed out are unaffected.
+     */
+    static public void clear() {
+        canonical.clear();
+    }
+}
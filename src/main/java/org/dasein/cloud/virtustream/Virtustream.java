@@ -26,8 +26,17 @@ import org.dasein.cloud.ContextRequirements;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.virtustream.compute.VMInventoryStore;
+import org.dasein.cloud.virtustream.compute.ImageCatalog;
+import org.dasein.cloud.virtustream.compute.TemplateMetadata;
+import org.dasein.cloud.virtustream.compute.VMStatusWatcher;
+import org.dasein.cloud.virtustream.compute.VolumeIndex;
+import org.dasein.cloud.virtustream.compute.WarmVMPool;
 import org.dasein.cloud.virtustream.compute.VirtustreamComputeServices;
 import org.dasein.cloud.virtustream.network.VirtustreamNetworkServices;
+import org.dasein.cloud.virtustream.network.VlanCache;
+import org.dasein.util.CalendarWrapper;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -35,16 +44,23 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 public class Virtustream extends AbstractCloud {
     static private final Logger logger = getLogger(Virtustream.class);
 
-    static private final String DELETE_SESSION  = "deleteSession";
-    static private final String GET_SESSION     = "getSession";
-    static private final String TEST_CONTEXT    = "testContext";
-    static private final String WAIT_FOR_TASK   = "waitForTask";
+    static private final String DELETE_SESSION        = "deleteSession";
+    static private final String GET_SESSION           = "getSession";
+    static private final String LIST_VIRTUAL_MACHINES = "VM.listVms";
+    static private final String LIST_VLANS            = "Network.listVlans";
+    static private final String TEST_CONTEXT          = "testContext";
+    static private final String WAIT_FOR_TASK         = "waitForTask";
 
     static private @Nonnull String getLastItem(@Nonnull String name) {
         int idx = name.lastIndexOf('.');
@@ -74,6 +90,159 @@ public class Virtustream extends AbstractCloud {
 
     public Virtustream() {}
 
+    private transient VMStatusWatcher vmStatusWatcher;
+    private transient ExpiringCache<JSONObject> vmCache;
+    private transient VMInventoryStore vmInventory;
+    private transient VolumeIndex volumeIndex;
+    private transient SharedSnapshot vmSnapshot;
+    private transient ExpiringCache<TemplateMetadata> templateCache;
+    private transient ImageCatalog imageCatalog;
+    private transient WarmVMPool warmPool;
+    private transient VlanCache vlanCache;
+    private transient SharedSnapshot networkSnapshot;
+
+    /**
+     * @return the cache of raw VM documents shared by everything using this provider, with a TTL set by the
+     * <code>vmCacheTTL</code> custom property in seconds; it is off unless the property is set, since callers
+     * polling a VM for a state change would otherwise see data as old as the TTL
+     */
+    public synchronized @Nonnull ExpiringCache<JSONObject> getVirtualMachineCache() {
+        if (vmCache == null) {
+            vmCache = new ExpiringCache<JSONObject>(ExpiringCache.getConfiguredTtl(this, "vmCacheTTL", 0L));
+        }
+        return vmCache;
+    }
+
+    /**
+     * @return the snapshot of the tenant's live VMs from which volume and volume status listings are derived,
+     * reused for the number of seconds in the <code>vmListTTL</code> custom property (default 10); VM listings
+     * stream page by page instead so the whole tenant is never held at once
+     */
+    public synchronized @Nonnull SharedSnapshot getVirtualMachineSnapshot() {
+        if (vmSnapshot == null) {
+            vmSnapshot = new SharedSnapshot(ExpiringCache.getConfiguredTtl(this, "vmListTTL", CalendarWrapper.SECOND * 10), new SharedSnapshot.Loader() {
+                public @Nonnull JSONArray load() throws InternalException, CloudException {
+                    return PagedResults.fetchAll(Virtustream.this, "/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", LIST_VIRTUAL_MACHINES);
+                }
+            });
+        }
+        return vmSnapshot;
+    }
+
+    /**
+     * @return the snapshot of the tenant's live networks from which network and network status listings are
+     * derived, reused for the number of seconds in the <code>vlanListTTL</code> custom property (default 10)
+     */
+    public synchronized @Nonnull SharedSnapshot getNetworkSnapshot() {
+        if (networkSnapshot == null) {
+            networkSnapshot = new SharedSnapshot(ExpiringCache.getConfiguredTtl(this, "vlanListTTL", CalendarWrapper.SECOND * 10), new SharedSnapshot.Loader() {
+                public @Nonnull JSONArray load() throws InternalException, CloudException {
+                    VirtustreamMethod method = new VirtustreamMethod(Virtustream.this);
+                    String obj = method.getString("/Network?$filter=IsRemoved eq false", LIST_VLANS);
+
+                    if (obj == null || obj.length() < 1) {
+                        return new JSONArray();
+                    }
+                    return JSONMapping.parseArray(obj);
+                }
+            });
+        }
+        return networkSnapshot;
+    }
+
+    /**
+     * @return the network to compute resource mapping used for launch placement, kept for the number of seconds in
+     * the <code>vlanCacheTTL</code> custom property (default five minutes)
+     */
+    public synchronized @Nonnull VlanCache getVlanCache() {
+        if (vlanCache == null) {
+            vlanCache = new VlanCache(ExpiringCache.getConfiguredTtl(this, "vlanCacheTTL", CalendarWrapper.MINUTE * 5));
+        }
+        return vlanCache;
+    }
+
+    /**
+     * @return the in-memory template catalog shared by everything using this provider
+     */
+    public synchronized @Nonnull ImageCatalog getImageCatalog() {
+        if (imageCatalog == null) {
+            imageCatalog = new ImageCatalog(this);
+        }
+        return imageCatalog;
+    }
+
+    /**
+     * @return the launch metadata of templates used by this provider, kept for the number of seconds in the
+     * <code>templateCacheTTL</code> custom property (default one hour) since templates rarely change
+     */
+    public synchronized @Nonnull ExpiringCache<TemplateMetadata> getTemplateMetadataCache() {
+        if (templateCache == null) {
+            templateCache = new ExpiringCache<TemplateMetadata>(ExpiringCache.getConfiguredTtl(this, "templateCacheTTL", CalendarWrapper.HOUR));
+        }
+        return templateCache;
+    }
+
+    /**
+     * @return the indexed VM inventory shared by everything using this provider; it is empty until the first
+     * {@link VMInventoryStore#refresh()}
+     */
+    public synchronized @Nonnull VMInventoryStore getVMInventoryStore() {
+        if (vmInventory == null) {
+            vmInventory = new VMInventoryStore(this);
+        }
+        return vmInventory;
+    }
+
+    /**
+     * @return the disk to VM index shared by everything using this provider
+     */
+    public synchronized @Nonnull VolumeIndex getVolumeIndex() {
+        if (volumeIndex == null) {
+            volumeIndex = new VolumeIndex();
+        }
+        return volumeIndex;
+    }
+
+    /**
+     * @return the pools of pre-built VMs launches are served from; empty until a pool size is set
+     */
+    public synchronized @Nonnull WarmVMPool getWarmVMPool() {
+        if (warmPool == null) {
+            warmPool = new WarmVMPool(this);
+        }
+        return warmPool;
+    }
+
+    /**
+     * @return the VM status watcher shared by everything using this provider
+     */
+    public synchronized @Nonnull VMStatusWatcher getVMStatusWatcher() {
+        if (vmStatusWatcher == null) {
+            vmStatusWatcher = new VMStatusWatcher(this);
+        }
+        return vmStatusWatcher;
+    }
+
+    @Override
+    public void close() {
+        WarmVMPool pool;
+
+        synchronized (this) {
+            if (vmStatusWatcher != null) {
+                vmStatusWatcher.shutdown();
+            }
+            if (imageCatalog != null) {
+                imageCatalog.shutdown();
+            }
+            pool = warmPool;
+        }
+        // outside the lock as it terminates the pooled VMs
+        if (pool != null) {
+            pool.shutdown();
+        }
+        super.close();
+    }
+
     @Nonnull
     @Override
     public String getCloudName() {
@@ -174,13 +343,32 @@ public class Virtustream extends AbstractCloud {
         }
     }
 
+    /**
+     * Waits for the task named in a response, if there is one.
+     * @param response the response to a task-starting request
+     * @return the task result, or <code>null</code> if the response names no task or Virtustream lost it
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException the task failed
+     */
     public String parseTaskId( @Nonnull JSONObject response ) throws InternalException, CloudException {
+        String taskId = getTaskId(response);
+
+        return (taskId == null ? null : waitForTaskCompletion(taskId));
+    }
+
+    /**
+     * Reads the ID of the task started by a request without waiting for it, so several tasks can be submitted
+     * and then waited on together with {@link #waitForTaskCompletion(Collection)}.
+     * @param response the response to a task-starting request
+     * @return the task ID or <code>null</code> if the response names no task
+     * @throws InternalException the response could not be parsed
+     */
+    public @Nullable String getTaskId( @Nonnull JSONObject response ) throws InternalException {
         try {
             if (response.has("Headers") && !response.isNull("Headers")) {
                 JSONObject headers = response.getJSONObject("Headers");
                 if (headers.has("MessageId") && !headers.isNull("MessageId")) {
-                    String taskId = headers.getString("MessageId");
-                    return waitForTaskCompletion(taskId);
+                    return headers.getString("MessageId");
                 }
             }
             return null;
@@ -192,53 +380,71 @@ public class Virtustream extends AbstractCloud {
     }
 
     public String waitForTaskCompletion(@Nonnull String taskInfoID) throws InternalException, CloudException {
+        return waitForTaskCompletion(Collections.singletonList(taskInfoID)).get(taskInfoID);
+    }
+
+    /**
+     * Waits for several tasks at once, checking every unfinished task on each polling round, so the total wait is
+     * that of the slowest task rather than the sum of them all. Rounds follow a {@link PollingBackoff}, so a task
+     * that finishes quickly is seen within a second or two.
+     * @param taskInfoIDs the tasks to wait for
+     * @return the result of each task, which is <code>null</code> for a task Virtustream could not find
+     * @throws InternalException a task status could not be parsed
+     * @throws CloudException one of the tasks failed; the others are no longer waited for
+     */
+    public @Nonnull Map<String,String> waitForTaskCompletion(@Nonnull Collection<String> taskInfoIDs) throws InternalException, CloudException {
         APITrace.begin(this, WAIT_FOR_TASK);
-        String sessionID = null;
         try {
             try {
                 VirtustreamMethod method = new VirtustreamMethod(this);
-                int count = 0;
-                while (true) {
-                    try {
-                        Thread.sleep(15000L);
-                    }
-                    catch (InterruptedException ignore) {}
-                    String body = method.getString("/TaskInfo/" + taskInfoID, WAIT_FOR_TASK);
-                    count++;
-                    if (body != null && body.length() > 0) {
-                        JSONObject json = new JSONObject(body);
-                        int state = json.getInt("State");
-                        if (state == 4) {
-                            return json.getString("Result");
-                        }
-                        if (state == 1) {
-                            // check if this is a common error
-                            JSONObject errors = json.getJSONObject("Errors");
-                            Iterator<String> keys = errors.keys();
-                            while (keys.hasNext()) {
-                                String key = keys.next();
-                                if (key.contains("not found")) {
-                                    String error = key+": "+errors.getString(key);
-                                    logger.error("CloudException: "+error);
-                                    throw new CloudException("CloudException: "+error);
+                Map<String,String> results = new HashMap<String, String>();
+                List<String> pending = new ArrayList<String>(new LinkedHashSet<String>(taskInfoIDs));
+                PollingBackoff backoff = new PollingBackoff();
+                // tasks may take a while to show up, so allow as long as five polls at the full interval did
+                long giveUp = System.currentTimeMillis() + (PollingBackoff.MAXIMUM_DELAY * 5);
+                while (!pending.isEmpty()) {
+                    backoff.pause();
+                    for (Iterator<String> it = pending.iterator(); it.hasNext(); ) {
+                        String taskInfoID = it.next();
+                        String body = method.getString("/TaskInfo/" + taskInfoID, WAIT_FOR_TASK);
+                        if (body != null && body.length() > 0) {
+                            JSONObject json = new JSONObject(body);
+                            int state = json.getInt("State");
+                            if (state == 4) {
+                                results.put(taskInfoID, json.getString("Result"));
+                                it.remove();
+                            }
+                            else if (state == 1) {
+                                // check if this is a common error
+                                JSONObject errors = json.getJSONObject("Errors");
+                                Iterator<String> keys = errors.keys();
+                                while (keys.hasNext()) {
+                                    String key = keys.next();
+                                    if (key.contains("not found")) {
+                                        String error = key+": "+errors.getString(key);
+                                        logger.error("CloudException: "+error);
+                                        throw new CloudException("CloudException: "+error);
+                                    }
                                 }
+                                //at this point just return the full error message
+                                String error = json.getString("Errors");
+                                String tmperror = error.substring(0, error.indexOf(":\""));
+                                logger.error(error);
+                                throw new CloudException("CloudException: "+tmperror);
                             }
-                            //at this point just return the full error message
-                            String error = json.getString("Errors");
-                            String tmperror = error.substring(0, error.indexOf(":\""));
-                            logger.error(error);
-                            throw new CloudException("CloudException: "+tmperror);
                         }
-                    }
-                    else {
-                        if (count <= 4) {
-                            logger.error("Task id "+taskInfoID+" not found by Virtustream");
-                            logger.error("Attempts remaining "+(5-count));
-                            continue;
+                        else {
+                            if (System.currentTimeMillis() < giveUp) {
+                                logger.error("Task id "+taskInfoID+" not found by Virtustream");
+                                logger.error("Seconds remaining "+((giveUp-System.currentTimeMillis())/1000L));
+                                continue;
+                            }
+                            results.put(taskInfoID, null);
+                            it.remove();
                         }
-                        return null;
                     }
                 }
+                return results;
             }
             catch (JSONException e) {
                 logger.error(e);
@@ -34,10 +34,13 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Set;
 
 public class VirtustreamDataCenterServices implements DataCenterServices {
     static private final Logger logger = Logger.getLogger(VirtustreamDataCenterServices.class);
@@ -47,7 +50,64 @@ public class VirtustreamDataCenterServices implements DataCenterServices {
     static private final String LIST_DATACENTERS    =   "DC.listDataCenters";
     static private final String LIST_REGIONS        =   "DC.listRegions";
 
+    /**
+     * Looks up data centers and regions; the seam between the lookup order here and the listings and REST calls.
+     */
+    interface Source {
+        /**
+         * @param providerRegionId the region
+         * @return the data centers in the region, cached where possible
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        @Nonnull Collection<DataCenter> listDataCenters(@Nonnull String providerRegionId) throws InternalException, CloudException;
+
+        /**
+         * @param providerDataCenterId the data center
+         * @return the data center fetched on its own, or <code>null</code> if it does not exist
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        @Nullable DataCenter fetchDataCenter(@Nonnull String providerDataCenterId) throws InternalException, CloudException;
+
+        /**
+         * @return the regions with compute resources, cached where possible
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        @Nonnull Collection<Region> listRegions() throws InternalException, CloudException;
+
+        /**
+         * @param providerRegionId the region
+         * @return the region fetched on its own, or <code>null</code> if it does not exist
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        @Nullable Region fetchRegion(@Nonnull String providerRegionId) throws InternalException, CloudException;
+    }
+
     private Virtustream provider;
+    private final Source source = new Source() {
+        @Override
+        public @Nonnull Collection<DataCenter> listDataCenters(@Nonnull String providerRegionId) throws InternalException, CloudException {
+            return VirtustreamDataCenterServices.this.listDataCenters(providerRegionId);
+        }
+
+        @Override
+        public @Nullable DataCenter fetchDataCenter(@Nonnull String providerDataCenterId) throws InternalException, CloudException {
+            return VirtustreamDataCenterServices.this.fetchDataCenter(providerDataCenterId);
+        }
+
+        @Override
+        public @Nonnull Collection<Region> listRegions() throws InternalException, CloudException {
+            return VirtustreamDataCenterServices.this.listRegions();
+        }
+
+        @Override
+        public @Nullable Region fetchRegion(@Nonnull String providerRegionId) throws InternalException, CloudException {
+            return VirtustreamDataCenterServices.this.fetchRegion(providerRegionId);
+        }
+    };
 
     public VirtustreamDataCenterServices(Virtustream provider) { this.provider = provider; }
 
@@ -65,27 +125,41 @@ public class VirtustreamDataCenterServices implements DataCenterServices {
     public DataCenter getDataCenter(String providerDataCenterId) throws InternalException, CloudException {
         APITrace.begin(provider, GET_DATA_CENTER);
         try {
-            try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
-
-                String obj = method.getString("Site/"+providerDataCenterId,GET_DATA_CENTER);
-                if (obj != null && obj.length() > 0) {
-                    JSONObject json = new JSONObject(obj);
-                    DataCenter dc = toDataCenter(json);
-                    if (dc != null) {
-                        return dc;
-                    }
+            ProviderContext ctx = provider.getContext();
+
+            return findDataCenter(ctx == null ? null : ctx.getRegionId(), providerDataCenterId, source);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    static @Nullable DataCenter findDataCenter(@Nullable String contextRegionId, @Nonnull String providerDataCenterId, @Nonnull Source source) throws InternalException, CloudException {
+        // data centers in the context region are served from the cached listing, fetched once if need be
+        if (contextRegionId != null) {
+            for (DataCenter dc : source.listDataCenters(contextRegionId)) {
+                if (dc.getProviderDataCenterId().equals(providerDataCenterId)) {
+                    return dc;
                 }
             }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse json response "+e.getMessage());
-            }
+        }
+        return source.fetchDataCenter(providerDataCenterId);
+    }
+
+    private @Nullable DataCenter fetchDataCenter(@Nonnull String providerDataCenterId) throws InternalException, CloudException {
+        try {
+            VirtustreamMethod method = new VirtustreamMethod(provider);
 
+            String obj = method.getString("Site/"+providerDataCenterId,GET_DATA_CENTER);
+            if (obj != null && obj.length() > 0) {
+                JSONObject json = new JSONObject(obj);
+                return toDataCenter(json);
+            }
             return null;
         }
-        finally {
-            APITrace.end();
+        catch (JSONException e) {
+            logger.error(e);
+            throw new InternalException("Unable to parse json response "+e.getMessage());
         }
     }
 
@@ -103,27 +177,37 @@ public class VirtustreamDataCenterServices implements DataCenterServices {
     public Region getRegion(String providerRegionId) throws InternalException, CloudException {
         APITrace.begin(provider, GET_REGION);
         try {
-            try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
-                String obj = method.getString("Region/"+providerRegionId,GET_REGION);
-
-                if (obj != null && obj.length() > 0) {
-                    JSONObject json = new JSONObject(obj);
-                    Region r = toRegion(json);
+            return findRegion(providerRegionId, source);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-                    if (r != null) {
-                        return r;
-                    }
-                }
-                return null;
+    static @Nullable Region findRegion(@Nonnull String providerRegionId, @Nonnull Source source) throws InternalException, CloudException {
+        for (Region r : source.listRegions()) {
+            if (r.getProviderRegionId().equals(providerRegionId)) {
+                return r;
             }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+        }
+        // listRegions only has regions with compute resources
+        return source.fetchRegion(providerRegionId);
+    }
+
+    private @Nullable Region fetchRegion(@Nonnull String providerRegionId) throws InternalException, CloudException {
+        try {
+            VirtustreamMethod method = new VirtustreamMethod(provider);
+            String obj = method.getString("Region/"+providerRegionId,GET_REGION);
+
+            if (obj != null && obj.length() > 0) {
+                JSONObject json = new JSONObject(obj);
+                return toRegion(json);
             }
+            return null;
         }
-        finally {
-            APITrace.end();
+        catch (JSONException e) {
+            logger.error(e);
+            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
         }
     }
 
@@ -147,7 +231,7 @@ public class VirtustreamDataCenterServices implements DataCenterServices {
                     String obj = method.getString("Site?$filter=Region/RegionID eq '"+providerRegionId+"'", LIST_DATACENTERS);
 
                     if (obj != null && obj.length()> 0) {
-                        JSONArray json =  new JSONArray(obj);
+                        JSONArray json = JSONMapping.parseArray(obj);
                         for (int i=0; i<json.length(); i++) {
                             DataCenter dc = toDataCenter(json.getJSONObject(i));
 
@@ -202,13 +286,19 @@ public class VirtustreamDataCenterServices implements DataCenterServices {
                     // only return regions where we have compute resource available
                     String obj = method.getString("ResourcePool?$distinct=Hypervisor", LIST_REGIONS);
                     if (obj != null && obj.length() > 0) {
-                        JSONArray nodes = new JSONArray(obj);
+                        JSONArray nodes = JSONMapping.parseArray(obj);
+                        Set<String> seen = new HashSet<String>();
                         for (int i=0; i<nodes.length(); i++) {
                             //read out site then get the site's region
                             JSONObject hypervisor = nodes.getJSONObject(i);
                             JSONObject site = hypervisor.getJSONObject("Site");
                             JSONObject region = site.getJSONObject("Region");
 
+                            // many hypervisors share a region, so only map each region once
+                            String regionId = JSONMapping.optString(region, "RegionID");
+                            if (regionId != null && !seen.add(regionId)) {
+                                continue;
+                            }
                             Region r = toRegion(region);
                             if (r != null) {
                                 regions.add(r);
@@ -241,12 +331,12 @@ public class VirtustreamDataCenterServices implements DataCenterServices {
                 dc.setName(json.getString("Name"));
             }
             if (json.has("SiteID") && !json.isNull("SiteID")) {
-                dc.setProviderDataCenterId(json.getString("SiteID"));
+                dc.setProviderDataCenterId(StringInterner.intern(json.getString("SiteID")));
             }
             if (json.has("Region") && !json.isNull("Region")) {
                 JSONObject region = json.getJSONObject("Region");
                 if (region.has("RegionID") && !json.has("RegionID")) {
-                    dc.setRegionId(region.getString("RegionID"));
+                    dc.setRegionId(StringInterner.intern(region.getString("RegionID")));
                 }
             }
             if (dc.getRegionId() != null && dc.getProviderDataCenterId() != null) {
@@ -274,7 +364,7 @@ public class VirtustreamDataCenterServices implements DataCenterServices {
                 r.setName(json.getString("Name"));
             }
             if (json.has("RegionID") && !json.isNull("RegionID")) {
-                r.setProviderRegionId(json.getString("RegionID"));
+                r.setProviderRegionId(StringInterner.intern(json.getString("RegionID")));
             }
             if (r.getProviderRegionId() != null) {
                 return r;
@@ -37,7 +37,6 @@ import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
@@ -49,6 +48,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.crypto.Mac;
@@ -67,7 +67,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.TimeZone;
 
-public class VirtustreamMethod {
+public class VirtustreamMethod implements PagedResults.PageSource {
     static private final Logger logger = Virtustream.getLogger(VirtustreamMethod.class);
     static private final Logger wire = Virtustream.getWireLogger(VirtustreamMethod.class);
 
@@ -101,12 +101,117 @@ public class VirtustreamMethod {
      */
     static public final int NOT_FOUND = 404;
 
+    /**
+     * Number of entities requested per page when the context does not set a <code>pageSize</code> custom property
+     */
+    static public final int DEFAULT_PAGE_SIZE = 250;
+
     private Virtustream provider;
 
     public VirtustreamMethod(@Nonnull Virtustream provider) {
         this.provider = provider;
     }
 
+    /**
+     * Appends an OData query option such as <code>$top</code> to a resource, taking care of whether the resource
+     * already carries a query string.
+     * @param resource the resource path, with or without a query string
+     * @param option the query option name
+     * @param value the query option value
+     * @return the resource with the query option appended
+     */
+    static public @Nonnull String withQueryOption(@Nonnull String resource, @Nonnull String option, @Nonnull String value) {
+        return resource + (resource.indexOf('?') > -1 ? "&" : "?") + option + "=" + value;
+    }
+
+    /**
+     * Restricts a GET to the named fields using the <code>$select</code> query option. Status and polling calls
+     * should use this rather than pulling the full entity with its nested hypervisor, NIC and disk documents.
+     * @param resource the resource path, with or without a query string
+     * @param fields the fields to return
+     * @return the resource with the projection appended
+     */
+    static public @Nonnull String withSelect(@Nonnull String resource, @Nonnull String ... fields) {
+        StringBuilder str = new StringBuilder();
+
+        for (String field : fields) {
+            if (str.length() > 0) {
+                str.append(",");
+            }
+            str.append(field);
+        }
+        return withQueryOption(resource, "$select", str.toString());
+    }
+
+    /**
+     * @return the page size to use for paged listings, read from the <code>pageSize</code> custom property
+     */
+    public int getPageSize() {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+
+        if (p != null) {
+            String size = p.getProperty("pageSize");
+
+            if (size != null && size.length() > 0) {
+                try {
+                    int pageSize = Integer.parseInt(size);
+
+                    if (pageSize > 0) {
+                        return pageSize;
+                    }
+                }
+                catch (NumberFormatException e) {
+                    logger.warn("Invalid pageSize property " + size + ", using " + DEFAULT_PAGE_SIZE);
+                }
+            }
+        }
+        return DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Fetches a single page of a listing using the <code>$skip</code>/<code>$top</code> query options. OData only
+     * guarantees a stable order across pages with <code>$orderby</code>, so unless the resource already orders its
+     * results they are ordered by the entity key, which Virtustream names after the entity set
+     * (<code>VirtualMachine</code> is keyed by <code>VirtualMachineID</code>).
+     * @param resource the listing resource, with or without a <code>$filter</code>
+     * @param skip the number of entities to skip
+     * @param top the maximum number of entities to return
+     * @param command the trace name for the call
+     * @return the raw JSON array for the page, or <code>null</code> if the resource was not found
+     * @throws InternalException an error occurred building the request
+     * @throws CloudException Virtustream rejected the request
+     */
+    public @Nullable String getPage(@Nonnull String resource, @Nonnegative int skip, @Nonnegative int top, @Nonnull String command) throws InternalException, CloudException {
+        String target = resource;
+
+        if (!resource.contains("$orderby=")) {
+            target = withQueryOption(target, "$orderby", getKeyField(resource));
+        }
+        target = withQueryOption(target, "$top", String.valueOf(top));
+        if (skip > 0) {
+            target = withQueryOption(target, "$skip", String.valueOf(skip));
+        }
+        return getString(target, command);
+    }
+
+    /**
+     * @param resource a listing resource such as <code>/VirtualMachine?$filter=...</code>
+     * @return the key field of the entity set listed
+     */
+    static @Nonnull String getKeyField(@Nonnull String resource) {
+        int start = (resource.startsWith("/") ? 1 : 0);
+        int end = resource.indexOf('?');
+
+        if (end < 0) {
+            end = resource.length();
+        }
+        String entitySet = resource.substring(start, end);
+        int slash = entitySet.lastIndexOf('/');
+
+        return entitySet.substring(slash + 1) + "ID";
+    }
+
     static public @Nullable String seekValue(@Nonnull String body, @Nonnull String key) {
         body = body.trim();
         if (body.length() > 0) {
@@ -288,7 +393,7 @@ public class VirtustreamMethod {
                             throw new VirtustreamException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -315,7 +420,7 @@ public class VirtustreamMethod {
                         String body;
 
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -455,7 +560,7 @@ public class VirtustreamMethod {
                             throw new VirtustreamException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -471,7 +576,7 @@ public class VirtustreamMethod {
                             return "";
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -624,7 +729,7 @@ public class VirtustreamMethod {
                             throw new VirtustreamException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
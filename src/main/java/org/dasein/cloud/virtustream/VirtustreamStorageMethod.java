@@ -36,7 +36,6 @@ import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.HTTP;
-import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudErrorType;
 import org.dasein.cloud.CloudException;
@@ -247,7 +246,7 @@ public class VirtustreamStorageMethod {
                             throw new VirtustreamException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -263,7 +262,7 @@ public class VirtustreamStorageMethod {
                             return "";
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -374,7 +373,7 @@ public class VirtustreamStorageMethod {
                             throw new VirtustreamException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -501,7 +500,7 @@ public class VirtustreamStorageMethod {
                             throw new VirtustreamException(CloudErrorType.GENERAL, status.getStatusCode(), status.getReasonPhrase(), status.getReasonPhrase());
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
@@ -518,7 +517,7 @@ public class VirtustreamStorageMethod {
                             return "";
                         }
                         try {
-                            body = EntityUtils.toString(entity);
+                            body = ResponseBuffers.toString(entity);
                         } catch (IOException e) {
                             throw new VirtustreamException(e);
                         }
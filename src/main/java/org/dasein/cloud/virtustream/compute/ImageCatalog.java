@@ -0,0 +1,546 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.ImageFilterOptions;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.virtustream.JSONScanner;
+import org.dasein.cloud.virtustream.PagedResults;
+import org.dasein.cloud.virtustream.Virtustream;
+import org.dasein.cloud.virtustream.VirtustreamMethod;
+import org.dasein.util.CalendarWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory catalog of the tenant's templates and of the public templates, loaded in full on first use and then
+ * refreshed in the background every <code>imageCatalogRefresh</code> seconds. The catalog is off unless that
+ * custom property is set to a positive number, since it keeps every public template of the cloud in memory for each
+ * provider instance. A refresh sweeps a <code>$select</code> projection of the fields that describe a template and
+ * only fetches the templates whose fingerprint changed. Queries are answered from memory, narrowed through indexes
+ * on platform, architecture and owner and, for name searches, on the words in each template's ID, name and
+ * description, and then checked against the filter itself. Queries read the current view without locking; only
+ * loads, refreshes and updates are serialized, so a slow refresh never holds up a query.
+ */
+public class ImageCatalog {
+    static private final Logger logger = Virtustream.getLogger(ImageCatalog.class);
+
+    static private final String REFRESH_CATALOG = "Image.refreshCatalog";
+
+    static private final String[] FINGERPRINT_FIELDS = {
+            "VirtualMachineID", "CustomerDefinedName", "Description", "OS", "OSFullName", "TenantID", "RegionID",
+            "IsGlobalTemplate", "IsTemplate", "IsRemoved"
+    };
+
+
+    /**
+     * One consistent state of a scope. Views are never modified once built; a refresh builds a new one.
+     */
+    static class View {
+        final Map<String,MachineImage>  images;
+        final Map<String,Integer>       fingerprints;
+        final Map<Object,Set<String>>   byArchitecture = new HashMap<Object, Set<String>>();
+        final Map<Object,Set<String>>   byOwner        = new HashMap<Object, Set<String>>();
+        final Map<Object,Set<String>>   byPlatform     = new HashMap<Object, Set<String>>();
+        final Map<Object,Set<String>>   byToken        = new HashMap<Object, Set<String>>();
+
+        View(@Nonnull Map<String,MachineImage> images, @Nonnull Map<String,Integer> fingerprints) {
+            this.images = images;
+            this.fingerprints = fingerprints;
+            for (MachineImage img : images.values()) {
+                String id = img.getProviderMachineImageId();
+
+                add(byArchitecture, img.getArchitecture(), id);
+                add(byOwner, img.getProviderOwnerId(), id);
+                add(byPlatform, img.getPlatform(), id);
+                for (String token : tokenize(id + " " + img.getName() + " " + img.getDescription())) {
+                    add(byToken, token, id);
+                }
+            }
+        }
+
+        static private void add(@Nonnull Map<Object,Set<String>> index, @Nullable Object key, @Nonnull String id) {
+            if (key != null) {
+                Set<String> ids = index.get(key);
+
+                if (ids == null) {
+                    ids = new HashSet<String>();
+                    index.put(key, ids);
+                }
+                ids.add(id);
+            }
+        }
+    }
+
+    /**
+     * The templates matching one listing filter. Readers take whatever view is current; loads, refreshes and
+     * updates each build a new view under the scope's lock and publish it through the volatile field.
+     */
+    static abstract class Scope {
+        private final Object    lock = new Object();
+        private volatile View   view;
+
+        /**
+         * @return the fingerprint of every template in the scope, by ID
+         */
+        abstract @Nonnull Map<String,Integer> fingerprint() throws InternalException, CloudException;
+
+        /**
+         * @return every template in the scope
+         */
+        abstract @Nonnull Collection<MachineImage> fetchAll() throws InternalException, CloudException;
+
+        /**
+         * @param imageId the template
+         * @return the template, or <code>null</code> if it no longer exists
+         */
+        abstract @Nullable MachineImage fetch(@Nonnull String imageId) throws InternalException, CloudException;
+
+        @Nonnull View get() throws InternalException, CloudException {
+            View current = view;
+
+            if (current != null) {
+                return current;
+            }
+            synchronized (lock) {
+                if (view == null) {
+                    view = load();
+                }
+                return view;
+            }
+        }
+
+        private @Nonnull View load() throws InternalException, CloudException {
+            Map<String,Integer> fingerprints = fingerprint();
+            Map<String,MachineImage> images = new HashMap<String, MachineImage>();
+
+            for (MachineImage img : fetchAll()) {
+                images.put(img.getProviderMachineImageId(), img);
+            }
+            return new View(images, fingerprints);
+        }
+
+        void refresh() throws InternalException, CloudException {
+            synchronized (lock) {
+                View previous = view;
+
+                if (previous == null) {
+                    return;
+                }
+                Map<String,Integer> latest = fingerprint();
+                List<String> changed = new ArrayList<String>();
+
+                for (Map.Entry<String,Integer> entry : latest.entrySet()) {
+                    if (!entry.getValue().equals(previous.fingerprints.get(entry.getKey()))) {
+                        changed.add(entry.getKey());
+                    }
+                }
+                if (changed.size() > Math.max(16, previous.images.size() / 2)) {
+                    // cheaper to list everything again than to fetch this many one at a time
+                    view = load();
+                    return;
+                }
+                if (changed.isEmpty() && latest.keySet().equals(previous.fingerprints.keySet())) {
+                    return;
+                }
+                Map<String,MachineImage> images = new HashMap<String, MachineImage>(previous.images);
+
+                images.keySet().retainAll(latest.keySet());
+                for (String id : changed) {
+                    MachineImage img = fetch(id);
+
+                    if (img == null) {
+                        images.remove(id);
+                    }
+                    else {
+                        images.put(id, img);
+                    }
+                }
+                view = new View(images, latest);
+            }
+        }
+
+        void put(@Nonnull MachineImage img) {
+            synchronized (lock) {
+                View previous = view;
+
+                if (previous != null) {
+                    Map<String,MachineImage> images = new HashMap<String, MachineImage>(previous.images);
+
+                    images.put(img.getProviderMachineImageId(), img);
+                    // no fingerprint, so the next refresh fetches it again and records one
+                    view = new View(images, previous.fingerprints);
+                }
+            }
+        }
+
+        void remove(@Nonnull String imageId) {
+            synchronized (lock) {
+                View previous = view;
+
+                if (previous != null && previous.images.containsKey(imageId)) {
+                    Map<String,MachineImage> images = new HashMap<String, MachineImage>(previous.images);
+                    Map<String,Integer> fingerprints = new HashMap<String, Integer>(previous.fingerprints);
+
+                    images.remove(imageId);
+                    fingerprints.remove(imageId);
+                    view = new View(images, fingerprints);
+                }
+            }
+        }
+    }
+
+    private final Virtustream        provider;
+    private final long               interval;
+    private final Scope              publicImages;
+    private final Scope              tenantImages;
+    private volatile ScheduledExecutorService executor;
+
+    public ImageCatalog(@Nonnull Virtustream provider) {
+        ProviderContext ctx = provider.getContext();
+        String account = (ctx == null ? null : ctx.getAccountNumber());
+
+        this.provider = provider;
+        this.interval = getConfiguredInterval(provider);
+        this.tenantImages = newScope("VirtualMachine?$filter=IsTemplate eq true and IsRemoved eq false and TenantID eq '"+account+"'");
+        this.publicImages = newScope("VirtualMachine?$filter=IsGlobalTemplate eq true and IsRemoved eq false");
+    }
+
+    static private long getConfiguredInterval(@Nonnull Virtustream provider) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String seconds = (p == null ? null : p.getProperty("imageCatalogRefresh"));
+
+        if (seconds != null && seconds.length() > 0) {
+            try {
+                long value = Long.parseLong(seconds);
+
+                if (value >= 0) {
+                    return value * CalendarWrapper.SECOND;
+                }
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Invalid imageCatalogRefresh property " + seconds);
+            }
+        }
+        return 0;
+    }
+
+    private @Nonnull Scope newScope(@Nonnull final String resource) {
+        return new Scope() {
+            @Override
+            @Nonnull Map<String,Integer> fingerprint() throws InternalException, CloudException {
+                return ImageCatalog.this.fingerprint(resource);
+            }
+
+            @Override
+            @Nonnull Collection<MachineImage> fetchAll() throws InternalException, CloudException {
+                return getSupport().fetchTemplates(resource, REFRESH_CATALOG);
+            }
+
+            @Override
+            @Nullable MachineImage fetch(@Nonnull String imageId) throws InternalException, CloudException {
+                return getSupport().getImage(imageId);
+            }
+        };
+    }
+
+    /**
+     * @return <code>false</code> if the catalog has been turned off and callers should query Virtustream directly
+     */
+    public boolean isEnabled() {
+        return (interval > 0);
+    }
+
+    /**
+     * @param options the filter to apply, if any
+     * @return the tenant's templates matching the filter
+     * @throws InternalException the catalog could not be loaded
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public @Nonnull List<MachineImage> listImages(@Nullable ImageFilterOptions options) throws InternalException, CloudException {
+        return query(start(tenantImages), options);
+    }
+
+    /**
+     * @return the IDs of every template in the tenant
+     * @throws InternalException the catalog could not be loaded
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public @Nonnull Collection<String> listImageIds() throws InternalException, CloudException {
+        return Collections.unmodifiableCollection(start(tenantImages).images.keySet());
+    }
+
+    /**
+     * @param options the filter to apply
+     * @return the public templates matching the filter
+     * @throws InternalException the catalog could not be loaded
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public @Nonnull List<MachineImage> searchPublicImages(@Nullable ImageFilterOptions options) throws InternalException, CloudException {
+        return query(start(publicImages), options);
+    }
+
+    /**
+     * Adds or replaces a template, such as one just captured, without waiting for the next refresh.
+     * @param img the template
+     */
+    public void put(@Nonnull MachineImage img) {
+        tenantImages.put(img);
+        if ("true".equals(img.getTag("isPublic"))) {
+            publicImages.put(img);
+        }
+    }
+
+    /**
+     * Drops a removed template without waiting for the next refresh.
+     * @param imageId the template
+     */
+    public void remove(@Nonnull String imageId) {
+        tenantImages.remove(imageId);
+        publicImages.remove(imageId);
+    }
+
+    /**
+     * Stops the background refresh. It starts again with the next query.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private @Nonnull View start(@Nonnull Scope scope) throws InternalException, CloudException {
+        View view = scope.get();
+
+        if (executor != null) {
+            return view;
+        }
+        synchronized (this) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    public Thread newThread(@Nonnull Runnable r) {
+                        Thread t = new Thread(r, "Virtustream image catalog");
+
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                executor.scheduleWithFixedDelay(new Runnable() {
+                    public void run() {
+                        refresh();
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+        return view;
+    }
+
+    private void refresh() {
+        try {
+            tenantImages.refresh();
+            publicImages.refresh();
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to refresh image catalog: " + t.getMessage());
+        }
+    }
+
+    private @Nonnull Templates getSupport() {
+        return provider.getComputeServices().getImageSupport();
+    }
+
+    private @Nonnull Map<String,Integer> fingerprint(@Nonnull String resource) throws InternalException, CloudException {
+        final Map<String,Integer> fingerprints = new HashMap<String, Integer>();
+
+        APITrace.begin(provider, REFRESH_CATALOG);
+        try {
+            // fields[0] is always VirtualMachineID
+            PagedResults.scan(provider, VirtustreamMethod.withSelect(resource, FINGERPRINT_FIELDS), REFRESH_CATALOG, FINGERPRINT_FIELDS, new JSONScanner.FieldHandler() {
+                @Override
+                public void element(@Nonnull String[] values) {
+                    if (values[0] == null) {
+                        return;
+                    }
+                    int hash = 17;
+
+                    for (String value : values) {
+                        hash = 31*hash + String.valueOf(value).hashCode();
+                    }
+                    fingerprints.put(values[0], hash);
+                }
+            });
+        }
+        finally {
+            APITrace.end();
+        }
+        return fingerprints;
+    }
+
+    private @Nonnull List<MachineImage> query(@Nonnull View view, @Nullable ImageFilterOptions options) {
+        Collection<String> candidates = view.images.keySet();
+
+        if (options != null && !options.isMatchesAny()) {
+            Architecture architecture = options.getArchitecture();
+            Platform platform = options.getPlatform();
+            String owner = options.getAccountNumber();
+            String regex = options.getRegex();
+
+            if (architecture != null) {
+                candidates = narrow(candidates, get(view.byArchitecture, architecture));
+            }
+            if (owner != null) {
+                candidates = narrow(candidates, get(view.byOwner, owner));
+            }
+            if (platform != null) {
+                candidates = narrow(candidates, getCompatible(view.byPlatform, platform));
+            }
+            if (regex != null) {
+                for (String word : getLiteralWords(regex)) {
+                    candidates = narrow(candidates, getContaining(view.byToken, word));
+                }
+            }
+        }
+        List<MachineImage> list = new ArrayList<MachineImage>(candidates.size());
+
+        for (String id : candidates) {
+            MachineImage img = view.images.get(id);
+
+            if (img != null && (options == null || options.matches(img))) {
+                list.add(img);
+            }
+        }
+        return list;
+    }
+
+    static @Nonnull Collection<String> narrow(@Nonnull Collection<String> candidates, @Nonnull Set<String> ids) {
+        if (ids.size() < candidates.size()) {
+            Set<String> result = new HashSet<String>(ids);
+
+            result.retainAll(candidates);
+            return result;
+        }
+        Set<String> result = new HashSet<String>(candidates);
+
+        result.retainAll(ids);
+        return result;
+    }
+
+    static private @Nonnull Set<String> get(@Nonnull Map<Object,Set<String>> index, @Nonnull Object key) {
+        Set<String> ids = index.get(key);
+
+        return (ids == null ? Collections.<String>emptySet() : ids);
+    }
+
+    /**
+     * @return the templates of the platform or its family, a superset of what the filter accepts for the platform
+     */
+    static private @Nonnull Set<String> getCompatible(@Nonnull Map<Object,Set<String>> index, @Nonnull Platform platform) {
+        Set<String> ids = new HashSet<String>();
+
+        for (Map.Entry<Object,Set<String>> entry : index.entrySet()) {
+            Platform p = (Platform)entry.getKey();
+
+            if (p.equals(platform) || (platform.isWindows() && p.isWindows()) || (platform.isUnix() && p.isUnix())) {
+                ids.addAll(entry.getValue());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the templates with a token containing the word
+     */
+    static private @Nonnull Set<String> getContaining(@Nonnull Map<Object,Set<String>> index, @Nonnull String word) {
+        Set<String> ids = new HashSet<String>();
+
+        for (Map.Entry<Object,Set<String>> entry : index.entrySet()) {
+            if (((String)entry.getKey()).contains(word)) {
+                ids.addAll(entry.getValue());
+            }
+        }
+        return ids;
+    }
+
+    static @Nonnull List<String> tokenize(@Nonnull String text) {
+        List<String> tokens = new ArrayList<String>();
+        String lower = text.toLowerCase(Locale.ENGLISH);
+        int start = -1;
+
+        for (int i=0; i<=lower.length(); i++) {
+            boolean word = (i < lower.length() && Character.isLetterOrDigit(lower.charAt(i)));
+
+            if (word && start < 0) {
+                start = i;
+            }
+            else if (!word && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Finds the words any text matching a simple pattern must contain. Only patterns made of literal text and
+     * <code>.</code> or <code>.*</code> wildcards, optionally case-insensitive, are understood; anything else
+     * yields no words, so the search falls back to checking every template.
+     * @param regex the filter pattern
+     * @return the lower-case words that must each be part of a token of a matching template
+     */
+    static @Nonnull List<String> getLiteralWords(@Nonnull String regex) {
+        String pattern = (regex.startsWith("(?i)") ? regex.substring(4) : regex);
+
+        for (int i=0; i<pattern.length(); i++) {
+            char c = pattern.charAt(i);
+
+            if (c == '*' && (i == 0 || pattern.charAt(i-1) != '.')) {
+                return Collections.emptyList();
+            }
+            if (!Character.isLetterOrDigit(c) && c != ' ' && c != '_' && c != '-' && c != '.' && c != '*') {
+                return Collections.emptyList();
+            }
+        }
+        return tokenize(pattern);
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.network.RawAddress;
+import org.dasein.cloud.virtustream.Virtustream;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * A VM from a listing whose identity, name, state, owner, platform and network are mapped up front, while its data
+ * center, region, boot time, addresses and product are decoded from the listing entry the first time any of them
+ * is read. Callers that only look at the eagerly mapped fields never pay for the rest. Getters cannot throw the
+ * {@link InternalException} the eager mapping would, so a listing entry whose deferred fields cannot be decoded
+ * makes every read of those fields throw an {@link IllegalStateException} caused by it.
+ */
+public class LazyVirtualMachine extends VirtualMachine {
+    static private final Logger logger = Virtustream.getLogger(LazyVirtualMachine.class);
+
+    private transient JSONObject        json;
+    private final String                defaultRegionId;
+    private volatile boolean            decoded  = false;
+    private boolean                     decoding = false;
+    private volatile InternalException  failure  = null;
+
+    LazyVirtualMachine(@Nonnull JSONObject json, @Nullable String defaultRegionId) {
+        this.json = json;
+        this.defaultRegionId = defaultRegionId;
+    }
+
+    private void decode() {
+        if (!decoded) {
+            synchronized (this) {
+                // decoding is only ever true here when decodeDetails itself reads a deferred field
+                if (!decoded && !decoding) {
+                    decoding = true;
+                    try {
+                        VirtualMachines.decodeDetails(json, this, defaultRegionId);
+                    }
+                    catch (JSONException e) {
+                        logger.error("Unable to decode details of vm " + getProviderVirtualMachineId() + ": " + e.getMessage());
+                        failure = new InternalException("Unable to parse JSONObject " + e.getMessage());
+                    }
+                    finally {
+                        decoding = false;
+                    }
+                    // only publish once every field is set, so readers that skip the lock see a complete VM
+                    json = null;
+                    decoded = true;
+                }
+            }
+        }
+        InternalException e = failure;
+
+        if (e != null) {
+            throw new IllegalStateException("Unable to decode details of vm " + getProviderVirtualMachineId(), e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> once the deferred fields have been decoded
+     */
+    public boolean isDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Reads the data center without decoding the other deferred fields, so VMs can be indexed by data center
+     * without giving up the lazy decode.
+     * @return the data center, or <code>null</code> if the listing entry names none or cannot be decoded
+     */
+    @Nullable String peekDataCenterId() {
+        if (!decoded) {
+            synchronized (this) {
+                if (!decoded) {
+                    try {
+                        return VirtualMachines.decodeDataCenterId(json);
+                    }
+                    catch (JSONException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return (failure == null ? super.getProviderDataCenterId() : null);
+    }
+
+    @Override
+    public String getProviderDataCenterId() {
+        decode();
+        return super.getProviderDataCenterId();
+    }
+
+    @Override
+    public String getProviderRegionId() {
+        decode();
+        return super.getProviderRegionId();
+    }
+
+    @Override
+    public long getLastBootTimestamp() {
+        decode();
+        return super.getLastBootTimestamp();
+    }
+
+    @Override
+    public RawAddress[] getPublicAddresses() {
+        decode();
+        return super.getPublicAddresses();
+    }
+
+    @Override
+    public RawAddress[] getPrivateAddresses() {
+        decode();
+        return super.getPrivateAddresses();
+    }
+
+    @Override
+    public String getPublicDnsAddress() {
+        decode();
+        return super.getPublicDnsAddress();
+    }
+
+    @Override
+    public String getPrivateDnsAddress() {
+        decode();
+        return super.getPrivateDnsAddress();
+    }
+
+    @Override
+    public String getProductId() {
+        decode();
+        return super.getProductId();
+    }
+
+    private void writeObject(@Nonnull ObjectOutputStream out) throws IOException {
+        try {
+            decode();
+        }
+        catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+        out.defaultWriteObject();
+    }
+}
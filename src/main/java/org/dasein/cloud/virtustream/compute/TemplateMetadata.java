@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.virtustream.ExpiringCache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The parts of a template that launching a VM from it needs: the device keys of its first disk and NIC, the NIC's
+ * ID and adapter type, and the platform. They are read once from the template's tags and kept in typed form.
+ */
+public class TemplateMetadata {
+    /**
+     * Fetches the templates whose metadata is not cached.
+     */
+    interface Source {
+        @Nullable MachineImage getImage(@Nonnull String templateId) throws CloudException, InternalException;
+    }
+
+    /**
+     * Reads a template's metadata from the cache, fetching the template on a miss. A fetch that overlaps an
+     * invalidation of the same template, such as its removal, is returned but not cached.
+     * @param cache the provider's template metadata cache
+     * @param templateId the template
+     * @param source where to fetch the template on a miss
+     * @return the template's launch metadata
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException the template does not exist or cannot be launched from
+     */
+    static @Nonnull TemplateMetadata getCached(@Nonnull ExpiringCache<TemplateMetadata> cache, @Nonnull String templateId, @Nonnull Source source) throws CloudException, InternalException {
+        TemplateMetadata metadata = cache.get(templateId);
+
+        if (metadata == null) {
+            long generation = cache.getGeneration(templateId);
+            MachineImage img = source.getImage(templateId);
+
+            if (img == null) {
+                throw new CloudException("No such template: " + templateId);
+            }
+            metadata = getInstance(img);
+            cache.put(templateId, metadata, generation);
+        }
+        return metadata;
+    }
+
+    /**
+     * @param img a template as mapped by {@link Templates}
+     * @return the template's launch metadata
+     * @throws CloudException the template has no disk or no NIC to base a VM on
+     */
+    static public @Nonnull TemplateMetadata getInstance(@Nonnull MachineImage img) throws CloudException {
+        Object diskDeviceKey = img.getTag("diskDeviceKey");
+        Object nicDeviceKey = img.getTag("nicDeviceKey");
+        Object nicID = img.getTag("nicID");
+        Object nicAdapterType = img.getTag("nicAdapterType");
+
+        if (diskDeviceKey == null) {
+            throw new CloudException("Template " + img.getProviderMachineImageId() + " has no disk");
+        }
+        if (nicDeviceKey == null || nicID == null || nicAdapterType == null) {
+            throw new CloudException("Template " + img.getProviderMachineImageId() + " has no network interface");
+        }
+        try {
+            return new TemplateMetadata(img.getProviderMachineImageId(), img.getPlatform(), Integer.parseInt(diskDeviceKey.toString()), Integer.parseInt(nicDeviceKey.toString()), nicID.toString(), Integer.parseInt(nicAdapterType.toString()));
+        }
+        catch (NumberFormatException e) {
+            throw new CloudException("Invalid device information for template " + img.getProviderMachineImageId() + ": " + e.getMessage());
+        }
+    }
+
+    private final int      diskDeviceKey;
+    private final int      nicAdapterType;
+    private final int      nicDeviceKey;
+    private final String   nicId;
+    private final Platform platform;
+    private final String   templateId;
+
+    private TemplateMetadata(@Nonnull String templateId, @Nonnull Platform platform, int diskDeviceKey, int nicDeviceKey, @Nonnull String nicId, int nicAdapterType) {
+        this.templateId = templateId;
+        this.platform = platform;
+        this.diskDeviceKey = diskDeviceKey;
+        this.nicDeviceKey = nicDeviceKey;
+        this.nicId = nicId;
+        this.nicAdapterType = nicAdapterType;
+    }
+
+    public int getDiskDeviceKey() {
+        return diskDeviceKey;
+    }
+
+    public int getNicAdapterType() {
+        return nicAdapterType;
+    }
+
+    public int getNicDeviceKey() {
+        return nicDeviceKey;
+    }
+
+    public @Nonnull String getNicId() {
+        return nicId;
+    }
+
+    public @Nonnull Platform getPlatform() {
+        return platform;
+    }
+
+    public @Nonnull String getTemplateId() {
+        return templateId;
+    }
+}
@@ -33,8 +33,14 @@ import org.dasein.cloud.compute.ImageFilterOptions;
 import org.dasein.cloud.compute.MachineImage;
 import org.dasein.cloud.compute.MachineImageState;
 import org.dasein.cloud.compute.Platform;
-import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.virtustream.ConcurrentRequests;
+import org.dasein.cloud.virtustream.ExpiringCache;
+import org.dasein.cloud.virtustream.JSONMapping;
+import org.dasein.cloud.virtustream.PagedResults;
+import org.dasein.cloud.virtustream.ParallelMapping;
+import org.dasein.cloud.virtustream.PollingBackoff;
+import org.dasein.cloud.virtustream.StringInterner;
 import org.dasein.cloud.virtustream.Virtustream;
 import org.dasein.cloud.virtustream.VirtustreamMethod;
 import org.dasein.util.CalendarWrapper;
@@ -57,6 +63,8 @@ public class Templates extends AbstractImageSupport<Virtustream> {
     static private final String REMOVE_TEMPLATE =   "Image.removeTemplate";
     static private final String SEARCH_PUBLIC_IMAGES = "Image.searchPublicImages";
 
+    static private final String[] STATUS_FIELDS =   { "VirtualMachineID", "IsTemplate", "IsRemoved", "TenantID" };
+
     public Templates(@Nonnull Virtustream provider) {
         super(provider);
     }
@@ -99,58 +107,105 @@ public class Templates extends AbstractImageSupport<Virtustream> {
         }
     }
 
+    /**
+     * Reads what launching a VM from a template needs, through the provider's template metadata cache, so repeated
+     * launches from the same template do not fetch it again.
+     * @param templateId the template
+     * @return the template's launch metadata
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException the template does not exist or cannot be launched from
+     */
+    public @Nonnull TemplateMetadata getTemplateMetadata(@Nonnull String templateId) throws CloudException, InternalException {
+        return TemplateMetadata.getCached(getProvider().getTemplateMetadataCache(), templateId, new TemplateMetadata.Source() {
+            public @Nullable MachineImage getImage(@Nonnull String id) throws CloudException, InternalException {
+                return Templates.this.getImage(id);
+            }
+        });
+    }
+
+    /**
+     * The Virtustream calls a capture is made of, one per step.
+     */
+    interface CaptureSteps {
+        /**
+         * Clones the VM, powered off, and waits for the clone task.
+         * @return the ID of the clone, or <code>null</code> if the task did not return one
+         */
+        @Nullable String cloneVirtualMachine(@Nonnull String vmId, @Nonnull String name) throws InternalException, CloudException;
+
+        /**
+         * @return <code>true</code> once Virtustream lists the VM, <code>false</code> if it never did
+         */
+        boolean awaitVirtualMachine(@Nonnull String vmId) throws InternalException, CloudException;
+
+        /**
+         * @return the ID of the template, or <code>null</code> if Virtustream did not return one
+         */
+        @Nullable String markAsTemplate(@Nonnull String vmId) throws InternalException, CloudException;
+
+        @Nullable MachineImage getImage(@Nonnull String templateId) throws InternalException, CloudException;
+    }
+
+    /**
+     * Makes one capture for {@link #captureAll}.
+     */
+    interface Capturer {
+        @Nonnull MachineImage capture(@Nonnull ImageCreateOptions options) throws InternalException, CloudException;
+    }
+
+    /**
+     * Captures a VM as a template by cloning it and marking the clone as a template. Each step starts as soon as
+     * the previous task finishes, and progress is reported through the task: 40% once the clone exists, 50% once
+     * Virtustream lists it, 90% once it is marked as a template.
+     */
     @Override
     protected MachineImage capture(@Nonnull ImageCreateOptions options, @Nullable AsynchronousTask<MachineImage> task) throws CloudException, InternalException {
         APITrace.begin(getProvider(), CAPTURE_IMAGE);
         try {
-            // create a copy of the vm first and then mark the copy as a template
-            String vmid = options.getVirtualMachineId();
-            String templateName = options.getName();
-            String description = options.getDescription();
-            boolean powerOn = false;
+            final VirtualMachines support = getProvider().getComputeServices().getVirtualMachineSupport();
+            MachineImage img = capture(new CaptureSteps() {
+                public @Nullable String cloneVirtualMachine(@Nonnull String vmId, @Nonnull String name) throws InternalException, CloudException {
+                    String newVMId = getProvider().waitForTaskCompletion(support.submitClone(vmId, name, false));
 
-            VirtualMachines support = getProvider().getComputeServices().getVirtualMachineSupport();
-            VirtualMachine currentVM = support.getVirtualMachine(vmid);
-            VirtualMachine newVM = support.clone(vmid, currentVM.getProviderDataCenterId(), templateName, description, powerOn, currentVM.getProviderFirewallIds());
-
-            VirtustreamMethod method = new VirtustreamMethod(getProvider());
-
-            String obj = method.postString("/VirtualMachine/MarkAsTemplate", newVM.getProviderVirtualMachineId(), CAPTURE_IMAGE);
-
-            String templateId = null;
-            if (obj != null && obj.length() > 0) {
-                try {
-                    JSONObject json = new JSONObject(obj);
-                    templateId = getProvider().parseTaskId(json);
-                }
-                catch (JSONException e) {
-                    logger.error(e);
-                    throw new InternalException("Unable to parse JSON "+e.getMessage());
+                    getProvider().getVirtualMachineSnapshot().invalidate();
+                    return newVMId;
                 }
 
-            }
-            if (templateId == null) {
-                logger.error("Template created without error but no new id returned");
-                throw new CloudException("Template created without error but no new id returned");
-            }
+                public boolean awaitVirtualMachine(@Nonnull String vmId) throws InternalException, CloudException {
+                    return support.awaitVirtualMachinePresent(vmId, CalendarWrapper.MINUTE * 30);
+                }
 
-            long timeout = System.currentTimeMillis()+(CalendarWrapper.MINUTE *5l);
+                public @Nullable String markAsTemplate(@Nonnull String vmId) throws InternalException, CloudException {
+                    VirtustreamMethod method = new VirtustreamMethod(getProvider());
+                    String obj = method.postString("/VirtualMachine/MarkAsTemplate", vmId, CAPTURE_IMAGE);
 
-            MachineImage img = null;
-            while (timeout > System.currentTimeMillis()) {
-                img = getImage(templateId);
-                if (img != null) {
-                    break;
+                    if (obj != null && obj.length() > 0) {
+                        try {
+                            return getProvider().parseTaskId(new JSONObject(obj));
+                        }
+                        catch (JSONException e) {
+                            logger.error(e);
+                            throw new InternalException("Unable to parse JSON "+e.getMessage());
+                        }
+                    }
+                    return null;
                 }
-                try {
-                    Thread.sleep(15000l);
+
+                public @Nullable MachineImage getImage(@Nonnull String templateId) throws InternalException, CloudException {
+                    return Templates.this.getImage(templateId);
                 }
-                catch (InterruptedException ignore) {}
+            }, options, task, CalendarWrapper.MINUTE * 5L);
+            String templateId = img.getProviderMachineImageId();
+            ExpiringCache<TemplateMetadata> cache = getProvider().getTemplateMetadataCache();
+
+            cache.invalidate(templateId);
+            try {
+                cache.put(templateId, TemplateMetadata.getInstance(img));
             }
-            if( img == null ) {
-                logger.error("Machine image job completed successfully, but no image " + templateId + " exists.");
-                throw new CloudException("Machine image job completed successfully, but no image " + templateId + " exists.");
+            catch (CloudException e) {
+                logger.warn("Captured template " + templateId + " cannot be launched from: " + e.getMessage());
             }
+            getProvider().getImageCatalog().put(img);
 
             if( task != null ) {
                 task.completeWithResult(img);
@@ -162,6 +217,128 @@ public class Templates extends AbstractImageSupport<Virtustream> {
         }
     }
 
+    /**
+     * Runs the steps of a capture, reporting progress through the task.
+     * @param steps the calls making up the capture
+     * @param options the capture to make
+     * @param task the task to report progress to, if any
+     * @param imageTimeout how long in milliseconds to wait for the new template to be listed
+     * @return the new template
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException a step failed or did not produce what the next one needs
+     */
+    static @Nonnull MachineImage capture(@Nonnull CaptureSteps steps, @Nonnull ImageCreateOptions options, @Nullable AsynchronousTask<MachineImage> task, long imageTimeout) throws CloudException, InternalException {
+        // create a copy of the vm first and then mark the copy as a template
+        String newVMId = steps.cloneVirtualMachine(options.getVirtualMachineId(), options.getName());
+
+        if (newVMId == null) {
+            logger.error("Vm was cloned without error but new id not returned");
+            throw new CloudException("Vm was cloned without error but new id not returned");
+        }
+        progress(task, 40.0);
+        if (!steps.awaitVirtualMachine(newVMId)) {
+            throw new CloudException("Vm was cloned without error but new vm not found");
+        }
+        progress(task, 50.0);
+
+        String templateId = steps.markAsTemplate(newVMId);
+
+        if (templateId == null) {
+            logger.error("Template created without error but no new id returned");
+            throw new CloudException("Template created without error but no new id returned");
+        }
+        progress(task, 90.0);
+
+        PollingBackoff backoff = new PollingBackoff();
+        long timeout = System.currentTimeMillis() + imageTimeout;
+        MachineImage img = steps.getImage(templateId);
+
+        while (img == null && timeout > System.currentTimeMillis()) {
+            backoff.pause();
+            img = steps.getImage(templateId);
+        }
+        if( img == null ) {
+            logger.error("Machine image job completed successfully, but no image " + templateId + " exists.");
+            throw new CloudException("Machine image job completed successfully, but no image " + templateId + " exists.");
+        }
+        return img;
+    }
+
+    /**
+     * Receives each template made by {@link Templates#captureImages} as soon as it is ready. Callbacks are made on
+     * the threads running the captures.
+     */
+    public interface CaptureListener {
+        public void captured(@Nonnull ImageCreateOptions options, @Nonnull MachineImage img);
+    }
+
+    /**
+     * Captures several VMs at once, with at most <code>captureConcurrency</code> (a custom property, default 4)
+     * captures in progress at a time.
+     * @see #captureImages(List, CaptureListener)
+     */
+    public @Nonnull List<MachineImage> captureImages(@Nonnull List<ImageCreateOptions> options) throws CloudException, InternalException {
+        return captureImages(options, null);
+    }
+
+    /**
+     * Captures several VMs at once, with at most <code>captureConcurrency</code> (a custom property, default 4)
+     * captures in progress at a time. Each template is handed to the listener as soon as it is captured, so a
+     * caller still learns of the templates made when another capture fails.
+     * @param options the captures to make
+     * @param listener the recipient of each template as it becomes ready, if any
+     * @return the new templates, in the order of the options
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException a capture failed; the others are still allowed to finish and reach the listener
+     */
+    public @Nonnull List<MachineImage> captureImages(@Nonnull List<ImageCreateOptions> options, @Nullable CaptureListener listener) throws CloudException, InternalException {
+        return captureAll(options, ConcurrentRequests.getConfiguredLimit(getProvider(), "captureConcurrency", 4), new Capturer() {
+            public @Nonnull MachineImage capture(@Nonnull ImageCreateOptions option) throws InternalException, CloudException {
+                return Templates.this.capture(option, null);
+            }
+        }, listener);
+    }
+
+    /**
+     * Runs captures side by side, handing each template to the listener as soon as it is made.
+     * @param options the captures to make
+     * @param concurrency the most captures in progress at once
+     * @param capturer makes each capture
+     * @param listener the recipient of each template as it becomes ready, if any
+     * @return the new templates, in the order of the options
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException a capture failed; the others are still allowed to finish and reach the listener
+     */
+    static @Nonnull List<MachineImage> captureAll(@Nonnull List<ImageCreateOptions> options, int concurrency, @Nonnull final Capturer capturer, @Nullable final CaptureListener listener) throws CloudException, InternalException {
+        List<ConcurrentRequests.Request<MachineImage>> requests = new ArrayList<ConcurrentRequests.Request<MachineImage>>();
+
+        for (final ImageCreateOptions option : options) {
+            requests.add(new ConcurrentRequests.Request<MachineImage>() {
+                @Override
+                public MachineImage call() throws InternalException, CloudException {
+                    MachineImage img = capturer.capture(option);
+
+                    if (listener != null) {
+                        try {
+                            listener.captured(option, img);
+                        }
+                        catch (Throwable t) {
+                            logger.error("Capture listener failed: " + t.getMessage(), t);
+                        }
+                    }
+                    return img;
+                }
+            });
+        }
+        return ConcurrentRequests.run(requests, concurrency, 0L);
+    }
+
+    static private void progress(@Nullable AsynchronousTask<MachineImage> task, double percent) {
+        if (task != null) {
+            task.setPercentComplete(percent);
+        }
+    }
+
     @Nonnull
     @Override
     public String getProviderTermForImage(@Nonnull Locale locale, @Nonnull ImageClass cls) {
@@ -201,9 +378,17 @@ public class Templates extends AbstractImageSupport<Virtustream> {
             if( !cls.equals(ImageClass.MACHINE) ) {
                 return Collections.emptyList();
             }
-            VirtustreamMethod method = new VirtustreamMethod(getProvider());
+            ImageCatalog catalog = getProvider().getImageCatalog();
             List<ResourceStatus> list = new ArrayList<ResourceStatus>();
-            String obj = method.getString("VirtualMachine?$filter=IsTemplate eq true and IsRemoved eq false and TenantID eq '"+getContext().getAccountNumber()+"'", LIST_IMAGES);
+
+            if (catalog.isEnabled()) {
+                for (String imageId : catalog.listImageIds()) {
+                    list.add(new ResourceStatus(imageId, MachineImageState.ACTIVE));
+                }
+                return list;
+            }
+            VirtustreamMethod method = new VirtustreamMethod(getProvider());
+            String obj = method.getString(VirtustreamMethod.withSelect("VirtualMachine?$filter=IsTemplate eq true and IsRemoved eq false and TenantID eq '"+getContext().getAccountNumber()+"'", STATUS_FIELDS), LIST_IMAGE_STATUS);
             if (obj != null && obj.length() > 0) {
                 JSONArray json = null;
                 JSONObject node = null;
@@ -265,34 +450,29 @@ public class Templates extends AbstractImageSupport<Virtustream> {
     public Iterable<MachineImage> listImages(@Nullable ImageFilterOptions options) throws CloudException, InternalException {
         APITrace.begin(getProvider(), GET_IMAGE);
         try {
-            VirtustreamMethod method = new VirtustreamMethod(getProvider());
+            ImageCatalog catalog = getProvider().getImageCatalog();
             List<MachineImage> list = new ArrayList<MachineImage>();
-            String obj = method.getString("VirtualMachine?$filter=IsTemplate eq true and IsRemoved eq false and TenantID eq '"+getContext().getAccountNumber()+"'", LIST_IMAGES);
-            if (obj != null && obj.length() > 0) {
-                JSONArray json = null;
-                try {
-                    json = new JSONArray(obj);
-                    for (int i=0; i<json.length(); i++) {
-                        MachineImage img = toImage(json.getJSONObject(i));
-
-                        if (img != null && (options == null || options.matches(img))) {
-                            if (options != null) {
-                                if (options.getWithAllRegions()) {
-                                    list.add(img);
-                                }
-                                else if (img.getProviderRegionId().equals(getContext().getRegionId())) {
-                                    list.add(img);
-                                }
-                            }
-                            else {
-                                list.add(img);
-                            }
+            List<MachineImage> images;
+
+            if (catalog.isEnabled()) {
+                images = catalog.listImages(options);
+            }
+            else {
+                images = fetchTemplates("VirtualMachine?$filter=IsTemplate eq true and IsRemoved eq false and TenantID eq '"+getContext().getAccountNumber()+"'", LIST_IMAGES);
+            }
+            for (MachineImage img : images) {
+                if (options == null || options.matches(img)) {
+                    if (options != null) {
+                        if (options.getWithAllRegions()) {
+                            list.add(img);
+                        }
+                        else if (img.getProviderRegionId().equals(getContext().getRegionId())) {
+                            list.add(img);
                         }
                     }
-                }
-                catch (JSONException e) {
-                    logger.error(e);
-                    throw new InternalException("Unable to parse JSON "+e.getMessage());
+                    else {
+                        list.add(img);
+                    }
                 }
             }
             return list;
@@ -303,32 +483,52 @@ public class Templates extends AbstractImageSupport<Virtustream> {
         }
     }
 
+    /**
+     * Lists and maps every template matching a listing filter.
+     * @param resource the template listing to fetch
+     * @param command the trace name of the calling operation
+     * @return the templates
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    @Nonnull List<MachineImage> fetchTemplates(@Nonnull String resource, @Nonnull String command) throws CloudException, InternalException {
+        VirtustreamMethod method = new VirtustreamMethod(getProvider());
+        String obj = method.getString(resource, command);
+
+        if (obj == null || obj.length() == 0) {
+            return new ArrayList<MachineImage>();
+        }
+        JSONArray json = JSONMapping.parseArray(obj);
+
+        return ParallelMapping.map(getProvider(), json, new PagedResults.Mapper<MachineImage>() {
+            @Override
+            public MachineImage map(@Nonnull JSONObject node) throws InternalException, CloudException {
+                return toImage(node);
+            }
+        });
+    }
+
     @Nonnull
     @Override
-    public Iterable<MachineImage> searchPublicImages(@Nonnull ImageFilterOptions options) throws CloudException, InternalException {
+    public Iterable<MachineImage> searchPublicImages(@Nonnull final ImageFilterOptions options) throws CloudException, InternalException {
         APITrace.begin(getProvider(), SEARCH_PUBLIC_IMAGES);
         try {
-            VirtustreamMethod method = new VirtustreamMethod(getProvider());
-            List<MachineImage> list = new ArrayList<MachineImage>();
+            ImageCatalog catalog = getProvider().getImageCatalog();
 
-            JSONArray json;
-            String obj = method.getString("VirtualMachine?$filter=IsGlobalTemplate eq true and IsRemoved eq false", SEARCH_PUBLIC_IMAGES);
-            if (obj != null && obj.length() > 0) {
-                try {
-                    json = new JSONArray(obj);
-                    for (int i = 0; i<json.length(); i++) {
-                        MachineImage img = toImage(json.getJSONObject(i));
-                        if (img != null && (options == null || options.matches(img))) {
-                            list.add(img);
-                        }
+            if (catalog.isEnabled()) {
+                return catalog.searchPublicImages(options);
+            }
+            return new PagedResults<MachineImage>(getProvider(), "VirtualMachine?$filter=IsGlobalTemplate eq true and IsRemoved eq false", SEARCH_PUBLIC_IMAGES, new PagedResults.Mapper<MachineImage>() {
+                @Override
+                public MachineImage map(@Nonnull JSONObject json) throws InternalException, CloudException {
+                    MachineImage img = toImage(json);
+
+                    if (img != null && (options == null || options.matches(img))) {
+                        return img;
                     }
+                    return null;
                 }
-                catch (JSONException e) {
-                    logger.error(e);
-                    throw new InternalException("Unable to parse JSON "+e.getMessage());
-                }
-            }
-            return list;
+            });
         }
         finally {
             APITrace.end();
@@ -361,11 +561,13 @@ public class Templates extends AbstractImageSupport<Virtustream> {
             }
         }
         finally {
+            getProvider().getTemplateMetadataCache().invalidate(providerImageId);
+            getProvider().getImageCatalog().remove(providerImageId);
             APITrace.end();
         }
     }
 
-    private MachineImage toImage(@Nonnull JSONObject node) throws InternalException, CloudException {
+    MachineImage toImage(@Nonnull JSONObject node) throws InternalException, CloudException {
         try {
             String ownerId = null;
             String regionId = null;
@@ -397,51 +599,43 @@ public class Templates extends AbstractImageSupport<Virtustream> {
                 return null;
             }
 
-            if (node.has("CustomerDefinedName") && !node.isNull("CustomerDefinedName")) {
-                name = node.getString("CustomerDefinedName");
-            }
-            if (node.has("Description") && !node.isNull("Description")) {
-                description = node.getString("Description");
-            }
+            name = JSONMapping.optString(node, "CustomerDefinedName");
+            description = JSONMapping.optString(node, "Description");
 
-            platform = Platform.guess(node.getString("OS"));
+            platform = JSONMapping.guessPlatform(JSONMapping.optString(node, "OS"));
             if (platform.equals(Platform.UNKNOWN)) {
-                platform = Platform.guess(name);
+                platform = JSONMapping.guessPlatform(name);
             }
-            architecture = guess(node.getString("OSFullName"));
+            architecture = JSONMapping.guessArchitecture(JSONMapping.optString(node, "OSFullName"));
 
-            if (node.has("TenantID") && !node.isNull("TenantID")) {
-                ownerId = node.getString("TenantID");
-            }
-            else {
+            ownerId = StringInterner.intern(JSONMapping.optString(node, "TenantID"));
+            if (ownerId == null) {
                 //no owner id so this template may not be stable
                 return null;
             }
-            if (node.has("RegionID") && !node.isNull("RegionID")) {
-                regionId = node.getString("RegionID");
-            }
+            regionId = StringInterner.intern(JSONMapping.optString(node, "RegionID"));
             properties.put("isPublic", node.getBoolean("IsGlobalTemplate") == true ? "true" : "false");
 
-            if (node.has("Hypervisor") && !node.isNull("Hypervisor")) {
-                JSONObject hv = node.getJSONObject("Hypervisor");
+            JSONObject hv = JSONMapping.optObject(node, "Hypervisor");
+            if (hv != null) {
                 JSONObject site = hv.getJSONObject("Site");
-                datacenterId = site.getString("SiteID");
+                datacenterId = StringInterner.intern(site.getString("SiteID"));
                 if (regionId == null || regionId.equals("0")) {
                     //get region from hypervisor site
                     JSONObject r = site.getJSONObject("Region");
-                    regionId = r.getString("RegionID");
+                    regionId = StringInterner.intern(r.getString("RegionID"));
                 }
             }
 
-            if (node.has("Disks") && !node.isNull("Disks")) {
-                JSONArray disks = node.getJSONArray("Disks");
+            JSONArray disks = node.optJSONArray("Disks");
+            if (disks != null) {
                 JSONObject disk = disks.getJSONObject(0);
                 int deviceKey = disk.getInt("DeviceKey");
                 properties.put("diskDeviceKey", Integer.toString(deviceKey));
             }
 
-            if (node.has("Nics") && !node.isNull("Nics")) {
-                JSONArray nics = node.getJSONArray("Nics");
+            JSONArray nics = node.optJSONArray("Nics");
+            if (nics != null) {
                 JSONObject nic = nics.getJSONObject(0);
                 int deviceKey = nic.getInt("DeviceKey");
                 properties.put("nicDeviceKey", Integer.toString(deviceKey));
@@ -474,31 +668,4 @@ public class Templates extends AbstractImageSupport<Virtustream> {
             throw new InternalException("Unable to parse JSONObject "+e.getMessage());
         }
     }
-
-    private Architecture guess(String desc) {
-        Architecture arch = Architecture.I64;
-
-        if( desc.contains("x64") ) {
-            arch = Architecture.I64;
-        }
-        else if( desc.contains("x32") ) {
-            arch = Architecture.I32;
-        }
-        else if( desc.contains("64 bit") ) {
-            arch = Architecture.I64;
-        }
-        else if( desc.contains("32 bit") ) {
-            arch = Architecture.I32;
-        }
-        else if( desc.contains("i386") ) {
-            arch = Architecture.I32;
-        }
-        else if( desc.contains("64") ) {
-            arch = Architecture.I64;
-        }
-        else if( desc.contains("32") ) {
-            arch = Architecture.I32;
-        }
-        return arch;
-    }
 }
@@ -0,0 +1,340 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.virtustream.Virtustream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory copy of the tenant's VMs with secondary indexes on data center, resource pool, VLAN, tenant and
+ * power state. The store is fed by a {@link VMInventorySync}, so each {@link #refresh()} only applies what changed
+ * since the previous one. Queries are answered from the indexes without calling Virtustream. Indexing reads only
+ * fields a {@link LazyVirtualMachine} maps up front, or its raw data center, so storing listed VMs does not decode
+ * them.
+ */
+public class VMInventoryStore implements VMInventorySync.Listener {
+    static private class Index {
+        private final Map<Object,Set<String>> entries = new HashMap<Object, Set<String>>();
+
+        void add(@Nullable Object key, @Nonnull String vmId) {
+            if (key != null) {
+                Set<String> ids = entries.get(key);
+
+                if (ids == null) {
+                    ids = new HashSet<String>();
+                    entries.put(key, ids);
+                }
+                ids.add(vmId);
+            }
+        }
+
+        void remove(@Nullable Object key, @Nonnull String vmId) {
+            if (key != null) {
+                Set<String> ids = entries.get(key);
+
+                if (ids != null) {
+                    ids.remove(vmId);
+                    if (ids.isEmpty()) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        }
+
+        @Nonnull Set<String> get(@Nonnull Object key) {
+            Set<String> ids = entries.get(key);
+
+            return (ids == null ? Collections.<String>emptySet() : ids);
+        }
+
+        void clear() {
+            entries.clear();
+        }
+    }
+
+    private final Map<String,VirtualMachine> vms          = new HashMap<String, VirtualMachine>();
+    private final Index                      byDataCenter = new Index();
+    private final Index                      byPool       = new Index();
+    private final Index                      byState      = new Index();
+    private final Index                      byTenant     = new Index();
+    private final Index                      byVlan       = new Index();
+    private final ReadWriteLock              lock         = new ReentrantReadWriteLock();
+    private final VMInventorySync            sync;
+
+    public VMInventoryStore(@Nonnull Virtustream provider) {
+        this(new VMInventorySync(provider));
+    }
+
+    public VMInventoryStore(@Nonnull VMInventorySync sync) {
+        this.sync = sync;
+        for (VirtualMachine vm : sync.getSnapshot()) {
+            vmAdded(vm);
+        }
+        sync.addListener(this);
+    }
+
+    /**
+     * Applies everything that changed in Virtustream since the last refresh.
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public void refresh() throws InternalException, CloudException {
+        sync.sync();
+    }
+
+    public @Nonnull VMInventorySync getSync() {
+        return sync;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return vms.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public @Nullable VirtualMachine getVirtualMachine(@Nonnull String vmId) {
+        lock.readLock().lock();
+        try {
+            return vms.get(vmId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public @Nonnull Collection<VirtualMachine> findByDataCenter(@Nonnull String dataCenterId) {
+        return find(dataCenterId, null, null, null, null);
+    }
+
+    public @Nonnull Collection<VirtualMachine> findByResourcePool(@Nonnull String resourcePoolId) {
+        return find(null, resourcePoolId, null, null, null);
+    }
+
+    public @Nonnull Collection<VirtualMachine> findByState(@Nonnull VmState state) {
+        return find(null, null, null, null, state);
+    }
+
+    public @Nonnull Collection<VirtualMachine> findByTenant(@Nonnull String tenantId) {
+        return find(null, null, null, tenantId, null);
+    }
+
+    public @Nonnull Collection<VirtualMachine> findByVlan(@Nonnull String vlanId) {
+        return find(null, null, vlanId, null, null);
+    }
+
+    /**
+     * Finds the VMs matching every non-null criterion by intersecting the relevant indexes, smallest first.
+     * @return the matching VMs
+     */
+    public @Nonnull Collection<VirtualMachine> find(@Nullable String dataCenterId, @Nullable String resourcePoolId, @Nullable String vlanId, @Nullable String tenantId, @Nullable VmState state) {
+        lock.readLock().lock();
+        try {
+            List<Set<String>> sets = new ArrayList<Set<String>>();
+
+            if (dataCenterId != null) {
+                sets.add(byDataCenter.get(dataCenterId));
+            }
+            if (resourcePoolId != null) {
+                sets.add(byPool.get(resourcePoolId));
+            }
+            if (vlanId != null) {
+                sets.add(byVlan.get(vlanId));
+            }
+            if (tenantId != null) {
+                sets.add(byTenant.get(tenantId));
+            }
+            if (state != null) {
+                sets.add(byState.get(state));
+            }
+            if (sets.isEmpty()) {
+                return new ArrayList<VirtualMachine>(vms.values());
+            }
+            Set<String> smallest = sets.get(0);
+
+            for (Set<String> ids : sets) {
+                if (ids.size() < smallest.size()) {
+                    smallest = ids;
+                }
+            }
+            List<VirtualMachine> matches = new ArrayList<VirtualMachine>();
+
+            candidates:
+            for (String id : smallest) {
+                for (Set<String> ids : sets) {
+                    if (ids != smallest && !ids.contains(id)) {
+                        continue candidates;
+                    }
+                }
+                matches.add(vms.get(id));
+            }
+            return matches;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Answers a {@link VirtualMachines#listVirtualMachines(VMFilterOptions)} query from the store. VM state and
+     * <code>ResourcePoolID</code> tag criteria are served from the indexes; the remaining criteria are checked
+     * against the narrowed candidates.
+     * @param options the filter, or <code>null</code> for every VM
+     * @return the matching VMs
+     */
+    public @Nonnull Collection<VirtualMachine> list(@Nullable VMFilterOptions options) {
+        if (options == null) {
+            return find(null, null, null, null, null);
+        }
+        Collection<VirtualMachine> candidates = null;
+
+        if (!options.isMatchesAny()) {
+            Map<String,String> tags = options.getTags();
+            String pool = (tags == null ? null : tags.get("ResourcePoolID"));
+            Set<VmState> states = options.getVmStates();
+
+            if (states != null && states.size() == 1) {
+                candidates = find(null, pool, null, null, states.iterator().next());
+            }
+            else if (pool != null) {
+                candidates = find(null, pool, null, null, null);
+            }
+            else if (states != null && !states.isEmpty()) {
+                candidates = new ArrayList<VirtualMachine>();
+                for (VmState state : states) {
+                    candidates.addAll(findByState(state));
+                }
+            }
+        }
+        if (candidates == null) {
+            candidates = find(null, null, null, null, null);
+        }
+        List<VirtualMachine> matches = new ArrayList<VirtualMachine>();
+
+        for (VirtualMachine vm : candidates) {
+            if (options.matches(vm)) {
+                matches.add(vm);
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public void vmAdded(@Nonnull VirtualMachine vm) {
+        lock.writeLock().lock();
+        try {
+            VirtualMachine previous = vms.put(vm.getProviderVirtualMachineId(), vm);
+
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(vm);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void vmChanged(@Nonnull VirtualMachine previous, @Nonnull VirtualMachine current) {
+        vmAdded(current);
+    }
+
+    @Override
+    public void vmRemoved(@Nonnull VirtualMachine vm) {
+        lock.writeLock().lock();
+        try {
+            VirtualMachine previous = vms.remove(vm.getProviderVirtualMachineId());
+
+            if (previous != null) {
+                unindex(previous);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            vms.clear();
+            byDataCenter.clear();
+            byPool.clear();
+            byState.clear();
+            byTenant.clear();
+            byVlan.clear();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a listed VM's data center from its listing entry rather than having every VM in the store decoded just
+     * to index it.
+     */
+    static private @Nullable String getDataCenterId(@Nonnull VirtualMachine vm) {
+        if (vm instanceof LazyVirtualMachine) {
+            return ((LazyVirtualMachine)vm).peekDataCenterId();
+        }
+        return vm.getProviderDataCenterId();
+    }
+
+    private void index(@Nonnull VirtualMachine vm) {
+        String id = vm.getProviderVirtualMachineId();
+
+        byDataCenter.add(getDataCenterId(vm), id);
+        byPool.add(vm.getTag("ResourcePoolID"), id);
+        byState.add(vm.getCurrentState(), id);
+        byTenant.add(vm.getProviderOwnerId(), id);
+        byVlan.add(vm.getProviderVlanId(), id);
+    }
+
+    private void unindex(@Nonnull VirtualMachine vm) {
+        String id = vm.getProviderVirtualMachineId();
+
+        byDataCenter.remove(getDataCenterId(vm), id);
+        byPool.remove(vm.getTag("ResourcePoolID"), id);
+        byState.remove(vm.getCurrentState(), id);
+        byTenant.remove(vm.getProviderOwnerId(), id);
+        byVlan.remove(vm.getProviderVlanId(), id);
+    }
+}
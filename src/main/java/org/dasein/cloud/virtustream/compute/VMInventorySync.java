@@ -0,0 +1,394 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.virtustream.JSONScanner;
+import org.dasein.cloud.virtustream.PagedResults;
+import org.dasein.cloud.virtustream.Virtustream;
+import org.dasein.cloud.virtustream.VirtustreamMethod;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps an up-to-date snapshot of the tenant's VMs and reports what changed between syncs. The first sync lists
+ * the whole tenant; after that only changed VMs are fetched in full.
+ * <p>
+ * If the API exposes a modification timestamp (set through the constructor or the <code>vmModifiedField</code>
+ * custom property) and the tenant's VMs carry it, each sync only asks for VMs modified or removed at or after the last
+ * watermark. Otherwise each sync sweeps a <code>$select</code> projection of the fields that describe a VM and
+ * compares their hashes against the previous sweep.
+ * </p>
+ * <p>
+ * Each sync works on a copy of the watermark and fingerprints, which replaces them only together with the snapshot
+ * once the sync has succeeded. A failed sync is therefore retried from where the last successful one left off.
+ * </p>
+ */
+public class VMInventorySync {
+    static private final Logger logger = Virtustream.getLogger(VMInventorySync.class);
+
+    static private final String SYNC_VMS            =   "VM.syncVms";
+
+    static private final String LIVE_VMS            =   "/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false";
+    static private final String REMOVED_VMS         =   "/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq true";
+
+    static final String[] FINGERPRINT_FIELDS = {
+            "VirtualMachineID", "CustomerDefinedName", "Description", "PowerState", "NumCpu", "RamAllocatedMB",
+            "ResourcePoolID", "IPAddress", "BootTime", "OS", "OSFullName", "TenantID", "RegionID",
+            // NetworkID is only found in the NICs and the data center and region of the site in the hypervisor
+            "Nics", "Hypervisor"
+    };
+
+    /**
+     * Receives the differences found by a sync. Callbacks are made on the thread calling {@link #sync()}.
+     */
+    public interface Listener {
+        public void vmAdded(@Nonnull VirtualMachine vm);
+
+        public void vmChanged(@Nonnull VirtualMachine previous, @Nonnull VirtualMachine current);
+
+        public void vmRemoved(@Nonnull VirtualMachine vm);
+    }
+
+    static class Marker {
+        String id;
+        int    fingerprint;
+        String modified;
+
+        Marker() { }
+
+        Marker(@Nonnull String id, @Nullable String modified) {
+            this.id = id;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * How far the syncs have got: the latest modification instant seen with the VMs seen at that instant, and the
+     * fingerprints of the last sweep.
+     */
+    static class Progress {
+        Map<String,Integer> fingerprints = new HashMap<String, Integer>();
+        String              watermark;
+        Set<String>         atWatermark  = new HashSet<String>();
+
+        /**
+         * @return a copy that can be advanced without changing this one
+         */
+        @Nonnull Progress copy() {
+            Progress progress = new Progress();
+
+            // fingerprints are replaced as a whole, never changed in place
+            progress.fingerprints = fingerprints;
+            progress.watermark = watermark;
+            progress.atWatermark = new HashSet<String>(atWatermark);
+            return progress;
+        }
+
+        /**
+         * @param listing the listing the VM was found in
+         * @param marker the VM
+         * @param since the watermark the listing was filtered from
+         * @return true if the VM was already handled at the watermark by an earlier sync
+         */
+        boolean isHandled(@Nonnull String listing, @Nonnull Marker marker, @Nonnull String since) {
+            return (since.equals(marker.modified) && atWatermark.contains(listing + marker.id));
+        }
+
+        void advance(@Nonnull String listing, @Nonnull Marker marker) {
+            String modified = marker.modified;
+
+            if (modified == null) {
+                return;
+            }
+            // ISO-8601 timestamps in a single format order lexically
+            int order = (watermark == null ? 1 : modified.compareTo(watermark));
+
+            if (order > 0) {
+                watermark = modified;
+                atWatermark = new HashSet<String>();
+            }
+            if (order >= 0) {
+                atWatermark.add(listing + marker.id);
+            }
+        }
+    }
+
+    private final List<Listener>               listeners = new CopyOnWriteArrayList<Listener>();
+    private final String                       modifiedField;
+    private final Virtustream                  provider;
+    private volatile Map<String,VirtualMachine> snapshot = Collections.emptyMap();
+    private Progress                           progress = new Progress();
+    private boolean                            initialized = false;
+
+    public VMInventorySync(@Nonnull Virtustream provider) {
+        this(provider, getModifiedField(provider));
+    }
+
+    public VMInventorySync(@Nonnull Virtustream provider, @Nullable String modifiedField) {
+        this.provider = provider;
+        this.modifiedField = modifiedField;
+    }
+
+    static private @Nullable String getModifiedField(@Nonnull Virtustream provider) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String field = (p == null ? null : p.getProperty("vmModifiedField"));
+
+        return (field == null || field.trim().length() == 0 ? null : field.trim());
+    }
+
+    public void addListener(@Nonnull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@Nonnull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the VMs as of the last sync
+     */
+    public @Nonnull Collection<VirtualMachine> getSnapshot() {
+        return snapshot.values();
+    }
+
+    /**
+     * @param vmId the VM to look up
+     * @return the VM as of the last sync, or <code>null</code> if it was not present
+     */
+    public @Nullable VirtualMachine getVirtualMachine(@Nonnull String vmId) {
+        return snapshot.get(vmId);
+    }
+
+    /**
+     * Brings the snapshot up to date and notifies listeners of every VM added, changed or removed since the
+     * previous sync. The first sync reports every VM as added.
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public synchronized void sync() throws InternalException, CloudException {
+        APITrace.begin(provider, SYNC_VMS);
+        try {
+            VirtualMachines support = provider.getComputeServices().getVirtualMachineSupport();
+            Map<String,VirtualMachine> current = new HashMap<String, VirtualMachine>(snapshot);
+            List<VirtualMachine> added = new ArrayList<VirtualMachine>();
+            List<VirtualMachine[]> changed = new ArrayList<VirtualMachine[]>();
+            List<VirtualMachine> removed = new ArrayList<VirtualMachine>();
+            Progress next;
+
+            if (!initialized) {
+                next = new Progress();
+                initialize(support, next, current, added);
+            }
+            else if (modifiedField != null && progress.watermark != null) {
+                next = progress.copy();
+                syncSinceWatermark(support, next, current, added, changed, removed);
+            }
+            else {
+                next = progress.copy();
+                syncByFingerprint(support, next, current, added, changed, removed);
+            }
+            snapshot = Collections.unmodifiableMap(current);
+            progress = next;
+            initialized = true;
+            fire(added, changed, removed);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    private void initialize(@Nonnull VirtualMachines support, @Nonnull Progress next, @Nonnull Map<String,VirtualMachine> current, @Nonnull List<VirtualMachine> added) throws InternalException, CloudException {
+        // take the watermark and fingerprints before the full listing so nothing modified during it is missed
+        if (modifiedField != null) {
+            for (Marker marker : sweep(LIVE_VMS, "VirtualMachineID", modifiedField)) {
+                next.advance(LIVE_VMS, marker);
+            }
+        }
+        if (next.watermark == null) {
+            next.fingerprints = fingerprint();
+        }
+        current.clear();
+        // listVirtualMachines pages straight from the API rather than from a shared snapshot, so the listing is
+        // never older than the watermark taken above
+        try {
+            for (VirtualMachine vm : support.listVirtualMachines()) {
+                current.put(vm.getProviderVirtualMachineId(), vm);
+                added.add(vm);
+            }
+        }
+        catch (PagedResults.PageException e) {
+            e.rethrow();
+        }
+    }
+
+    private void syncSinceWatermark(@Nonnull VirtualMachines support, @Nonnull Progress next, @Nonnull Map<String,VirtualMachine> current, @Nonnull List<VirtualMachine> added, @Nonnull List<VirtualMachine[]> changed, @Nonnull List<VirtualMachine> removed) throws InternalException, CloudException {
+        String since = next.watermark;
+        // the filters include the watermark itself so nothing modified in the same instant is missed; the committed
+        // progress records the VMs already handled at that instant
+        Progress handled = progress;
+
+        for (Marker marker : sweep(modifiedSince(REMOVED_VMS, since), "VirtualMachineID", modifiedField)) {
+            if (handled.isHandled(REMOVED_VMS, marker, since)) {
+                continue;
+            }
+            next.advance(REMOVED_VMS, marker);
+            VirtualMachine vm = current.remove(marker.id);
+
+            if (vm != null) {
+                removed.add(vm);
+            }
+        }
+        for (Marker marker : sweep(modifiedSince(LIVE_VMS, since), "VirtualMachineID", modifiedField)) {
+            if (handled.isHandled(LIVE_VMS, marker, since)) {
+                continue;
+            }
+            next.advance(LIVE_VMS, marker);
+            refresh(support, marker.id, current, added, changed, removed);
+        }
+    }
+
+    private void syncByFingerprint(@Nonnull VirtualMachines support, @Nonnull Progress next, @Nonnull Map<String,VirtualMachine> current, @Nonnull List<VirtualMachine> added, @Nonnull List<VirtualMachine[]> changed, @Nonnull List<VirtualMachine> removed) throws InternalException, CloudException {
+        Map<String,Integer> latest = fingerprint();
+
+        for (Map.Entry<String,Integer> entry : latest.entrySet()) {
+            Integer previous = next.fingerprints.get(entry.getKey());
+
+            if (previous == null || !previous.equals(entry.getValue()) || !current.containsKey(entry.getKey())) {
+                refresh(support, entry.getKey(), current, added, changed, removed);
+            }
+        }
+        Set<String> gone = new HashSet<String>(current.keySet());
+
+        gone.removeAll(latest.keySet());
+        for (String id : gone) {
+            removed.add(current.remove(id));
+        }
+        next.fingerprints = latest;
+    }
+
+    private void refresh(@Nonnull VirtualMachines support, @Nonnull String vmId, @Nonnull Map<String,VirtualMachine> current, @Nonnull List<VirtualMachine> added, @Nonnull List<VirtualMachine[]> changed, @Nonnull List<VirtualMachine> removed) throws InternalException, CloudException {
+        // bypass the VM cache so a change is never recorded against a stale copy
+        VirtualMachine vm = support.getVirtualMachine(vmId, true);
+        VirtualMachine previous;
+
+        if (vm == null) {
+            previous = current.remove(vmId);
+            if (previous != null) {
+                removed.add(previous);
+            }
+            return;
+        }
+        previous = current.put(vmId, vm);
+        if (previous == null) {
+            added.add(vm);
+        }
+        else {
+            changed.add(new VirtualMachine[] { previous, vm });
+        }
+    }
+
+    private @Nonnull Map<String,Integer> fingerprint() throws InternalException, CloudException {
+        Map<String,Integer> map = new HashMap<String, Integer>();
+
+        for (Marker marker : sweep(LIVE_VMS, FINGERPRINT_FIELDS)) {
+            map.put(marker.id, marker.fingerprint);
+        }
+        return map;
+    }
+
+    /**
+     * @param values the field values scanned from a VM
+     * @return a hash of the values, which almost always changes when one of them does
+     */
+    static int fingerprint(@Nonnull String[] values) {
+        int hash = 17;
+
+        for (String value : values) {
+            hash = 31*hash + String.valueOf(value).hashCode();
+        }
+        return hash;
+    }
+
+    private @Nonnull List<Marker> sweep(@Nonnull String resource, @Nonnull final String ... fields) throws InternalException, CloudException {
+        final List<Marker> markers = new ArrayList<Marker>();
+        final int modifiedIndex = (modifiedField == null ? -1 : Arrays.asList(fields).indexOf(modifiedField));
+
+        // fields[0] is always VirtualMachineID
+        PagedResults.scan(provider, VirtustreamMethod.withSelect(resource, fields), SYNC_VMS, fields, new JSONScanner.FieldHandler() {
+            @Override
+            public void element(@Nonnull String[] values) {
+                if (values[0] == null) {
+                    return;
+                }
+                Marker marker = new Marker();
+
+                marker.id = values[0];
+                marker.fingerprint = fingerprint(values);
+                if (modifiedIndex >= 0) {
+                    marker.modified = values[modifiedIndex];
+                }
+                markers.add(marker);
+            }
+        });
+        return markers;
+    }
+
+    private @Nonnull String modifiedSince(@Nonnull String resource, @Nonnull String since) {
+        return resource + " and " + modifiedField + " ge datetime'" + since + "'";
+    }
+
+    private void fire(@Nonnull List<VirtualMachine> added, @Nonnull List<VirtualMachine[]> changed, @Nonnull List<VirtualMachine> removed) {
+        for (Listener listener : listeners) {
+            try {
+                for (VirtualMachine vm : removed) {
+                    listener.vmRemoved(vm);
+                }
+                for (VirtualMachine vm : added) {
+                    listener.vmAdded(vm);
+                }
+                for (VirtualMachine[] pair : changed) {
+                    listener.vmChanged(pair[0], pair[1]);
+                }
+            }
+            catch (Throwable t) {
+                logger.error("Inventory listener failed: " + t.getMessage(), t);
+            }
+        }
+    }
+}
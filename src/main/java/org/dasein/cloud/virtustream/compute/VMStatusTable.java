@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.compute.VmState;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of VM power states held as a sorted array of VM IDs and a parallel array of byte-coded
+ * {@link VmState} values. IDs already present in the previous snapshot are reused rather than retained a second
+ * time, so a steady fleet costs two arrays per sweep. Two snapshots are compared with {@link #diff}, which walks
+ * both in order and reports only the entries that differ.
+ * <p>
+ * A VM whose power state is not recognised stays in the table: it keeps the state it had in the previous snapshot,
+ * or has no state if it had none. A VM without a state is not reported by {@link #diff} until it gets one, so it
+ * is never mistaken for a removed VM.
+ * </p>
+ */
+public class VMStatusTable {
+    static private final VmState[] STATES  = VmState.values();
+    static private final byte      UNKNOWN = -1;
+
+    static public final VMStatusTable EMPTY = new VMStatusTable(new String[0], new byte[0]);
+
+    /**
+     * Receives the differences found by {@link VMStatusTable#diff}.
+     */
+    public interface DiffHandler {
+        public void created(@Nonnull String vmId, @Nonnull VmState state);
+
+        public void changed(@Nonnull String vmId, @Nonnull VmState previous, @Nonnull VmState current);
+
+        public void removed(@Nonnull String vmId, @Nonnull VmState lastState);
+    }
+
+    /**
+     * Accumulates the entries of one sweep. A builder is used by one thread only.
+     */
+    static public class Builder {
+        private final VMStatusTable previous;
+        private String[]            ids;
+        private byte[]              states;
+        private int                 size = 0;
+
+        /**
+         * @param previous the table from the previous sweep whose ID instances should be reused, if any
+         */
+        public Builder(@Nullable VMStatusTable previous) {
+            int capacity = (previous == null ? 64 : Math.max(64, previous.size()));
+
+            this.previous = previous;
+            this.ids = new String[capacity];
+            this.states = new byte[capacity];
+        }
+
+        /**
+         * @param vmId the VM seen
+         * @param state its power state, or <code>null</code> if it was not recognised
+         * @return this builder
+         */
+        public @Nonnull Builder add(@Nonnull String vmId, @Nullable VmState state) {
+            byte code = (state == null ? UNKNOWN : (byte)state.ordinal());
+
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size*2);
+                states = Arrays.copyOf(states, size*2);
+            }
+            if (previous != null) {
+                int idx = previous.indexOf(vmId);
+
+                if (idx >= 0) {
+                    vmId = previous.ids[idx];
+                    if (state == null) {
+                        code = previous.states[idx];
+                    }
+                }
+            }
+            ids[size] = vmId;
+            states[size] = code;
+            size++;
+            return this;
+        }
+
+        public @Nonnull VMStatusTable build() {
+            sort(ids, states, size);
+            // the sort is stable, so a VM seen twice across pages keeps the last state reported for it
+            int n = 0;
+
+            for (int i=0; i<size; i++) {
+                if (n > 0 && ids[n-1].equals(ids[i])) {
+                    states[n-1] = states[i];
+                }
+                else {
+                    ids[n] = ids[i];
+                    states[n] = states[i];
+                    n++;
+                }
+            }
+            return new VMStatusTable(Arrays.copyOf(ids, n), Arrays.copyOf(states, n));
+        }
+    }
+
+    /**
+     * Reports every entry that differs between two tables to the handler. Nothing is allocated beyond what the
+     * handler itself allocates.
+     * @param previous the earlier table
+     * @param current the later table
+     * @param handler the recipient of the differences
+     */
+    static public void diff(@Nonnull VMStatusTable previous, @Nonnull VMStatusTable current, @Nonnull DiffHandler handler) {
+        int i = 0, j = 0;
+
+        while (i < previous.ids.length || j < current.ids.length) {
+            int cmp;
+
+            if (i == previous.ids.length) {
+                cmp = 1;
+            }
+            else if (j == current.ids.length) {
+                cmp = -1;
+            }
+            else {
+                cmp = previous.ids[i].compareTo(current.ids[j]);
+            }
+            if (cmp < 0) {
+                if (previous.states[i] != UNKNOWN) {
+                    handler.removed(previous.ids[i], STATES[previous.states[i]]);
+                }
+                i++;
+            }
+            else if (cmp > 0) {
+                if (current.states[j] != UNKNOWN) {
+                    handler.created(current.ids[j], STATES[current.states[j]]);
+                }
+                j++;
+            }
+            else {
+                byte before = previous.states[i];
+                byte after = current.states[j];
+
+                if (before != after && after != UNKNOWN) {
+                    if (before == UNKNOWN) {
+                        // never reported while its state was unknown
+                        handler.created(current.ids[j], STATES[after]);
+                    }
+                    else {
+                        handler.changed(current.ids[j], STATES[before], STATES[after]);
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Sorts the first <code>size</code> entries by VM ID with a bottom-up merge sort, which keeps entries with the
+     * same ID in the order they were added.
+     */
+    static private void sort(@Nonnull String[] ids, @Nonnull byte[] states, int size) {
+        String[] idBuffer = new String[size];
+        byte[] stateBuffer = new byte[size];
+
+        for (int width=1; width<size; width*=2) {
+            for (int lo=0; lo<size-width; lo+=width*2) {
+                int mid = lo + width;
+                int hi = Math.min(size, mid + width);
+                int i = lo, j = mid, k = lo;
+
+                while (i < mid && j < hi) {
+                    // <= takes the earlier entry first when the IDs are equal
+                    if (ids[i].compareTo(ids[j]) <= 0) {
+                        idBuffer[k] = ids[i];
+                        stateBuffer[k++] = states[i++];
+                    }
+                    else {
+                        idBuffer[k] = ids[j];
+                        stateBuffer[k++] = states[j++];
+                    }
+                }
+                while (i < mid) {
+                    idBuffer[k] = ids[i];
+                    stateBuffer[k++] = states[i++];
+                }
+                while (j < hi) {
+                    idBuffer[k] = ids[j];
+                    stateBuffer[k++] = states[j++];
+                }
+                System.arraycopy(idBuffer, lo, ids, lo, hi - lo);
+                System.arraycopy(stateBuffer, lo, states, lo, hi - lo);
+            }
+        }
+    }
+
+    private final String[] ids;
+    private final byte[]   states;
+
+    private VMStatusTable(@Nonnull String[] ids, @Nonnull byte[] states) {
+        this.ids = ids;
+        this.states = states;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public @Nonnull String getVirtualMachineId(@Nonnegative int index) {
+        return ids[index];
+    }
+
+    /**
+     * @param index the entry to read
+     * @return the entry's state or <code>null</code> if it is not known
+     */
+    public @Nullable VmState getState(@Nonnegative int index) {
+        return toState(states[index]);
+    }
+
+    /**
+     * @param vmId the VM to look up
+     * @return the VM's state or <code>null</code> if it is not in the table or its state is not known
+     */
+    public @Nullable VmState getState(@Nonnull String vmId) {
+        int idx = indexOf(vmId);
+
+        return (idx < 0 ? null : toState(states[idx]));
+    }
+
+    public boolean contains(@Nonnull String vmId) {
+        return (indexOf(vmId) >= 0);
+    }
+
+    static private @Nullable VmState toState(byte code) {
+        return (code == UNKNOWN ? null : STATES[code]);
+    }
+
+    private int indexOf(@Nonnull String vmId) {
+        return Arrays.binarySearch(ids, vmId);
+    }
+}
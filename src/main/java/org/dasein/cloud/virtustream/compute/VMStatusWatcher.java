@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.virtustream.Virtustream;
+import org.dasein.util.CalendarWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the tenant's VM status on a single background thread and reports state transitions to every registered
+ * listener, so any number of interested components cost one status sweep per interval. The poller starts with
+ * the first listener and stops when the last one is removed. The first sweep after starting only records a
+ * baseline; transitions are reported from the second sweep on.
+ */
+public class VMStatusWatcher {
+    static private final Logger logger = Virtustream.getLogger(VMStatusWatcher.class);
+
+    /**
+     * Interval between sweeps in milliseconds when the context does not set a <code>vmWatchInterval</code> custom
+     * property, which is given in seconds
+     */
+    static public final long DEFAULT_INTERVAL = CalendarWrapper.SECOND * 30;
+
+    /**
+     * Receives VM state transitions. Callbacks are made on the watcher thread and should return quickly.
+     */
+    public interface Listener {
+        public void vmCreated(@Nonnull String vmId, @Nonnull VmState state);
+
+        public void vmStateChanged(@Nonnull String vmId, @Nonnull VmState previous, @Nonnull VmState current);
+
+        public void vmRemoved(@Nonnull String vmId, @Nonnull VmState lastState);
+    }
+
+    /**
+     * Takes one status sweep of the tenant's VMs.
+     */
+    interface StatusSource {
+        @Nonnull VMStatusTable sweep(@Nullable VMStatusTable previous) throws InternalException, CloudException;
+    }
+
+    private final List<Listener>     listeners = new CopyOnWriteArrayList<Listener>();
+    private final StatusSource       source;
+    private long                     interval;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?>       poll;
+    private volatile VMStatusTable   states;
+
+    public VMStatusWatcher(@Nonnull final Virtustream provider) {
+        this(new StatusSource() {
+            public @Nonnull VMStatusTable sweep(@Nullable VMStatusTable previous) throws InternalException, CloudException {
+                return provider.getComputeServices().getVirtualMachineSupport().getVirtualMachineStatusTable(previous);
+            }
+        }, getConfiguredInterval(provider));
+    }
+
+    VMStatusWatcher(@Nonnull StatusSource source, long interval) {
+        this.source = source;
+        this.interval = interval;
+    }
+
+    static private long getConfiguredInterval(@Nonnull Virtustream provider) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String seconds = (p == null ? null : p.getProperty("vmWatchInterval"));
+
+        if (seconds != null && seconds.length() > 0) {
+            try {
+                long value = Long.parseLong(seconds);
+
+                if (value > 0) {
+                    return value * CalendarWrapper.SECOND;
+                }
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Invalid vmWatchInterval property " + seconds);
+            }
+        }
+        return DEFAULT_INTERVAL;
+    }
+
+    /**
+     * @return the interval between status sweeps in milliseconds
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Changes the interval between status sweeps, taking effect immediately if the watcher is running.
+     * @param millis the interval in milliseconds
+     */
+    public synchronized void setInterval(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Watch interval must be positive");
+        }
+        interval = millis;
+        if (poll != null) {
+            poll.cancel(false);
+            schedule();
+        }
+    }
+
+    public synchronized void addListener(@Nonnull Listener listener) {
+        listeners.add(listener);
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r, "Virtustream VM watcher");
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            states = null;
+            schedule();
+        }
+    }
+
+    public synchronized void removeListener(@Nonnull Listener listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stops the background poller. Listeners are kept and the poller restarts when another listener is added.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            poll = null;
+        }
+    }
+
+    private void schedule() {
+        poll = executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, 0L, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void sweep() {
+        VMStatusTable previous = states;
+        VMStatusTable current;
+
+        try {
+            current = source.sweep(previous);
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to poll VM status: " + t.getMessage());
+            return;
+        }
+        states = current;
+        if (previous != null) {
+            VMStatusTable.diff(previous, current, new VMStatusTable.DiffHandler() {
+                public void created(@Nonnull String vmId, @Nonnull VmState state) {
+                    for (Listener listener : listeners) {
+                        try {
+                            listener.vmCreated(vmId, state);
+                        }
+                        catch (Throwable t) {
+                            logger.error("VM watch listener failed: " + t.getMessage(), t);
+                        }
+                    }
+                }
+
+                public void changed(@Nonnull String vmId, @Nonnull VmState before, @Nonnull VmState after) {
+                    for (Listener listener : listeners) {
+                        try {
+                            listener.vmStateChanged(vmId, before, after);
+                        }
+                        catch (Throwable t) {
+                            logger.error("VM watch listener failed: " + t.getMessage(), t);
+                        }
+                    }
+                }
+
+                public void removed(@Nonnull String vmId, @Nonnull VmState lastState) {
+                    for (Listener listener : listeners) {
+                        try {
+                            listener.vmRemoved(vmId, lastState);
+                        }
+                        catch (Throwable t) {
+                            logger.error("VM watch listener failed: " + t.getMessage(), t);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @param vmId the VM to look up
+     * @return the state seen for the VM in the last sweep, or <code>null</code> if it was not seen or its state was
+     * not recognised
+     */
+    public @Nullable VmState getLastKnownState(@Nonnull String vmId) {
+        VMStatusTable table = states;
+
+        return (table == null ? null : table.getState(vmId));
+    }
+}
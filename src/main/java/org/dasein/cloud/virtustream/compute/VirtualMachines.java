@@ -25,7 +25,6 @@ import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.compute.AbstractVMSupport;
 import org.dasein.cloud.compute.Architecture;
-import org.dasein.cloud.compute.MachineImage;
 import org.dasein.cloud.compute.Platform;
 import org.dasein.cloud.compute.VirtualMachine;
 import org.dasein.cloud.compute.VirtualMachineCapabilities;
@@ -37,10 +36,16 @@ import org.dasein.cloud.compute.VMScalingOptions;
 import org.dasein.cloud.compute.VmState;
 import org.dasein.cloud.dc.DataCenter;
 import org.dasein.cloud.network.RawAddress;
-import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
+import org.dasein.cloud.virtustream.ConcurrentRequests;
+import org.dasein.cloud.virtustream.ExpiringCache;
+import org.dasein.cloud.virtustream.JSONMapping;
+import org.dasein.cloud.virtustream.JSONScanner;
+import org.dasein.cloud.virtustream.PagedResults;
+import org.dasein.cloud.virtustream.PollingBackoff;
+import org.dasein.cloud.virtustream.StringInterner;
 import org.dasein.cloud.virtustream.Virtustream;
 import org.dasein.cloud.virtustream.VirtustreamMethod;
 import org.dasein.cloud.virtustream.network.Networks;
@@ -57,10 +62,7 @@ import org.json.JSONObject;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -70,13 +72,16 @@ public class VirtualMachines extends AbstractVMSupport {
     static private final Logger logger = Logger.getLogger(VirtualMachines.class);
 
     static private final String ALTER_VM                    =   "VM.alterVM";
+    static private final String CLONE_MANY                  =   "VM.cloneMany";
     static private final String CLONE_VM                    =   "VM.cloneVm";
     static private final String GET_VIRTUAL_MACHINE         =   "VM.getVirtualMachine";
+    static private final String GET_VIRTUAL_MACHINE_STATUS  =   "VM.getVirtualMachineStatus";
     static private final String IS_SUBSCRIBED               =   "VM.isSubscribed";
     static private final String LAUNCH_VM                   =   "VM.launchVM";
     static private final String LIST_VIRTUAL_MACHINES       =   "VM.listVms";
     static private final String LIST_VIRTUAL_MACHINE_STATUS =   "VM.listVmStatus";
     static private final String REBOOT_VIRTUAL_MACHINE      =   "VM.rebootVM";
+    static private final String RENAME_VM                   =   "VM.renameVM";
     static private final String RESUME_VIRTUAL_MACHINE      =   "VM.resumeVM";
     static private final String START_VIRTUAL_MACHINE       =   "VM.startVM";
     static private final String STOP_VIRTUAL_MACHINE        =   "VM.stopVM";
@@ -86,6 +91,8 @@ public class VirtualMachines extends AbstractVMSupport {
     static private final String FIND_RESOURCE_POOL          =   "VM.findResourcePool";
     static private final String FIND_STORAGE                =   "VM.findStorage";
 
+    static private final String[] STATUS_FIELDS             =   { "VirtualMachineID", "IsTemplate", "IsRemoved", "PowerState" };
+
     private Virtustream provider = null;
 
     public VirtualMachines(Virtustream provider) {
@@ -97,7 +104,7 @@ public class VirtualMachines extends AbstractVMSupport {
     public VirtualMachine alterVirtualMachineSize(@Nonnull String virtualMachineId, @Nullable String cpuCount, @Nullable String ramInMB) throws InternalException, CloudException {
         APITrace.begin(provider, ALTER_VM);
         try {
-            VirtualMachine vm = getVirtualMachine(virtualMachineId);
+            VirtualMachine vm = getVirtualMachine(virtualMachineId, true);
             if (vm == null) {
                 throw new InternalException("Vm with id "+virtualMachineId+" does not exist.");
             }
@@ -113,13 +120,13 @@ public class VirtualMachines extends AbstractVMSupport {
             if (!state.equals(VmState.STOPPED)) {
                 restart = true;
                 stop(virtualMachineId, true);
-                vm = getVirtualMachine(virtualMachineId);
-                while (!vm.getCurrentState().equals(VmState.STOPPED)) {
+                state = getVirtualMachineState(virtualMachineId);
+                while (!VmState.STOPPED.equals(state)) {
                     try {
                         Thread.sleep(15000L);
                     }
                     catch (InterruptedException ignore) {}
-                    vm = getVirtualMachine(virtualMachineId);
+                    state = getVirtualMachineState(virtualMachineId);
                 }
             }
 
@@ -153,9 +160,10 @@ public class VirtualMachines extends AbstractVMSupport {
                 start(virtualMachineId);
             }
 
-            return getVirtualMachine(virtualMachineId);
+            return getVirtualMachine(virtualMachineId, true);
         }
         finally {
+            invalidate(virtualMachineId);
             APITrace.end();
         }
     }
@@ -165,54 +173,230 @@ public class VirtualMachines extends AbstractVMSupport {
     public VirtualMachine clone(@Nonnull String vmId, @Nonnull String intoDcId, @Nonnull String name, @Nonnull String description, boolean powerOn, @Nullable String... firewallIds) throws InternalException, CloudException {
         APITrace.begin(provider, CLONE_VM);
         try {
-            VirtustreamMethod method = new VirtustreamMethod(provider);
-            String body;
-            JSONObject json = new JSONObject();
-            try {
-                json.put("VirtualMachineID", vmId);
-                json.put("Name", name);
-                json.put("PowerOn", powerOn);
+            String newVMId = provider.waitForTaskCompletion(submitClone(vmId, name, powerOn));
+            provider.getVirtualMachineSnapshot().invalidate();
+            if (newVMId == null) {
+                logger.error("Vm was cloned without error but new id not returned");
+                throw new CloudException("Vm was cloned without error but new id not returned");
             }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse JSON "+json);
+            VirtualMachine vm = awaitVirtualMachine(newVMId, CalendarWrapper.MINUTE * 30);
+            if (vm == null) {
+                throw new CloudException("Vm was cloned without error but new vm not found");
             }
+            return vm;
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-            body = json.toString();
-            String obj = method.postString("/VirtualMachine/CloneVM", body, CLONE_VM);
+    /**
+     * Receives each clone made by {@link VirtualMachines#cloneMany} as soon as it is ready. Callbacks are made on
+     * the threads running the clones.
+     */
+    public interface CloneListener {
+        public void cloned(@Nonnull String name, @Nonnull VirtualMachine vm);
+    }
 
-            String newVMId = null;
-            if (obj != null && obj.length() > 0) {
-                try {
-                    JSONObject node = new JSONObject(obj);
-                    newVMId = provider.parseTaskId(node);
+    /**
+     * Makes several copies of a VM, using the <code>cloneConcurrency</code> custom property (default 4) as the
+     * most clones in progress at once and <code>cloneStagger</code> (in seconds, default 5) as the gap between
+     * starting one clone and the next.
+     * @see #cloneMany(String, List, boolean, int, long, CloneListener)
+     */
+    public @Nonnull List<VirtualMachine> cloneMany(@Nonnull String vmId, @Nonnull List<String> names, boolean powerOn, @Nullable CloneListener listener) throws InternalException, CloudException {
+        int concurrency = ConcurrentRequests.getConfiguredLimit(provider, "cloneConcurrency", 4);
+        long stagger = ExpiringCache.getConfiguredTtl(provider, "cloneStagger", CalendarWrapper.SECOND * 5);
+
+        return cloneMany(vmId, names, powerOn, concurrency, stagger, listener);
+    }
+
+    /**
+     * Makes several copies of a VM. Clones run side by side, each waiting on its own task, but no more than the
+     * given number at once and with their starts spread out so the source datastore is not asked to copy every
+     * disk at the same moment. Each clone is handed to the listener as soon as Virtustream lists it.
+     * @param vmId the VM to clone
+     * @param names the name of each clone
+     * @param powerOn true to start the clones once they are created
+     * @param concurrency the most clones in progress at once
+     * @param stagger the minimum time in milliseconds between starting one clone and the next
+     * @param listener the recipient of each clone as it becomes ready, if any
+     * @return the clones, in the order of the names
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException a clone failed; the others are still allowed to finish and reach the listener
+     */
+    public @Nonnull List<VirtualMachine> cloneMany(@Nonnull final String vmId, @Nonnull List<String> names, final boolean powerOn, int concurrency, long stagger, @Nullable CloneListener listener) throws InternalException, CloudException {
+        APITrace.begin(provider, CLONE_MANY);
+        try {
+            return cloneAll(names, concurrency, stagger, new Cloner() {
+                public @Nonnull VirtualMachine cloneOne(@Nonnull String name) throws InternalException, CloudException {
+                    String newVMId = provider.waitForTaskCompletion(submitClone(vmId, name, powerOn));
+                    provider.getVirtualMachineSnapshot().invalidate();
+                    if (newVMId == null) {
+                        logger.error("Vm was cloned without error but new id not returned");
+                        throw new CloudException("Vm was cloned without error but new id not returned");
+                    }
+                    VirtualMachine vm = awaitVirtualMachine(newVMId, CalendarWrapper.MINUTE * 30);
+                    if (vm == null) {
+                        throw new CloudException("Vm was cloned without error but new vm not found");
+                    }
+                    return vm;
                 }
-                catch (JSONException e) {
-                    logger.error(e);
-                    throw new InternalException("Unable to parse JSON "+e.getMessage());
+            }, listener);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Makes one clone for {@link #cloneAll}.
+     */
+    interface Cloner {
+        @Nonnull VirtualMachine cloneOne(@Nonnull String name) throws InternalException, CloudException;
+    }
+
+    /**
+     * Runs clones side by side, no more than the given number at once and with their starts spread out, handing
+     * each clone to the listener as soon as it is made.
+     * @param names the name of each clone
+     * @param concurrency the most clones in progress at once
+     * @param stagger the minimum time in milliseconds between starting one clone and the next
+     * @param cloner makes each clone
+     * @param listener the recipient of each clone as it becomes ready, if any
+     * @return the clones, in the order of the names
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException a clone failed; the others are still allowed to finish and reach the listener
+     */
+    static @Nonnull List<VirtualMachine> cloneAll(@Nonnull List<String> names, int concurrency, long stagger, @Nonnull final Cloner cloner, @Nullable final CloneListener listener) throws InternalException, CloudException {
+        List<ConcurrentRequests.Request<VirtualMachine>> requests = new ArrayList<ConcurrentRequests.Request<VirtualMachine>>();
+
+        for (final String name : names) {
+            requests.add(new ConcurrentRequests.Request<VirtualMachine>() {
+                @Override
+                public VirtualMachine call() throws InternalException, CloudException {
+                    VirtualMachine vm = cloner.cloneOne(name);
+
+                    if (listener != null) {
+                        try {
+                            listener.cloned(name, vm);
+                        }
+                        catch (Throwable t) {
+                            logger.error("Clone listener failed: " + t.getMessage(), t);
+                        }
+                    }
+                    return vm;
                 }
+            });
+        }
+        return ConcurrentRequests.run(requests, concurrency, stagger);
+    }
+
+    /**
+     * Starts a clone without waiting for it.
+     * @param vmId the VM to clone
+     * @param name the name of the clone
+     * @param powerOn true to start the clone once it is created
+     * @return the ID of the clone task, whose result is the new VM's ID
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException the clone could not be started
+     */
+    @Nonnull String submitClone(@Nonnull String vmId, @Nonnull String name, boolean powerOn) throws InternalException, CloudException {
+        VirtustreamMethod method = new VirtustreamMethod(provider);
+        JSONObject json = new JSONObject();
+        try {
+            json.put("VirtualMachineID", vmId);
+            json.put("Name", name);
+            json.put("PowerOn", powerOn);
+        }
+        catch (JSONException e) {
+            logger.error(e);
+            throw new InternalException("Unable to parse JSON "+json);
+        }
+
+        String obj = method.postString("/VirtualMachine/CloneVM", json.toString(), CLONE_VM);
+
+        String taskId = null;
+        if (obj != null && obj.length() > 0) {
+            try {
+                taskId = provider.getTaskId(new JSONObject(obj));
             }
-            if (newVMId == null) {
-                logger.error("Vm was cloned without error but new id not returned");
-                throw new CloudException("Vm was cloned without error but new id not returned");
+            catch (JSONException e) {
+                logger.error(e);
+                throw new InternalException("Unable to parse JSON "+e.getMessage());
             }
-            long timeout = System.currentTimeMillis()+(CalendarWrapper.MINUTE * 30);
-            VirtualMachine vm = getVirtualMachine(newVMId);
-            while (timeout > System.currentTimeMillis()) {
+        }
+        if (taskId == null) {
+            logger.error("Vm clone was submitted without error but no task id returned");
+            throw new CloudException("Vm clone was submitted without error but no task id returned");
+        }
+        return taskId;
+    }
+
+    /**
+     * Waits for a VM that Virtustream reported creating to become visible, checking at once and then with a
+     * {@link PollingBackoff}, since the API can take a while to list a VM whose task has finished.
+     * @param vmId the new VM
+     * @param timeout how long to wait in milliseconds
+     * @return the VM, or <code>null</code> if it did not appear in time
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    @Nullable VirtualMachine awaitVirtualMachine(@Nonnull String vmId, long timeout) throws InternalException, CloudException {
+        PollingBackoff backoff = new PollingBackoff();
+        long giveUp = System.currentTimeMillis() + timeout;
+
+        while (giveUp > System.currentTimeMillis()) {
+            if (isVirtualMachinePresent(vmId)) {
+                VirtualMachine vm = getVirtualMachine(vmId);
+
                 if (vm != null) {
                     return vm;
                 }
-                try {
-                    Thread.sleep(15000l);
-                    vm = getVirtualMachine(newVMId);
-                }
-                catch (InterruptedException ignore) {}
             }
-            throw new CloudException("Vm was cloned without error but new vm not found");
+            backoff.pause();
         }
-        finally {
-            APITrace.end();
+        return null;
+    }
+
+    /**
+     * Like {@link #awaitVirtualMachine(String, long)} but only checks that the VM is visible, without fetching it.
+     * @param vmId the new VM
+     * @param timeout how long to wait in milliseconds
+     * @return true if the VM appeared in time
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    boolean awaitVirtualMachinePresent(@Nonnull String vmId, long timeout) throws InternalException, CloudException {
+        PollingBackoff backoff = new PollingBackoff();
+        long giveUp = System.currentTimeMillis() + timeout;
+
+        while (giveUp > System.currentTimeMillis()) {
+            if (isVirtualMachinePresent(vmId)) {
+                return true;
+            }
+            backoff.pause();
         }
+        return false;
+    }
+
+    /**
+     * Registers a listener for VM creation, removal and state transitions. All listeners on this provider share one
+     * background status poller, whose interval is set by the <code>vmWatchInterval</code> custom property (in seconds)
+     * or {@link VMStatusWatcher#setInterval(long)}.
+     * @param listener the listener to notify
+     */
+    public void watch(@Nonnull VMStatusWatcher.Listener listener) {
+        provider.getVMStatusWatcher().addListener(listener);
+    }
+
+    /**
+     * Removes a listener registered with {@link #watch(VMStatusWatcher.Listener)}. The shared poller stops when its
+     * last listener is removed.
+     * @param listener the listener to remove
+     */
+    public void unwatch(@Nonnull VMStatusWatcher.Listener listener) {
+        provider.getVMStatusWatcher().removeListener(listener);
     }
 
     private transient volatile VMCapabilities capabilities;
@@ -254,26 +438,56 @@ public class VirtualMachines extends AbstractVMSupport {
     @Nullable
     @Override
     public VirtualMachine getVirtualMachine(@Nonnull String vmId) throws InternalException, CloudException {
+        return getVirtualMachine(vmId, false);
+    }
+
+    /**
+     * Fetches a VM, reading through the provider's VM cache unless told to bypass it.
+     * @param vmId the VM to fetch
+     * @param bypassCache true to always fetch the VM from Virtustream (the cache is refreshed with the result)
+     * @return the VM or <code>null</code> if it does not exist
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public @Nullable VirtualMachine getVirtualMachine(@Nonnull String vmId, boolean bypassCache) throws InternalException, CloudException {
+        JSONObject json = getVirtualMachineDocument(vmId, bypassCache);
+
+        return (json == null ? null : toVirtualMachine(json));
+    }
+
+    /**
+     * Fetches the raw document for a VM through the provider's VM cache. Callers must not modify the document.
+     * @param vmId the VM to fetch
+     * @param bypassCache true to always fetch the document from Virtustream
+     * @return the VM document or <code>null</code> if it does not exist
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    @Nullable JSONObject getVirtualMachineDocument(@Nonnull String vmId, boolean bypassCache) throws InternalException, CloudException {
+        ExpiringCache<JSONObject> cache = provider.getVirtualMachineCache();
+
+        if (!bypassCache) {
+            JSONObject json = cache.get(vmId);
+
+            if (json != null) {
+                return json;
+            }
+        }
+        // a change made while the document is fetched invalidates it, and the document must then not be cached
+        long generation = cache.getGeneration(vmId);
+
         APITrace.begin(provider, GET_VIRTUAL_MACHINE);
         try {
             VirtustreamMethod method = new VirtustreamMethod(provider);
             String obj = method.getString("/VirtualMachine/"+vmId+"?$filter=IsRemoved eq false", GET_VIRTUAL_MACHINE);
 
             if (obj != null && obj.length() > 0) {
-                try {
-                    JSONObject json = new JSONObject(obj);
-                    VirtualMachine vm = toVirtualMachine(json);
+                JSONObject json = JSONMapping.parseObject(obj);
 
-                    if (vm != null) {
-                        return vm;
-
-                    }
-                }
-                catch (JSONException e) {
-                    logger.error(e);
-                    throw new InternalException("Unable to parse JSON "+e.getMessage());
-                }
+                cache.put(vmId, json, generation);
+                return json;
             }
+            cache.invalidate(vmId);
             return null;
         }
         finally {
@@ -281,6 +495,15 @@ public class VirtualMachines extends AbstractVMSupport {
         }
     }
 
+    /**
+     * Drops a VM from the provider's VM cache. Anything that changes a VM must call this once the change is made.
+     * @param vmId the VM that changed
+     */
+    void invalidate(@Nonnull String vmId) {
+        provider.getVirtualMachineCache().invalidate(vmId);
+        provider.getVirtualMachineSnapshot().invalidate();
+    }
+
     @Override
     public boolean isSubscribed() throws CloudException, InternalException {
         APITrace.begin(provider, IS_SUBSCRIBED);
@@ -302,6 +525,44 @@ public class VirtualMachines extends AbstractVMSupport {
     @Nonnull
     @Override
     public VirtualMachine launch(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+        VirtualMachine vm = provider.getWarmVMPool().launch(withLaunchOptions);
+
+        if (vm != null) {
+            return vm;
+        }
+        return launchNew(withLaunchOptions);
+    }
+
+    /**
+     * Serves a launch with a powered-off VM from the warm pool by renaming it and powering it on.
+     * @param vmId the pooled VM
+     * @param withLaunchOptions the launch
+     * @return the VM, or <code>null</code> if it no longer exists
+     * @throws InternalException the request could not be built or the response parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    @Nullable VirtualMachine launchPooled(@Nonnull String vmId, @Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
+        APITrace.begin(provider, LAUNCH_VM);
+        try {
+            // a VM left under its pool name is not the launch that was asked for, so a failed rename is handled
+            // like a failed start
+            rename(vmId, withLaunchOptions.getHostName(), withLaunchOptions.getDescription());
+            start(vmId);
+            return getVirtualMachine(vmId, true);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Launches a VM from its template, without looking in the warm pool.
+     * @param withLaunchOptions the launch
+     * @return the new VM
+     * @throws InternalException the request could not be built or the response parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    VirtualMachine launchNew(@Nonnull VMLaunchOptions withLaunchOptions) throws CloudException, InternalException {
         APITrace.begin(provider, LAUNCH_VM);
         try {
             try {
@@ -334,12 +595,12 @@ public class VirtualMachines extends AbstractVMSupport {
                 }  */
                 capacityKB = 20971520;
                 //get the device key for the template
-                MachineImage img = provider.getComputeServices().getImageSupport().getImage(templateId);
-                int diskDeviceKey = Integer.parseInt(img.getTag("diskDeviceKey").toString());
-                int nicDeviceKey = Integer.parseInt(img.getTag("nicDeviceKey").toString());
-                String nicID = img.getTag("nicID").toString();
-                int adapterType = Integer.parseInt(img.getTag("nicAdapterType").toString());
-                String ostype = (img.getPlatform().equals(Platform.WINDOWS)) ? "Windows" : "Linux";
+                TemplateMetadata template = provider.getComputeServices().getImageSupport().getTemplateMetadata(templateId);
+                int diskDeviceKey = template.getDiskDeviceKey();
+                int nicDeviceKey = template.getNicDeviceKey();
+                String nicID = template.getNicId();
+                int adapterType = template.getNicAdapterType();
+                String ostype = (template.getPlatform().equals(Platform.WINDOWS)) ? "Windows" : "Linux";
 
                 int cpuCore;
                 long ramAllocated;
@@ -462,20 +723,10 @@ public class VirtualMachines extends AbstractVMSupport {
                 if (obj != null && obj.length() > 0) {
                     JSONObject json = new JSONObject(obj);
                     String vmId = provider.parseTaskId(json);
+                    provider.getVirtualMachineSnapshot().invalidate();
                     if (vmId != null) {
                         // poll for up to 30 minutes - VS can sometimes suffer from race condition problems
-                        VirtualMachine vm = null;
-                        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 30l);
-                        while (timeout > System.currentTimeMillis()) {
-                            vm = getVirtualMachine(vmId);
-                            if (vm != null) {
-                                break;
-                            }
-                            try {
-                                Thread.sleep(15000l);
-                            }
-                            catch (InterruptedException ignore) {}
-                        }
+                        VirtualMachine vm = awaitVirtualMachine(vmId, CalendarWrapper.MINUTE * 30l);
                      //   vm.setRootPassword(password);
                         if (vm == null) {
                             logger.error("VM was launched and new id returned but it has not been found by Virtustream");
@@ -496,6 +747,52 @@ public class VirtualMachines extends AbstractVMSupport {
         }
     }
 
+    /**
+     * Changes the name and description of a VM, leaving its size and placement as they are.
+     * @param vmId the VM to rename
+     * @param name the new name
+     * @param description the new description
+     * @throws InternalException the request could not be built or the response parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    void rename(@Nonnull String vmId, @Nonnull String name, @Nonnull String description) throws InternalException, CloudException {
+        APITrace.begin(provider, RENAME_VM);
+        try {
+            JSONObject current = getVirtualMachineDocument(vmId, false);
+
+            if (current == null) {
+                throw new CloudException("No such vm: " + vmId);
+            }
+            try {
+                JSONObject json = new JSONObject();
+
+                json.put("VirtualMachineID", vmId);
+                json.put("CustomerDefinedName", name);
+                json.put("Description", description);
+                json.put("NumCpu", current.get("NumCpu"));
+                json.put("RamAllocatedMB", current.get("RamAllocatedMB"));
+                json.put("ResourcePoolID", current.get("ResourcePoolID"));
+
+                VirtustreamMethod method = new VirtustreamMethod(provider);
+                String obj = method.postString("/VirtualMachine/ReconfigureVM", json.toString(), RENAME_VM);
+
+                if (obj != null && obj.length() > 0) {
+                    if (provider.parseTaskId(new JSONObject(obj)) == null) {
+                        logger.warn("No confirmation of ReconfigureVM task completion but no error either");
+                    }
+                }
+            }
+            catch (JSONException e) {
+                logger.error(e);
+                throw new InternalException("Unable to parse JSON "+e.getMessage());
+            }
+        }
+        finally {
+            invalidate(vmId);
+            APITrace.end();
+        }
+    }
+
     static private final Random random = new Random();
     private @Nonnull String generatePassword() {
         int len = 8 + random.nextInt(5);
@@ -555,28 +852,45 @@ public class VirtualMachines extends AbstractVMSupport {
     public Iterable<ResourceStatus> listVirtualMachineStatus() throws InternalException, CloudException {
         APITrace.begin(provider, LIST_VIRTUAL_MACHINE_STATUS);
         try {
-            try {
-                List<ResourceStatus> list = new ArrayList<ResourceStatus>();
-                VirtustreamMethod method = new VirtustreamMethod(provider);
-                String obj = method.getString("/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", LIST_VIRTUAL_MACHINE_STATUS);
+            String resource = VirtustreamMethod.withSelect("/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", STATUS_FIELDS);
 
-                if (obj != null && obj.length() > 0) {
-                    JSONArray json = new JSONArray(obj);
-                    for (int i = 0; i<json.length(); i++) {
-                        JSONObject node = json.getJSONObject(i);
-                        ResourceStatus status = toStatus(node);
+            return new PagedResults<ResourceStatus>(provider, resource, LIST_VIRTUAL_MACHINE_STATUS, new PagedResults.Mapper<ResourceStatus>() {
+                @Override
+                public ResourceStatus map(@Nonnull JSONObject json) throws InternalException, CloudException {
+                    return toStatus(json);
+                }
+            });
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-                        if (status != null) {
-                            list.add(status);
-                        }
+    /**
+     * Sweeps the tenant's VM power states into a compact table without creating a {@link ResourceStatus} per VM.
+     * @param previous the table from the previous sweep, whose VM ID instances are reused, if any
+     * @return the current power state of every live VM
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public @Nonnull VMStatusTable getVirtualMachineStatusTable(@Nullable VMStatusTable previous) throws InternalException, CloudException {
+        APITrace.begin(provider, LIST_VIRTUAL_MACHINE_STATUS);
+        try {
+            String resource = VirtustreamMethod.withSelect("/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", STATUS_FIELDS);
+            final VMStatusTable.Builder builder = new VMStatusTable.Builder(previous);
+
+            PagedResults.scan(provider, resource, LIST_VIRTUAL_MACHINE_STATUS, STATUS_FIELDS, new JSONScanner.FieldHandler() {
+                @Override
+                public void element(@Nonnull String[] values) {
+                    // values follow STATUS_FIELDS: VirtualMachineID, IsTemplate, IsRemoved, PowerState
+                    if (values[0] == null || "true".equals(values[1]) || "true".equals(values[2])) {
+                        return;
                     }
+                    // a VM in a state not recognised is still live, so it is kept without a state
+                    builder.add(values[0], toVmState(values[3]));
                 }
-                return list;
-            }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse JSONObject "+e.getMessage());
-            }
+            });
+            return builder.build();
         }
         finally {
             APITrace.end();
@@ -591,30 +905,20 @@ public class VirtualMachines extends AbstractVMSupport {
 
     @Nonnull
     @Override
-    public Iterable<VirtualMachine> listVirtualMachines(@Nullable VMFilterOptions options) throws InternalException, CloudException {
+    public Iterable<VirtualMachine> listVirtualMachines(@Nullable final VMFilterOptions options) throws InternalException, CloudException {
         APITrace.begin(provider, LIST_VIRTUAL_MACHINES);
         try {
-            try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
-                List<VirtualMachine> list = new ArrayList<VirtualMachine>();
-                String obj = method.getString("/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", LIST_VIRTUAL_MACHINES);
+            return new PagedResults<VirtualMachine>(provider, "/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", LIST_VIRTUAL_MACHINES, new PagedResults.Mapper<VirtualMachine>() {
+                @Override
+                public VirtualMachine map(@Nonnull JSONObject json) throws InternalException, CloudException {
+                    VirtualMachine vm = toVirtualMachine(json, true);
 
-                if (obj != null && obj.length() > 0) {
-                    JSONArray json = new JSONArray(obj);
-                    for (int i= 0; i<json.length(); i++) {
-                        VirtualMachine vm = toVirtualMachine(json.getJSONObject(i));
-
-                        if (vm != null && (options == null || options.matches(vm))) {
-                            list.add(vm);
-                        }
+                    if (vm != null && (options == null || options.matches(vm))) {
+                        return vm;
                     }
+                    return null;
                 }
-                return list;
-            }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse JSONObject "+e.getMessage());
-            }
+            });
         }
         finally {
             APITrace.end();
@@ -641,6 +945,7 @@ public class VirtualMachines extends AbstractVMSupport {
             }
         }
         finally {
+            invalidate(vmId);
             APITrace.end();
         }
     }
@@ -665,6 +970,7 @@ public class VirtualMachines extends AbstractVMSupport {
             }
         }
         finally {
+            invalidate(vmId);
             APITrace.end();
         }
     }
@@ -689,6 +995,7 @@ public class VirtualMachines extends AbstractVMSupport {
             }
         }
         finally {
+            invalidate(vmId);
             APITrace.end();
         }
     }
@@ -730,6 +1037,7 @@ public class VirtualMachines extends AbstractVMSupport {
             }
         }
         finally {
+            invalidate(vmId);
             APITrace.end();
         }
     }
@@ -754,6 +1062,7 @@ public class VirtualMachines extends AbstractVMSupport {
             }
         }
         finally {
+            invalidate(vmId);
             APITrace.end();
         }
     }
@@ -768,23 +1077,22 @@ public class VirtualMachines extends AbstractVMSupport {
         APITrace.begin(provider, TERMINATE_VM);
         try {
             VirtustreamMethod method = new VirtustreamMethod(provider);
-            VirtualMachine vm = getVirtualMachine(vmId);
-            if (!vm.getCurrentState().equals(VmState.STOPPED)) {
+            VmState state = getExistingVirtualMachineState(vmId);
+            if (!VmState.STOPPED.equals(state)) {
                 stop(vmId, true);
-                vm = getVirtualMachine(vmId);
                 long timeout = System.currentTimeMillis()+(CalendarWrapper.MINUTE * 30);
                 while (timeout > System.currentTimeMillis()) {
                     try {
                         Thread.sleep(15000L);
                     }
                     catch (InterruptedException ignore) {}
-                    vm = getVirtualMachine(vmId);
-                    if (vm.getCurrentState().equals(VmState.STOPPED)) {
+                    state = getExistingVirtualMachineState(vmId);
+                    if (VmState.STOPPED.equals(state)) {
                         break;
                     }
                 }
             }
-            if (vm.getCurrentState().equals(VmState.STOPPED)) {
+            if (VmState.STOPPED.equals(state)) {
                 String obj = method.postString("/VirtualMachine/"+vmId+"/Remove", "", TERMINATE_VM);
                 if (obj != null && obj.length() > 0) {
                     try {
@@ -799,38 +1107,121 @@ public class VirtualMachines extends AbstractVMSupport {
                     }
 
                 }
+                provider.getVolumeIndex().removeVirtualMachine(vmId);
             }
             else {
                 logger.error("Server not stopping so can't be deleted");
                 throw new CloudException("Server not stopping so can't be deleted");
             }
         }
+        finally {
+            invalidate(vmId);
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Fetches a projection of a single VM for use in polling loops, which only need a handful of fields.
+     * @param vmId the VM to fetch
+     * @return the projected VM document or <code>null</code> if it does not exist
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    private @Nullable JSONObject getVirtualMachineStatusFields(@Nonnull String vmId) throws InternalException, CloudException {
+        APITrace.begin(provider, GET_VIRTUAL_MACHINE_STATUS);
+        try {
+            VirtustreamMethod method = new VirtustreamMethod(provider);
+            String obj = method.getString(VirtustreamMethod.withSelect("/VirtualMachine/"+vmId+"?$filter=IsRemoved eq false", STATUS_FIELDS), GET_VIRTUAL_MACHINE_STATUS);
+
+            if (obj != null && obj.length() > 0) {
+                try {
+                    JSONObject json = new JSONObject(obj);
+
+                    if (json.isNull("VirtualMachineID") || json.optBoolean("IsRemoved") || json.optBoolean("IsTemplate")) {
+                        return null;
+                    }
+                    return json;
+                }
+                catch (JSONException e) {
+                    logger.error(e);
+                    throw new InternalException("Unable to parse JSON "+e.getMessage());
+                }
+            }
+            return null;
+        }
         finally {
             APITrace.end();
         }
     }
 
-    private VirtualMachine toVirtualMachine(@Nonnull JSONObject json) throws InternalException, CloudException {
+    /**
+     * @param vmId the VM to check
+     * @return the state of the VM or <code>null</code> if it does not exist or is in a state that is not recognised
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    @Nullable VmState getVirtualMachineState(@Nonnull String vmId) throws InternalException, CloudException {
+        JSONObject json = getVirtualMachineStatusFields(vmId);
+
+        if (json != null) {
+            ResourceStatus status = toStatus(json);
+
+            if (status != null) {
+                return (VmState)status.getResourceStatus();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param vmId the VM to check
+     * @return the state of the VM or <code>null</code> if it is in a state that is not recognised
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException the VM does not exist or an error occurred talking to Virtustream
+     */
+    private @Nullable VmState getExistingVirtualMachineState(@Nonnull String vmId) throws InternalException, CloudException {
+        JSONObject json = getVirtualMachineStatusFields(vmId);
+
+        if (json == null) {
+            throw new CloudException("Vm with id "+vmId+" does not exist.");
+        }
+        ResourceStatus status = toStatus(json);
+
+        return (status == null ? null : (VmState)status.getResourceStatus());
+    }
+
+    private boolean isVirtualMachinePresent(@Nonnull String vmId) throws InternalException, CloudException {
+        return (getVirtualMachineStatusFields(vmId) != null);
+    }
+
+    @Nullable VirtualMachine toVirtualMachine(@Nonnull JSONObject json) throws InternalException, CloudException {
+        return toVirtualMachine(json, false);
+    }
+
+    /**
+     * @param json the VM document
+     * @param lazy <code>true</code> to defer decoding the placement, boot time, addresses and product until one of
+     * them is read; see {@link LazyVirtualMachine}
+     * @return the VM or <code>null</code> if the document does not describe a live VM
+     * @throws InternalException the document could not be parsed
+     * @throws CloudException the document describes an invalid cloud state
+     */
+    @Nullable VirtualMachine toVirtualMachine(@Nonnull JSONObject json, boolean lazy) throws InternalException, CloudException {
         try {
-            VirtualMachine vm = new VirtualMachine();
+            String defaultRegionId = getContext().getRegionId();
+            VirtualMachine vm = (lazy ? new LazyVirtualMachine(json, defaultRegionId) : new VirtualMachine());
             vm.setClonable(false);
             vm.setImagable(false);
             vm.setPausable(true);
             vm.setPersistent(true);
             vm.setRebootable(true);
 
-            String id;
-            if (!json.isNull("VirtualMachineID"))  {
-                id = json.getString("VirtualMachineID");
-                vm.setProviderVirtualMachineId(id);
-            }
-            else {
+            String id = JSONMapping.optString(json, "VirtualMachineID");
+            if (id == null) {
                 return null;
             }
-
-            if (json.has("CustomerDefinedName") && !json.isNull("CustomerDefinedName")) {
-                vm.setName(json.getString("CustomerDefinedName"));
-            }
+            vm.setProviderVirtualMachineId(id);
+            vm.setName(JSONMapping.optString(json, "CustomerDefinedName"));
 
             //check this is indeed a vm
             boolean isTemplate = json.getBoolean("IsTemplate");
@@ -845,62 +1236,19 @@ public class VirtualMachines extends AbstractVMSupport {
                 return null;
             }
 
-            if (json.has("Description") && !json.isNull("Description")) {
-                vm.setDescription(json.getString("Description"));
-            }
+            vm.setDescription(JSONMapping.optString(json, "Description"));
+            vm.setPlatform(JSONMapping.guessPlatform(JSONMapping.optString(json, "OS")));
+            vm.setArchitecture(JSONMapping.guessArchitecture(JSONMapping.optString(json, "OSFullName")));
 
-            vm.setPlatform(Platform.guess(json.getString("OS")));
-            Architecture arch = guess(json.getString("OSFullName"));
-            vm.setArchitecture(arch);
-
-            if (json.has("TenantID") && !json.isNull("TenantID")) {
-                vm.setProviderOwnerId(json.getString("TenantID"));
-            }
-            else {
+            String tenantId = JSONMapping.optString(json, "TenantID");
+            if (tenantId == null) {
                 logger.warn("No tenant id found for "+id);
                 return null;
             }
-            String regionId = null;
-            if (json.has("RegionID") && !json.isNull("RegionID")) {
-                regionId = json.getString("RegionID");
-            }
-
-            if (json.has("Hypervisor") && !json.isNull("Hypervisor")) {
-                JSONObject hv = json.getJSONObject("Hypervisor");
-                JSONObject site = hv.getJSONObject("Site");
-                vm.setProviderDataCenterId(site.getString("SiteID"));
-                if (regionId == null || regionId.equals("0")) {
-                    //get region from hypervisor site
-                    JSONObject r = site.getJSONObject("Region");
-                    regionId = r.getString("RegionID");
-                }
-            }
-
-            if (json.has("BootTime") && !json.isNull("BootTime")) {
-                String string_date = json.getString("BootTime");
-
-                SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                try {
-                    Date d = f.parse(string_date);
-                    long milliseconds = d.getTime();
-                    vm.setLastBootTimestamp(milliseconds);
-                }
-                catch (ParseException e) {
-                    logger.warn("Trying another date format");
-                    try {
-                        f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                        Date d = f.parse(string_date);
-                        long milliseconds = d.getTime();
-                        vm.setLastBootTimestamp(milliseconds);
-                    }
-                    catch (ParseException ex) {
-                        logger.error(ex);
-                    }
-                }
-            }
+            vm.setProviderOwnerId(StringInterner.intern(tenantId));
 
-            if (json.has("PowerState") && !json.isNull("PowerState"))  {
-                String state = json.getString("PowerState");
+            String state = JSONMapping.optString(json, "PowerState");
+            if (state != null)  {
                 if (state.equalsIgnoreCase("poweredoff")) {
                     vm.setCurrentState(VmState.STOPPED);
                     vm.setImagable(true);
@@ -917,49 +1265,22 @@ public class VirtualMachines extends AbstractVMSupport {
                 }
             }
 
-            if (json.has("Nics") && !json.isNull("Nics")) {
-                JSONArray nics = json.getJSONArray("Nics");
+            JSONArray nics = json.optJSONArray("Nics");
+            if (nics != null) {
                 JSONObject nic = nics.getJSONObject(0);
-                if (nic.has("NetworkID") && !nic.isNull("NetworkID")) {
-                    vm.setProviderVlanId(nic.getString("NetworkID"));
-                }
-                if (nic.has("VirtualMachineNicID") && !nic.isNull("VirtualMachineNicID")) {
-                    vm.setTag("VirtualMachineNicID", nic.getString("VirtualMachineNicID"));
-                }
-            }
-
-            if (json.has("IPAddress") && !json.isNull("IPAddress")) {
-                String addr = json.getString("IPAddress");
-                boolean isPub = isPublicAddress(addr);
-                if( isPub ) {
-                    vm.setPublicAddresses(new RawAddress(addr));
-                    if( vm.getPublicDnsAddress() == null ) {
-                        vm.setPublicDnsAddress(addr);
-                    }
+                String networkId = JSONMapping.optString(nic, "NetworkID");
+                if (networkId != null) {
+                    vm.setProviderVlanId(StringInterner.intern(networkId));
                 }
-                else {
-                    vm.setPrivateAddresses(new RawAddress(addr));
-                    if( vm.getPrivateDnsAddress() == null ) {
-                        vm.setPrivateDnsAddress(addr);
-                    }
+                String nicId = JSONMapping.optString(nic, "VirtualMachineNicID");
+                if (nicId != null) {
+                    vm.setTag("VirtualMachineNicID", nicId);
                 }
             }
 
-            String cpuCount, ramAllocatedMB;
-            cpuCount = json.getString("NumCpu");
-            ramAllocatedMB = json.getString("RamAllocatedMB");
-            vm.setProductId(ramAllocatedMB + ":" + cpuCount);
-
-            String resourcePoolID = json.getString("ResourcePoolID");
+            String resourcePoolID = StringInterner.intern(json.getString("ResourcePoolID"));
             vm.setTag("ResourcePoolID", resourcePoolID);
 
-            if (regionId == null) {
-                logger.warn("Unable to find region id for virtual machine "+id);
-                regionId = getContext().getRegionId();
-            }
-
-            vm.setProviderRegionId(regionId);
-
             if (vm.getName() == null) {
                 vm.setName(vm.getProviderVirtualMachineId());
             }
@@ -967,6 +1288,9 @@ public class VirtualMachines extends AbstractVMSupport {
                 vm.setDescription(vm.getName());
             }
 
+            if (!lazy) {
+                decodeDetails(json, vm, defaultRegionId);
+            }
             return vm;
         }
         catch (JSONException e) {
@@ -975,67 +1299,115 @@ public class VirtualMachines extends AbstractVMSupport {
         }
     }
 
-    private ResourceStatus toStatus(@Nonnull JSONObject node) throws InternalException, CloudException {
-        try {
-            String id = node.getString("VirtualMachineID");
-            boolean isTemplate = node.getBoolean("IsTemplate");
+    /**
+     * Decodes the VM fields that {@link LazyVirtualMachine} defers: data center, region, boot time, addresses and
+     * product.
+     */
+    static void decodeDetails(@Nonnull JSONObject json, @Nonnull VirtualMachine vm, @Nullable String defaultRegionId) throws JSONException {
+        String regionId = StringInterner.intern(JSONMapping.optString(json, "RegionID"));
+
+        JSONObject hv = JSONMapping.optObject(json, "Hypervisor");
+        if (hv != null) {
+            JSONObject site = hv.getJSONObject("Site");
+            vm.setProviderDataCenterId(StringInterner.intern(site.getString("SiteID")));
+            if (regionId == null || regionId.equals("0")) {
+                //get region from hypervisor site
+                JSONObject r = site.getJSONObject("Region");
+                regionId = StringInterner.intern(r.getString("RegionID"));
+            }
+        }
 
-            if (id == null || isTemplate) {
-                return null;
+        String bootTime = JSONMapping.optString(json, "BootTime");
+        if (bootTime != null) {
+            long milliseconds = JSONMapping.parseTimestamp(bootTime);
+            if (milliseconds >= 0) {
+                vm.setLastBootTimestamp(milliseconds);
             }
-            String state;
-            VmState vmState = null;
-            if (node.has("PowerState") && !node.isNull("PowerState")) {
-                state = node.getString("PowerState");
-                if (state.equalsIgnoreCase("poweredoff")) {
-                    vmState = VmState.STOPPED;
-                }
-                else if (state.equalsIgnoreCase("poweredon")) {
-                    vmState = VmState.RUNNING;
-                }
-                else if (state.equalsIgnoreCase("suspended")) {
-                    vmState = VmState.SUSPENDED;
-                }
-                else {
-                    logger.warn("Unknown state "+state);
-                }
+            else {
+                logger.error("Unable to parse boot time "+bootTime+" for vm "+vm.getProviderVirtualMachineId());
             }
-            if (vmState != null) {
-                return new ResourceStatus(id, vmState);
+        }
+
+        String addr = JSONMapping.optString(json, "IPAddress");
+        if (addr != null) {
+            boolean isPub = isPublicAddress(addr);
+            if( isPub ) {
+                vm.setPublicAddresses(new RawAddress(addr));
+                vm.setPublicDnsAddress(addr);
+            }
+            else {
+                vm.setPrivateAddresses(new RawAddress(addr));
+                vm.setPrivateDnsAddress(addr);
             }
-            return null;
         }
-        catch (JSONException e) {
-            logger.error(e);
-            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+
+        String cpuCount, ramAllocatedMB;
+        cpuCount = json.getString("NumCpu");
+        ramAllocatedMB = json.getString("RamAllocatedMB");
+        vm.setProductId(StringInterner.intern(ramAllocatedMB + ":" + cpuCount));
+
+        if (regionId == null) {
+            logger.warn("Unable to find region id for virtual machine "+vm.getProviderVirtualMachineId());
+            regionId = defaultRegionId;
         }
+
+        vm.setProviderRegionId(regionId);
     }
 
-    private Architecture guess(String desc) {
-        Architecture arch = Architecture.I64;
+    /**
+     * Reads just the data center of a listing entry, as {@link #decodeDetails} would set it.
+     * @return the data center, or <code>null</code> if the entry names no hypervisor
+     */
+    static @Nullable String decodeDataCenterId(@Nonnull JSONObject json) throws JSONException {
+        JSONObject hv = JSONMapping.optObject(json, "Hypervisor");
+
+        return (hv == null ? null : StringInterner.intern(hv.getJSONObject("Site").getString("SiteID")));
+    }
 
-        if( desc.contains("x64") ) {
-            arch = Architecture.I64;
+    static private @Nullable VmState toVmState(@Nullable String state) {
+        if (state == null) {
+            return null;
         }
-        else if( desc.contains("x32") ) {
-            arch = Architecture.I32;
+        if (state.equalsIgnoreCase("poweredoff")) {
+            return VmState.STOPPED;
         }
-        else if( desc.contains("64 bit") ) {
-            arch = Architecture.I64;
+        else if (state.equalsIgnoreCase("poweredon")) {
+            return VmState.RUNNING;
         }
-        else if( desc.contains("32 bit") ) {
-            arch = Architecture.I32;
+        else if (state.equalsIgnoreCase("suspended")) {
+            return VmState.SUSPENDED;
         }
-        else if( desc.contains("i386") ) {
-            arch = Architecture.I32;
+        logger.warn("Unknown state "+state);
+        return null;
+    }
+
+    private ResourceStatus toStatus(@Nonnull JSONObject node) throws InternalException, CloudException {
+        VmState vmState = toVmState(node);
+
+        if (vmState != null) {
+            return new ResourceStatus(node.optString("VirtualMachineID"), vmState);
         }
-        else if( desc.contains("64") ) {
-            arch = Architecture.I64;
+        return null;
+    }
+
+    private @Nullable VmState toVmState(@Nonnull JSONObject node) throws InternalException, CloudException {
+        try {
+            String id = node.getString("VirtualMachineID");
+            boolean isTemplate = node.getBoolean("IsTemplate");
+
+            if (id == null || isTemplate) {
+                return null;
+            }
+            VmState vmState = null;
+            if (node.has("PowerState") && !node.isNull("PowerState")) {
+                vmState = toVmState(node.getString("PowerState"));
+            }
+            return vmState;
         }
-        else if( desc.contains("32") ) {
-            arch = Architecture.I32;
+        catch (JSONException e) {
+            logger.error(e);
+            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
         }
-        return arch;
     }
 
     private transient String storageComputeId;
@@ -1065,14 +1437,6 @@ public class VirtualMachines extends AbstractVMSupport {
                             }
                         }
 
-                        JSONArray computeIds = json.getJSONArray("ComputeResourceIDs");
-                        for (int j = 0; j < computeIds.length(); j++) {
-                            String computeID = computeIds.getString(j);
-                            if (computeID.equals(storageComputeId)) {
-                                found = true;
-                                break;
-                            }
-                        }
                         // as long as the storage has enough free space we can use it
                         if (capacityKB <= freeSpaceKB && found) {
                                 map.put(id, percentFree);
@@ -1140,7 +1504,7 @@ public class VirtualMachines extends AbstractVMSupport {
         }
     }
 
-    private boolean isPublicAddress(@Nonnull String addr) {
+    static private boolean isPublicAddress(@Nonnull String addr) {
         if( !addr.startsWith("10.") && !addr.startsWith("192.168.") ) {
             if( addr.startsWith("172.") ) {
                 String[] nums = addr.split("\\.");
@@ -1172,15 +1536,8 @@ public class VirtualMachines extends AbstractVMSupport {
         APITrace.begin(provider, "getNetworkComputeResourceID");
         try {
             Networks services = provider.getNetworkServices().getVlanSupport();
-            VLAN vlan = services.getVlan(networkId);
-            int length = Integer.parseInt(vlan.getTag("numComputeIds"));
-            List<String> list = new ArrayList<String>();
-            for (int i = 0; i<length; i++) {
-               String tag = "computeResourceID"+i;
-               list.add(vlan.getTag(tag));
-            }
-            return list;
 
+            return services.getComputeResourceIds(networkId);
         }
         finally {
             APITrace.end();
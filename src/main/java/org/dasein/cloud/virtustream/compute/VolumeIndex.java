@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.compute.Volume;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps Virtustream disk IDs to the VMs they belong to. Volumes only exist as disks of a VM, so knowing the owner
+ * turns a volume lookup into a single VM fetch instead of a listing of the whole tenant. The index is rebuilt from
+ * every full volume listing and kept current from individual VM documents as they are read; entries that turn out
+ * to be stale are corrected by the next lookup that trips over them.
+ */
+public class VolumeIndex {
+    private final Map<String,String>      vmByDisk   = new HashMap<String, String>();
+    private final Map<String,Set<String>> disksByVm  = new HashMap<String, Set<String>>();
+
+    /**
+     * @param diskId the disk to look up
+     * @return the ID of the VM last seen owning the disk, or <code>null</code> if it is not indexed
+     */
+    public synchronized @Nullable String getVirtualMachineId(@Nonnull String diskId) {
+        return vmByDisk.get(diskId);
+    }
+
+    /**
+     * @return the number of disks indexed
+     */
+    public synchronized int size() {
+        return vmByDisk.size();
+    }
+
+    /**
+     * Replaces the index with the disks from a full listing.
+     * @param volumes every volume in the tenant
+     */
+    public synchronized void rebuild(@Nonnull Iterable<Volume> volumes) {
+        vmByDisk.clear();
+        disksByVm.clear();
+        for (Volume volume : volumes) {
+            add(volume.getProviderVirtualMachineId(), volume.getProviderVolumeId());
+        }
+    }
+
+    /**
+     * Replaces the disks indexed for one VM with those from a fresh copy of its document.
+     * @param vmId the VM
+     * @param volumes the VM's current disks
+     */
+    public synchronized void update(@Nonnull String vmId, @Nonnull Iterable<Volume> volumes) {
+        removeVirtualMachine(vmId);
+        for (Volume volume : volumes) {
+            add(vmId, volume.getProviderVolumeId());
+        }
+    }
+
+    /**
+     * @param diskId a disk that no longer exists
+     */
+    public synchronized void remove(@Nonnull String diskId) {
+        String vmId = vmByDisk.remove(diskId);
+
+        if (vmId != null) {
+            Set<String> disks = disksByVm.get(vmId);
+
+            if (disks != null) {
+                disks.remove(diskId);
+                if (disks.isEmpty()) {
+                    disksByVm.remove(vmId);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param vmId a VM whose disks should be forgotten
+     */
+    public synchronized void removeVirtualMachine(@Nonnull String vmId) {
+        Set<String> disks = disksByVm.remove(vmId);
+
+        if (disks != null) {
+            for (String diskId : disks) {
+                vmByDisk.remove(diskId);
+            }
+        }
+    }
+
+    private void add(@Nullable String vmId, @Nullable String diskId) {
+        if (vmId == null || diskId == null) {
+            return;
+        }
+        String previous = vmByDisk.put(diskId, vmId);
+
+        if (previous != null && !previous.equals(vmId)) {
+            Set<String> disks = disksByVm.get(previous);
+
+            if (disks != null) {
+                disks.remove(diskId);
+                if (disks.isEmpty()) {
+                    disksByVm.remove(previous);
+                }
+            }
+        }
+        Set<String> disks = disksByVm.get(vmId);
+
+        if (disks == null) {
+            disks = new HashSet<String>();
+            disksByVm.put(vmId, disks);
+        }
+        disks.add(diskId);
+    }
+}
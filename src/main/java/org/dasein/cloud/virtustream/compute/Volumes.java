@@ -29,6 +29,11 @@ import org.dasein.cloud.dc.DataCenter;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.Cache;
 import org.dasein.cloud.util.CacheLevel;
+import org.dasein.cloud.virtustream.ConcurrentRequests;
+import org.dasein.cloud.virtustream.JSONMapping;
+import org.dasein.cloud.virtustream.PagedResults;
+import org.dasein.cloud.virtustream.ParallelMapping;
+import org.dasein.cloud.virtustream.StringInterner;
 import org.dasein.cloud.virtustream.Virtustream;
 import org.dasein.cloud.virtustream.VirtustreamMethod;
 import org.dasein.util.CalendarWrapper;
@@ -73,105 +78,141 @@ public class Volumes extends AbstractVolumeSupport {
     public String createVolume(@Nonnull VolumeCreateOptions options) throws InternalException, CloudException {
         APITrace.begin(provider, "Volumes.createVolume");
         try {
-            if (!options.getFormat().equals(VolumeFormat.BLOCK)) {
-                throw new OperationNotSupportedException("Only block volume creation supported in "+provider.getCloudName());
-            }
-            if (options.getSnapshotId() != null) {
-                throw new OperationNotSupportedException("Creating volumes from snapshots not supported in "+provider.getCloudName());
-            }
             if (options.getProviderVirtualMachineId() == null) {
                 throw new CloudException("Volumes can only be created in the context of vms in "+provider.getCloudName()+". VM is null");
             }
+            return createVolumes(options.getProviderVirtualMachineId(), Collections.singletonList(options)).get(0);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Adds several disks to one VM. Virtustream adds one disk per AddDisk request, and each one reconfigures the
+     * VM, so they are made one at a time: the next disk is only requested once the previous task has finished.
+     * Each new disk is the one the AddDisk task result names, checked against the VM as re-read after the task; see
+     * {@link #identifyNewDisk}.
+     * @param vmId the VM to add the disks to
+     * @param options the disks to add; any VM named in them is ignored
+     * @return the IDs of the new disks, in the order of the options
+     * @throws InternalException the responses could not be parsed
+     * @throws CloudException the VM does not exist, an option is not supported or a disk could not be added
+     */
+    public @Nonnull List<String> createVolumes(@Nonnull String vmId, @Nonnull List<VolumeCreateOptions> options) throws InternalException, CloudException {
+        APITrace.begin(provider, "Volumes.createVolumes");
+        try {
+            for (VolumeCreateOptions option : options) {
+                if (!option.getFormat().equals(VolumeFormat.BLOCK)) {
+                    throw new OperationNotSupportedException("Only block volume creation supported in "+provider.getCloudName());
+                }
+                if (option.getSnapshotId() != null) {
+                    throw new OperationNotSupportedException("Creating volumes from snapshots not supported in "+provider.getCloudName());
+                }
+            }
             VirtustreamMethod method = new VirtustreamMethod(provider);
-            String vmId = options.getProviderVirtualMachineId();
             VirtualMachines support = provider.getComputeServices().getVirtualMachineSupport();
-            VirtualMachine vm = support.getVirtualMachine(vmId);
+            JSONObject vmJson = support.getVirtualMachineDocument(vmId, false);
+            if (vmJson == null) {
+                throw new CloudException("No such virtual machine: "+vmId);
+            }
+            VirtualMachine vm = support.toVirtualMachine(vmJson);
             String dataCenterID = vm.getProviderDataCenterId();
             DataCenter dc = provider.getDataCenterServices().getDataCenter(dataCenterID);
 
-            //get existing disks
-            String vmObj = method.getString("/VirtualMachine/"+vmId+"?$filter=IsRemoved eq false", "Volume.getVirtualMachine");
-            List<String> diskIds = new ArrayList<String>();
-            if (vmObj != null && vmObj.length() > 0) {
-                try {
-                    JSONObject json = new JSONObject(vmObj);
-                    JSONArray disks = json.getJSONArray("Disks");
-                    for (int j=0; j<disks.length(); j++) {
-                        JSONObject diskJson = disks.getJSONObject(j);
-
-                        diskIds.add(diskJson.getString("VirtualMachineDiskID"));
-                    }
-                }
-                catch (JSONException e) {
-                    logger.error(e);
-                    throw new InternalException("Unable to parse JSON "+e.getMessage());
-                }
+            //get existing disks from the same document
+            Set<String> diskIds = new HashSet<String>();
+            for (Volume volume : toVolumes(vmJson)) {
+                diskIds.add(volume.getProviderVolumeId());
             }
 
-            Storage<Gigabyte> size = options.getVolumeSize();
-            Storage<Kilobyte> capacity = (Storage<Kilobyte>)size.convertTo(Storage.KILOBYTE);
-            long capacityKB = capacity.longValue();
-
-            //find a suitable storage location for the hard disk based on the vms resource pool id
+            //find a suitable storage location for the hard disks based on the vms resource pool id
             storageComputeId = getComputeIDFromResourcePool(vm.getTag("ResourcePoolID").toString());
-            String storageId = findAvailableStorage(capacityKB, dc);
-            if (storageId == null) {
-                logger.error("No available storage resource in datacenter "+dc.getName());
-                throw new CloudException("No available storage resource in datacenter "+dc.getName());
-            }
 
-            //add new disk
-            JSONObject disk = new JSONObject();
+            //add the new disks one at a time, each on the VM as the previous one left it
+            List<String> created = new ArrayList<String>();
+            boolean refreshed = false;
             try {
-                disk.put("StorageID", storageId);
-                disk.put("CapacityKB", capacityKB);
-                disk.put("VirtualMachineID", vmId);
+                for (VolumeCreateOptions option : options) {
+                    Storage<Gigabyte> size = option.getVolumeSize();
+                    Storage<Kilobyte> capacity = (Storage<Kilobyte>)size.convertTo(Storage.KILOBYTE);
+                    long capacityKB = capacity.longValue();
+
+                    String storageId = findAvailableStorage(capacityKB, dc);
+                    if (storageId == null) {
+                        logger.error("No available storage resource in datacenter "+dc.getName());
+                        throw new CloudException("No available storage resource in datacenter "+dc.getName());
+                    }
+                    JSONObject disk = new JSONObject();
+                    disk.put("StorageID", storageId);
+                    disk.put("CapacityKB", capacityKB);
+                    disk.put("VirtualMachineID", vmId);
+
+                    refreshed = false;
+                    String obj = method.postString("VirtualMachine/AddDisk", disk.toString(), "Volume.createVolume");
+                    String taskId = (obj != null && obj.length() > 0 ? provider.getTaskId(new JSONObject(obj)) : null);
+                    String result = null;
+                    if (taskId != null) {
+                        result = provider.waitForTaskCompletion(taskId);
+                    }
+
+                    // re-reading the VM also replaces its cached document
+                    support.invalidate(vmId);
+                    JSONObject json = support.getVirtualMachineDocument(vmId, true);
+                    refreshed = true;
+                    if (json == null) {
+                        throw new CloudException("Can't find new volume");
+                    }
+                    List<Volume> volumes = toVolumes(json);
+                    provider.getVolumeIndex().update(vmId, volumes);
+
+                    Set<String> current = new LinkedHashSet<String>();
+                    for (Volume volume : volumes) {
+                        current.add(volume.getProviderVolumeId());
+                    }
+                    created.add(identifyNewDisk(result, diskIds, current));
+                    diskIds = current;
+                }
+                return created;
             }
             catch (JSONException e) {
                 logger.error(e);
                 throw new InternalException("Unable to parse JSON "+e.getMessage());
             }
-            String obj = method.postString("VirtualMachine/AddDisk", disk.toString(), "Volume.createVolume");
-            if (obj != null && obj.length() > 0) {
-                try {
-                    JSONObject response = new JSONObject(obj);
-                    provider.parseTaskId(response);
-                    vmObj = method.getString("/VirtualMachine/"+vmId+"?$filter=IsRemoved eq false", "Volume.getVirtualMachine");
-
-                    if (vmObj != null && vmObj.length() > 0) {
-                        try {
-                            JSONObject json = new JSONObject(vmObj);
-                            JSONArray disks = json.getJSONArray("Disks");
-                            for (int j=0; j<disks.length(); j++) {
-                                JSONObject diskJson = disks.getJSONObject(j);
-
-                                String diskId = diskJson.getString("VirtualMachineDiskID");
-                                if (!diskIds.contains(diskId)) {
-                                    Volume vol = getVolume(diskId);
-                                    if (vol != null) {
-                                        return diskId;
-                                    }
-                                }
-                            }
-                        }
-                        catch (JSONException e) {
-                            logger.error(e);
-                            throw new InternalException("Unable to parse JSON "+e.getMessage());
-                        }
-                    }
-                }
-                catch (JSONException e) {
-                    logger.error(e);
-                    throw new InternalException("Unable to parse JSON "+e.getMessage());
+            finally {
+                if (!refreshed) {
+                    support.invalidate(vmId);
                 }
             }
-            throw new CloudException("Can't find new volume");
         }
         finally {
             APITrace.end();
         }
     }
 
+    /**
+     * Identifies the disk an AddDisk task created. The task result names the new disk, and is used as long as that
+     * disk is on the VM and was not there before. A result that does not check out, for example when Virtustream
+     * lost the task, falls back to the one disk that appeared on the VM since the previous read.
+     * @param taskResult the result of the AddDisk task, if any
+     * @param before the VM's disks before the disk was added
+     * @param after the VM's disks once the task finished
+     * @return the ID of the new disk
+     * @throws CloudException no new disk is on the VM, or several appeared and the task result names none of them
+     */
+    static @Nonnull String identifyNewDisk(@Nullable String taskResult, @Nonnull Set<String> before, @Nonnull Set<String> after) throws CloudException {
+        if (taskResult != null && after.contains(taskResult) && !before.contains(taskResult)) {
+            return taskResult;
+        }
+        Set<String> added = new LinkedHashSet<String>(after);
+
+        added.removeAll(before);
+        if (added.size() == 1) {
+            return added.iterator().next();
+        }
+        throw new CloudException(added.isEmpty() ? "Can't find new volume" : "Can't tell which of the disks " + added + " is the new volume");
+    }
+
     @Nullable
     @Override
     public Storage<Gigabyte> getMaximumVolumeSize() throws InternalException, CloudException {
@@ -190,11 +231,45 @@ public class Volumes extends AbstractVolumeSupport {
         return "Disk";
     }
 
+    /**
+     * Looks a volume up through the provider's {@link VolumeIndex}. A disk whose owner is indexed costs at most one
+     * fetch of that VM (none if the VM document is cached). Only a disk that is not indexed, or no longer on the VM
+     * the index names, falls back to a full listing, which also rebuilds the index.
+     * @param volumeId the disk to look up
+     * @return the volume or <code>null</code> if no VM has the disk
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
     @Override
     public Volume getVolume(@Nonnull String volumeId) throws InternalException, CloudException {
         APITrace.begin(provider, GET_VOLUMES);
         try {
-            return super.getVolume(volumeId);
+            VolumeIndex index = provider.getVolumeIndex();
+            String vmId = index.getVirtualMachineId(volumeId);
+
+            if (vmId != null) {
+                JSONObject json = provider.getComputeServices().getVirtualMachineSupport().getVirtualMachineDocument(vmId, false);
+
+                if (json == null) {
+                    index.removeVirtualMachine(vmId);
+                }
+                else {
+                    List<Volume> volumes = toVolumes(json);
+
+                    index.update(vmId, volumes);
+                    for (Volume volume : volumes) {
+                        if (volumeId.equals(volume.getProviderVolumeId())) {
+                            return volume;
+                        }
+                    }
+                }
+            }
+            for (Volume volume : listVolumes()) {
+                if (volumeId.equals(volume.getProviderVolumeId())) {
+                    return volume;
+                }
+            }
+            return null;
         }
         finally {
             APITrace.end();
@@ -252,26 +327,22 @@ public class Volumes extends AbstractVolumeSupport {
         APITrace.begin(provider, LIST_VOLUME_STATUS);
         try {
             try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
                 ArrayList<ResourceStatus> list = new ArrayList<ResourceStatus>();
+                JSONArray array = provider.getVirtualMachineSnapshot().get();
 
-                String obj = method.getString("/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", LIST_VOLUMES);
-                if (obj != null && obj.length() > 0) {
-                    JSONArray array = new JSONArray(obj);
-                    for (int i=0; i<array.length(); i++) {
-                        JSONObject json = array.getJSONObject(i);
+                for (int i=0; i<array.length(); i++) {
+                    JSONObject json = array.getJSONObject(i);
 
-                        if (json.isNull("Disks")) {
-                            continue;
-                        }
-                        JSONArray disks = json.getJSONArray("Disks");
-                        for (int j=0; j<disks.length(); j++) {
-                            JSONObject diskJson = disks.getJSONObject(j);
+                    if (json.isNull("Disks")) {
+                        continue;
+                    }
+                    JSONArray disks = json.getJSONArray("Disks");
+                    for (int j=0; j<disks.length(); j++) {
+                        JSONObject diskJson = disks.getJSONObject(j);
 
-                            String id = diskJson.getString("VirtualMachineDiskID");
-                            ResourceStatus status = new ResourceStatus(id, VolumeState.AVAILABLE);
-                            list.add(status);
-                        }
+                        String id = diskJson.getString("VirtualMachineDiskID");
+                        ResourceStatus status = new ResourceStatus(id, VolumeState.AVAILABLE);
+                        list.add(status);
                     }
                 }
                 return list;
@@ -292,49 +363,30 @@ public class Volumes extends AbstractVolumeSupport {
         return listVolumes(null);
     }
 
-    transient String vmID = null;
-    transient String dataCenterID = null;
-    transient String regionID = null;
-    transient Platform platfrom = null;
     @Nonnull
     @Override
     public Iterable<Volume> listVolumes(@Nullable VolumeFilterOptions options) throws InternalException, CloudException {
         APITrace.begin(provider, LIST_VOLUMES);
         try {
-            try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
-                ArrayList<Volume> list = new ArrayList<Volume>();
-
-                String obj = method.getString("/VirtualMachine?$filter=IsTemplate eq false and IsRemoved eq false", LIST_VOLUMES);
-                if (obj != null && obj.length() > 0) {
-                    JSONArray array = new JSONArray(obj);
-                    for (int i=0; i<array.length(); i++) {
-                        JSONObject json = array.getJSONObject(i);
-
-                        //parse out vm info
-                        parseVMData(json);
-
-                        if (json.isNull("Disks")) {
-                            continue;
-                        }
-                        JSONArray disks = json.getJSONArray("Disks");
-                        for (int j=0; j<disks.length(); j++) {
-                            JSONObject diskJson = disks.getJSONObject(j);
-
-                            // create Volume object
-                            Volume volume = toVolume(vmID, platfrom, regionID, dataCenterID, diskJson);
-                            if (volume != null && (options == null || options.matches(volume))) {
-                                list.add(volume);
-                            }
-                        }
-                    }
+            ArrayList<Volume> list = new ArrayList<Volume>();
+            List<List<Volume>> perVm = ParallelMapping.map(provider, provider.getVirtualMachineSnapshot().get(), new PagedResults.Mapper<List<Volume>>() {
+                @Override
+                public List<Volume> map(@Nonnull JSONObject json) throws InternalException, CloudException {
+                    return toVolumes(json);
                 }
-                return list;
+            });
+            List<Volume> all = new ArrayList<Volume>();
+
+            for (List<Volume> volumes : perVm) {
+                all.addAll(volumes);
             }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+            provider.getVolumeIndex().rebuild(all);
+            for (Volume volume : all) {
+                if (options == null || options.matches(volume)) {
+                    list.add(volume);
+                }
             }
+            return list;
         }
         finally {
             APITrace.end();
@@ -357,57 +409,221 @@ public class Volumes extends AbstractVolumeSupport {
     public void remove(@Nonnull String volumeId) throws InternalException, CloudException {
         APITrace.begin(provider, REMOVE_VOLUMES);
         try {
+            Volume vol =  getVolume(volumeId);
+            if (vol != null) {
+                String vmID = vol.getProviderVirtualMachineId();
+
+                try {
+                    removeDisk(new VirtustreamMethod(provider), vmID, volumeId);
+                    provider.getVolumeIndex().remove(volumeId);
+                }
+                finally {
+                    provider.getComputeServices().getVirtualMachineSupport().invalidate(vmID);
+                }
+            }
+            else {
+                throw new CloudException("Cannot find volume with id "+volumeId);
+            }
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Removes several volumes at once. Their owning VMs are resolved from the volume index, with at most one
+     * listing for any the index does not know. Up to <code>volumeRemovalConcurrency</code> (a custom property,
+     * default 4) VMs are changed at once. Each RemoveDisk reconfigures its VM, so the disks of one VM are removed one
+     * at a time, each after the task of the one before has finished. A disk that cannot be removed does not stop the
+     * others; once every VM is done, the disks that were removed are out of the volume index and the failures are
+     * reported together.
+     * @param volumeIds the volumes to remove
+     * @throws InternalException a response could not be parsed
+     * @throws CloudException a volume does not exist or could not be removed; nothing is removed if a volume does
+     * not exist; see {@link #throwFailures} for how several failures are reported
+     */
+    public void removeVolumes(@Nonnull Collection<String> volumeIds) throws InternalException, CloudException {
+        APITrace.begin(provider, "Volume.removeVolumes");
+        try {
+            VolumeIndex index = provider.getVolumeIndex();
+            Map<String,List<String>> disksByVm = new LinkedHashMap<String, List<String>>();
+            boolean listed = false;
+
+            for (String volumeId : new LinkedHashSet<String>(volumeIds)) {
+                String vmId = index.getVirtualMachineId(volumeId);
+
+                if (vmId == null && !listed) {
+                    listVolumes();
+                    listed = true;
+                    vmId = index.getVirtualMachineId(volumeId);
+                }
+                if (vmId == null) {
+                    throw new CloudException("Cannot find volume with id "+volumeId);
+                }
+                List<String> disks = disksByVm.get(vmId);
+                if (disks == null) {
+                    disks = new ArrayList<String>();
+                    disksByVm.put(vmId, disks);
+                }
+                disks.add(volumeId);
+            }
+            List<ConcurrentRequests.Request<Void>> requests = new ArrayList<ConcurrentRequests.Request<Void>>();
+            // each VM's worker records the disks it could not remove
+            final Map<String,Exception> failures = Collections.synchronizedMap(new HashMap<String, Exception>());
+
+            for (final Map.Entry<String,List<String>> entry : disksByVm.entrySet()) {
+                requests.add(new ConcurrentRequests.Request<Void>() {
+                    @Override
+                    public Void call() throws InternalException, CloudException {
+                        removeDisks(entry.getKey(), entry.getValue(), failures);
+                        return null;
+                    }
+                });
+            }
+            int limit = ConcurrentRequests.getConfiguredLimit(provider, "volumeRemovalConcurrency", 4);
+
+            Map<String,Exception> failed = new LinkedHashMap<String, Exception>();
+
             try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
-                JSONObject json = new JSONObject();
-                json.put("VirtualMachineDiskID", volumeId);
-
-                Volume vol =  getVolume(volumeId);
-                if (vol != null) {
-                    String vmID = vol.getProviderVirtualMachineId();
-                    json.put("VirtualMachineID", vmID);
-
-                    String body = json.toString();
-                    String obj = method.postString("/VirtualMachine/RemoveDisk", body, REMOVE_VOLUMES);
-                    if (obj != null && obj.length() > 0) {
-                        JSONObject response = new JSONObject(obj);
-                        if (provider.parseTaskId(response) == null) {
-                            logger.warn("No confirmation of RemoveVolume task completion but no error either");
+                Object[] slots = ConcurrentRequests.runSlots(requests, limit, 0L);
+                int i = 0;
+
+                for (List<String> disks : disksByVm.values()) {
+                    for (String volumeId : disks) {
+                        Exception failure = failures.get(volumeId);
+
+                        // a worker that failed outright never got to the disks still in the index
+                        if (failure == null && slots[i] instanceof Exception && index.getVirtualMachineId(volumeId) != null) {
+                            failure = (Exception)slots[i];
+                        }
+                        if (failure != null) {
+                            failed.put(volumeId, failure);
                         }
                     }
-                }
-                else {
-                    throw new CloudException("Cannot find volume with id "+volumeId);
+                    i++;
                 }
             }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+            finally {
+                VirtualMachines support = provider.getComputeServices().getVirtualMachineSupport();
+
+                for (String vmId : disksByVm.keySet()) {
+                    support.invalidate(vmId);
+                }
             }
+            throwFailures(failed);
         }
         finally {
             APITrace.end();
         }
     }
 
-    private void parseVMData(JSONObject json) throws InternalException, CloudException {
+    /**
+     * Reports the disks a bulk removal could not remove. A single failure is thrown as it is. Several are summed
+     * up in one {@link CloudException} naming every failed disk and carrying the first failure's message.
+     * @param failures the failure of each disk that was not removed, in the order they were requested
+     * @throws InternalException the only failure was an internal error
+     * @throws CloudException one or more disks could not be removed
+     */
+    static void throwFailures(@Nonnull Map<String,Exception> failures) throws InternalException, CloudException {
+        if (failures.isEmpty()) {
+            return;
+        }
+        Exception first = failures.values().iterator().next();
+
+        if (failures.size() == 1) {
+            if (first instanceof InternalException) {
+                throw (InternalException)first;
+            }
+            if (first instanceof CloudException) {
+                throw (CloudException)first;
+            }
+            throw (RuntimeException)first;
+        }
+        throw new CloudException("Unable to remove volumes " + failures.keySet() + ": " + first.getMessage());
+    }
+
+    /**
+     * Removes disks from one VM one at a time, waiting on each RemoveDisk task before the next request. Each disk
+     * that is removed is taken out of the volume index.
+     * @param vmId the VM the disks are on
+     * @param volumeIds the disks to remove
+     * @param failures receives the failure of each disk that could not be removed
+     */
+    private void removeDisks(@Nonnull String vmId, @Nonnull List<String> volumeIds, @Nonnull Map<String,Exception> failures) {
+        VirtustreamMethod method = new VirtustreamMethod(provider);
+        VolumeIndex index = provider.getVolumeIndex();
+
+        for (String volumeId : volumeIds) {
+            try {
+                removeDisk(method, vmId, volumeId);
+                index.remove(volumeId);
+            }
+            catch (InternalException e) {
+                failures.put(volumeId, e);
+            }
+            catch (CloudException e) {
+                logger.error("Unable to remove volume " + volumeId + " from " + vmId + ": " + e.getMessage());
+                failures.put(volumeId, e);
+            }
+        }
+    }
+
+    private void removeDisk(@Nonnull VirtustreamMethod method, @Nonnull String vmId, @Nonnull String volumeId) throws InternalException, CloudException {
         try {
-            vmID = json.getString("VirtualMachineID");
+            JSONObject json = new JSONObject();
+            json.put("VirtualMachineDiskID", volumeId);
+            json.put("VirtualMachineID", vmId);
+
+            String obj = method.postString("/VirtualMachine/RemoveDisk", json.toString(), REMOVE_VOLUMES);
+            if (obj != null && obj.length() > 0) {
+                JSONObject response = new JSONObject(obj);
+                if (provider.parseTaskId(response) == null) {
+                    logger.warn("No confirmation of RemoveVolume task completion but no error either");
+                }
+            }
+        }
+        catch (JSONException e) {
+            logger.error(e);
+            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+        }
+    }
+
+    @Nonnull List<Volume> toVolumes(@Nonnull JSONObject json) throws InternalException, CloudException {
+        try {
+            List<Volume> volumes = new ArrayList<Volume>();
+
+            if (json.isNull("Disks")) {
+                return volumes;
+            }
+            String vmID = json.getString("VirtualMachineID");
+            String regionID = null;
+            String dataCenterID = null;
+
             if (json.has("RegionID") && !json.isNull("RegionID")) {
-                regionID = json.getString("RegionID");
+                regionID = StringInterner.intern(json.getString("RegionID"));
             }
 
             if (json.has("Hypervisor") && !json.isNull("Hypervisor")) {
                 JSONObject hv = json.getJSONObject("Hypervisor");
                 JSONObject site = hv.getJSONObject("Site");
-                dataCenterID = site.getString("SiteID");
+                dataCenterID = StringInterner.intern(site.getString("SiteID"));
                 if (regionID == null || regionID.equals("0")) {
                     //get region from hypervisor site
                     JSONObject r = site.getJSONObject("Region");
-                    regionID = r.getString("RegionID");
+                    regionID = StringInterner.intern(r.getString("RegionID"));
+                }
+            }
+            Platform platform = JSONMapping.guessPlatform(JSONMapping.optString(json, "OS"));
+            JSONArray disks = json.getJSONArray("Disks");
+
+            for (int j=0; j<disks.length(); j++) {
+                Volume volume = toVolume(vmID, platform, regionID, dataCenterID, disks.getJSONObject(j));
+
+                if (volume != null) {
+                    volumes.add(volume);
                 }
             }
-            platfrom = Platform.guess(json.getString("OS"));
+            return volumes;
         }
         catch (JSONException e) {
             logger.error(e);
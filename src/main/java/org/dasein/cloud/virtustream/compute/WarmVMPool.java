@@ -0,0 +1,543 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.compute.VMLaunchOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.virtustream.ConcurrentRequests;
+import org.dasein.cloud.virtustream.PollingBackoff;
+import org.dasein.cloud.virtustream.Virtustream;
+import org.dasein.util.CalendarWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps powered-off VMs built ahead of time so matching launches take seconds instead of minutes. A pool is set up
+ * for each combination of template, product, VLAN and data center with {@link #setPoolSize}. A launch matching a
+ * pool is served by renaming one of its VMs and powering it on; the pool is then topped up in the background by
+ * at most <code>warmPoolBuilders</code> (a custom property, default 2) launches at once. Launches that match no
+ * pool, or find it empty, go through the normal launch.
+ * <p>
+ * Pooled VMs are ordinary VMs named <code>warm-</code> followed by a sequence number, so they show up in VM
+ * listings until they are taken. Their description names the owner of the pool manager that built them, the
+ * <code>warmPoolOwner</code> custom property or, if it is not set, an ID made up for this pool manager alone.
+ * {@link #clear()} terminates them, and so does {@link #shutdown()}, which also terminates VMs still being built
+ * once their builds finish rather than leave them behind unpooled.
+ * </p>
+ * <p>
+ * Pooled VMs with the same owner that a previous process did not get to clean up are terminated when the first
+ * pool is set up; their sequence numbers predate this pool manager, so they are told apart from its own. Only a
+ * configured owner survives a restart, so this clean-up only happens when <code>warmPoolOwner</code> is set, and
+ * then each owner's pools should be managed by one process at a time. VMs built under any other owner are never
+ * touched.
+ * </p>
+ */
+public class WarmVMPool {
+    static private final Logger logger = Virtustream.getLogger(WarmVMPool.class);
+
+    static private final long CHECK_INTERVAL = CalendarWrapper.SECOND * 30;
+
+    static private final String NAME_PREFIX = "warm-";
+    static private final String DESCRIPTION = "Pre-provisioned for warm pool ";
+
+    /**
+     * The calls a pool manager makes to Virtustream.
+     */
+    interface Machines {
+        @Nonnull Iterable<VirtualMachine> list() throws InternalException, CloudException;
+
+        @Nullable VirtualMachine launch(@Nonnull VMLaunchOptions options) throws InternalException, CloudException;
+
+        /**
+         * Renames a pooled VM after the launch it serves and powers it on.
+         * @return the VM, or <code>null</code> if it disappeared
+         */
+        @Nullable VirtualMachine takeOver(@Nonnull String vmId, @Nonnull VMLaunchOptions options) throws InternalException, CloudException;
+
+        void stop(@Nonnull String vmId) throws InternalException, CloudException;
+
+        @Nullable VmState getState(@Nonnull String vmId) throws InternalException, CloudException;
+
+        void terminate(@Nonnull String vmId, @Nonnull String explanation) throws InternalException, CloudException;
+    }
+
+    static private class VirtualMachineSupport implements Machines {
+        private final Virtustream provider;
+
+        VirtualMachineSupport(@Nonnull Virtustream provider) {
+            this.provider = provider;
+        }
+
+        private @Nonnull VirtualMachines getSupport() {
+            return provider.getComputeServices().getVirtualMachineSupport();
+        }
+
+        public @Nonnull Iterable<VirtualMachine> list() throws InternalException, CloudException {
+            return getSupport().listVirtualMachines();
+        }
+
+        public @Nullable VirtualMachine launch(@Nonnull VMLaunchOptions options) throws InternalException, CloudException {
+            return getSupport().launchNew(options);
+        }
+
+        public @Nullable VirtualMachine takeOver(@Nonnull String vmId, @Nonnull VMLaunchOptions options) throws InternalException, CloudException {
+            return getSupport().launchPooled(vmId, options);
+        }
+
+        public void stop(@Nonnull String vmId) throws InternalException, CloudException {
+            getSupport().stop(vmId, true);
+        }
+
+        public @Nullable VmState getState(@Nonnull String vmId) throws InternalException, CloudException {
+            return getSupport().getVirtualMachineState(vmId);
+        }
+
+        public void terminate(@Nonnull String vmId, @Nonnull String explanation) throws InternalException, CloudException {
+            getSupport().terminate(vmId, explanation);
+        }
+    }
+
+    /**
+     * Pool usage counters since the pool manager was created.
+     */
+    public class Metrics {
+        /**
+         * @return launches served from a pool
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * @return launches matching a pool that found it empty
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * @return the share of launches matching a pool that were served from it, or 0 before the first one
+         */
+        public double getHitRate() {
+            long h = hits.get();
+            long total = h + misses.get();
+
+            return (total == 0 ? 0.0 : ((double)h) / total);
+        }
+
+        /**
+         * @return pooled VMs built
+         */
+        public long getBuilds() {
+            return builds.get();
+        }
+
+        /**
+         * @return pooled VM builds that failed
+         */
+        public long getBuildFailures() {
+            return buildFailures.get();
+        }
+
+        /**
+         * @return the time in milliseconds between a pool falling short and the VM that made up for it being
+         * ready, for the most recent build
+         */
+        public long getLastReplenishmentLag() {
+            return lastLag.get();
+        }
+
+        /**
+         * @return the average replenishment lag in milliseconds, or 0 before the first build
+         */
+        public long getAverageReplenishmentLag() {
+            long n = builds.get();
+
+            return (n == 0 ? 0L : totalLag.get() / n);
+        }
+
+        /**
+         * @return the pooled VMs ready to be taken
+         */
+        public int getReadyCount() {
+            synchronized (WarmVMPool.this) {
+                int count = 0;
+
+                for (Pool pool : pools.values()) {
+                    count += pool.ready.size();
+                }
+                return count;
+            }
+        }
+    }
+
+    private class Pool {
+        final VMLaunchOptions    prototype;
+        final LinkedList<String> ready     = new LinkedList<String>();
+        final LinkedList<Long>   shortfall = new LinkedList<Long>();
+        int                      building  = 0;
+        int                      size;
+
+        Pool(@Nonnull VMLaunchOptions prototype, int size) {
+            this.prototype = prototype;
+            this.size = size;
+        }
+    }
+
+    private final AtomicLong         buildFailures = new AtomicLong(0L);
+    private final int                builderLimit;
+    private final AtomicLong         builds        = new AtomicLong(0L);
+    private final String             description;
+    private final AtomicLong         hits          = new AtomicLong(0L);
+    private final AtomicLong         lastLag       = new AtomicLong(0L);
+    private final Machines           machines;
+    private final Metrics            metrics       = new Metrics();
+    private final AtomicLong         misses        = new AtomicLong(0L);
+    private final Map<String,Pool>   pools         = new HashMap<String, Pool>();
+    private final long               firstSequence = System.currentTimeMillis();
+    private final AtomicLong         sequence      = new AtomicLong(firstSequence);
+    private final AtomicLong         totalLag      = new AtomicLong(0L);
+    private ScheduledExecutorService executor;
+    private ScheduledExecutorService builders;
+    private boolean                  closed        = false;
+
+    public WarmVMPool(@Nonnull Virtustream provider) {
+        this(new VirtualMachineSupport(provider), getConfiguredOwner(provider), ConcurrentRequests.getConfiguredLimit(provider, "warmPoolBuilders", 2));
+    }
+
+    WarmVMPool(@Nonnull Machines machines, @Nonnull String owner, int builderLimit) {
+        this.machines = machines;
+        this.description = DESCRIPTION + owner;
+        this.builderLimit = builderLimit;
+    }
+
+    static private @Nonnull String getConfiguredOwner(@Nonnull Virtustream provider) {
+        ProviderContext ctx = provider.getContext();
+        Properties p = (ctx == null ? null : ctx.getCustomProperties());
+        String owner = (p == null ? null : p.getProperty("warmPoolOwner"));
+
+        if (owner != null && owner.trim().length() > 0) {
+            return owner.trim();
+        }
+        return UUID.randomUUID().toString();
+    }
+
+    static private @Nonnull String getKey(@Nonnull VMLaunchOptions options) {
+        return options.getMachineImageId() + "|" + options.getStandardProductId() + "|" + options.getVlanId() + "|" + options.getDataCenterId();
+    }
+
+    public @Nonnull Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets how many powered-off VMs to keep for launches matching the given options' template, product, VLAN and
+     * data center. A size of zero stops building VMs for them; VMs already built are still used.
+     * @param prototype the launch options to build pooled VMs with
+     * @param size the number of VMs to keep ready
+     */
+    public synchronized void setPoolSize(@Nonnull VMLaunchOptions prototype, int size) {
+        String key = getKey(prototype);
+        Pool pool = pools.get(key);
+
+        if (pool == null) {
+            pool = new Pool(prototype, Math.max(0, size));
+            pools.put(key, pool);
+        }
+        else {
+            pool.size = Math.max(0, size);
+        }
+        start();
+        replenish();
+    }
+
+    /**
+     * Serves a launch from a pool if one matches and has a VM ready.
+     * @param options the launch
+     * @return the launched VM, or <code>null</code> if no pooled VM could be used
+     */
+    @Nullable VirtualMachine launch(@Nonnull VMLaunchOptions options) {
+        String vmId;
+
+        synchronized (this) {
+            Pool pool = pools.get(getKey(options));
+
+            if (pool == null || closed) {
+                return null;
+            }
+            if (pool.ready.isEmpty()) {
+                misses.incrementAndGet();
+                return null;
+            }
+            vmId = pool.ready.removeFirst();
+            pool.shortfall.addLast(System.currentTimeMillis());
+            replenish();
+        }
+        try {
+            VirtualMachine vm = machines.takeOver(vmId, options);
+
+            if (vm != null) {
+                hits.incrementAndGet();
+                return vm;
+            }
+            logger.warn("Pooled vm " + vmId + " disappeared before it could be used");
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to use pooled vm " + vmId + ": " + t.getMessage());
+            try {
+                machines.terminate(vmId, "Unusable warm pool vm");
+            }
+            catch (Throwable ignore) {
+                logger.warn("Unable to clean up pooled vm " + vmId + ": " + ignore.getMessage());
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stops building pooled VMs and terminates the ones that are ready.
+     */
+    public void clear() {
+        List<String> vmIds = new ArrayList<String>();
+
+        synchronized (this) {
+            for (Pool pool : pools.values()) {
+                vmIds.addAll(pool.ready);
+                pool.ready.clear();
+                pool.shortfall.clear();
+                pool.size = 0;
+            }
+        }
+        for (String vmId : vmIds) {
+            try {
+                machines.terminate(vmId, "Warm pool cleared");
+            }
+            catch (Throwable t) {
+                logger.warn("Unable to terminate pooled vm " + vmId + ": " + t.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stops building pooled VMs and terminates the ones that are ready. Builds already under way are left to finish
+     * and then terminate the VM they built.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            closed = true;
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            if (builders != null) {
+                // not shutdownNow(): an interrupted launch could leave a VM behind whose ID was never learned
+                builders.shutdown();
+                builders = null;
+            }
+        }
+        clear();
+    }
+
+    private void start() {
+        if (executor == null && !closed) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r, "Virtustream warm pool");
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            builders = Executors.newScheduledThreadPool(builderLimit, new ThreadFactory() {
+                public Thread newThread(@Nonnull Runnable r) {
+                    Thread t = new Thread(r, "Virtustream warm pool builder");
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.execute(new Runnable() {
+                public void run() {
+                    reap();
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    synchronized (WarmVMPool.this) {
+                        replenish();
+                    }
+                }
+            }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Terminates pooled VMs left behind by an earlier pool manager with the same owner, such as one in a process
+     * that exited without shutting its pools down.
+     */
+    void reap() {
+        try {
+            for (VirtualMachine vm : machines.list()) {
+                if (isLeftOver(vm)) {
+                    String vmId = vm.getProviderVirtualMachineId();
+
+                    try {
+                        machines.terminate(vmId, "Left over from an earlier warm pool");
+                    }
+                    catch (Throwable t) {
+                        logger.warn("Unable to terminate left over pooled vm " + vmId + ": " + t.getMessage());
+                    }
+                }
+            }
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to look for left over pooled vms: " + t.getMessage());
+        }
+    }
+
+    private boolean isLeftOver(@Nonnull VirtualMachine vm) {
+        String name = vm.getName();
+
+        if (name == null || !name.startsWith(NAME_PREFIX) || !description.equals(vm.getDescription())) {
+            return false;
+        }
+        try {
+            return (Long.parseLong(name.substring(NAME_PREFIX.length())) <= firstSequence);
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts a build for every VM a pool is short of. Must be called holding the lock.
+     */
+    private void replenish() {
+        if (builders == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+
+        for (final Pool pool : pools.values()) {
+            while (pool.ready.size() + pool.building < pool.size) {
+                if (pool.shortfall.size() < pool.size - pool.ready.size()) {
+                    // first noticed now, for example when the pool is first filled
+                    pool.shortfall.addLast(now);
+                }
+                pool.building++;
+                builders.execute(new Runnable() {
+                    public void run() {
+                        build(pool);
+                    }
+                });
+            }
+        }
+    }
+
+    private void build(@Nonnull Pool pool) {
+        String vmId = null;
+
+        synchronized (this) {
+            if (closed) {
+                pool.building--;
+                return;
+            }
+        }
+        try {
+            VMLaunchOptions options = pool.prototype;
+            VMLaunchOptions build = VMLaunchOptions.getInstance(options.getStandardProductId(), options.getMachineImageId(), NAME_PREFIX + sequence.incrementAndGet(), description);
+
+            build.inDataCenter(options.getDataCenterId());
+            build.inVlan(null, options.getDataCenterId(), options.getVlanId());
+            VirtualMachine vm = machines.launch(build);
+
+            if (vm == null) {
+                throw new CloudException("Pooled vm was launched but not found");
+            }
+            vmId = vm.getProviderVirtualMachineId();
+            if (!VmState.STOPPED.equals(vm.getCurrentState())) {
+                machines.stop(vmId);
+                awaitStopped(vmId);
+            }
+            synchronized (this) {
+                if (closed) {
+                    throw new CloudException("Warm pool was shut down while vm " + vmId + " was being built");
+                }
+                Long since = pool.shortfall.pollFirst();
+                long lag = System.currentTimeMillis() - (since == null ? System.currentTimeMillis() : since);
+
+                pool.ready.addLast(vmId);
+                pool.building--;
+                builds.incrementAndGet();
+                lastLag.set(lag);
+                totalLag.addAndGet(lag);
+            }
+        }
+        catch (Throwable t) {
+            logger.warn("Unable to build pooled vm: " + t.getMessage());
+            buildFailures.incrementAndGet();
+            synchronized (this) {
+                pool.building--;
+            }
+            if (vmId != null) {
+                try {
+                    machines.terminate(vmId, "Warm pool build failed");
+                }
+                catch (Throwable ignore) {
+                    logger.warn("Unable to clean up pooled vm " + vmId + ": " + ignore.getMessage());
+                }
+            }
+        }
+    }
+
+    private void awaitStopped(@Nonnull String vmId) throws InternalException, CloudException {
+        PollingBackoff backoff = new PollingBackoff();
+        long giveUp = System.currentTimeMillis() + CalendarWrapper.MINUTE * 30;
+
+        while (giveUp > System.currentTimeMillis()) {
+            VmState state = machines.getState(vmId);
+
+            if (VmState.STOPPED.equals(state)) {
+                return;
+            }
+            backoff.pause();
+        }
+        throw new CloudException("Pooled vm " + vmId + " did not stop");
+    }
+}
@@ -32,6 +32,9 @@ import org.dasein.cloud.network.VLAN;
 import org.dasein.cloud.network.VLANCapabilities;
 import org.dasein.cloud.network.VLANState;
 import org.dasein.cloud.util.APITrace;
+import org.dasein.cloud.virtustream.JSONMapping;
+import org.dasein.cloud.virtustream.SharedSnapshot;
+import org.dasein.cloud.virtustream.StringInterner;
 import org.dasein.cloud.virtustream.Virtustream;
 import org.dasein.cloud.virtustream.VirtustreamMethod;
 import org.json.JSONArray;
@@ -43,7 +46,10 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class Networks extends AbstractVLANSupport {
     static private final Logger logger = Logger.getLogger(Networks.class);
@@ -53,7 +59,41 @@ public class Networks extends AbstractVLANSupport {
     static private final String LIST_VLANS      =   "Network.listVlans";
     static private final String LIST_VLAN_STATUS =  "Network.listVlanStatus";
 
+    /**
+     * Fetches networks from Virtustream; the seam between the caching logic here and the REST calls.
+     */
+    interface NetworkSource {
+        /**
+         * @param vlanId the network
+         * @return the network, or <code>null</code> if it does not exist
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        @Nullable JSONObject getNetwork(@Nonnull String vlanId) throws CloudException, InternalException;
+
+        /**
+         * @return every network, with only its ID filled in
+         * @throws InternalException the response could not be parsed
+         * @throws CloudException an error occurred talking to Virtustream
+         */
+        @Nonnull JSONArray listNetworkIds() throws CloudException, InternalException;
+    }
+
     private Virtustream provider = null;
+    private final NetworkSource source = new NetworkSource() {
+        @Override
+        public @Nullable JSONObject getNetwork(@Nonnull String vlanId) throws CloudException, InternalException {
+            return getNetworkDocument(vlanId);
+        }
+
+        @Override
+        public @Nonnull JSONArray listNetworkIds() throws CloudException, InternalException {
+            VirtustreamMethod method = new VirtustreamMethod(provider);
+            String obj = method.getString(VirtustreamMethod.withSelect("/Network?$filter=IsRemoved eq false", "NetworkID"), LIST_VLAN_STATUS);
+
+            return (obj == null || obj.length() < 1 ? new JSONArray() : JSONMapping.parseArray(obj));
+        }
+    };
 
     public Networks(@Nonnull Virtustream provider) {
         super(provider);
@@ -88,24 +128,59 @@ public class Networks extends AbstractVLANSupport {
 
     @Override
     public VLAN getVlan(@Nonnull String vlanId) throws CloudException, InternalException {
+        JSONObject json = getNetworkDocument(vlanId);
+        VLAN vlan = (json == null ? null : toVlan(json));
+
+        if (vlan != null) {
+            provider.getVlanCache().put(vlan.getProviderVlanId(), toComputeResourceIds(json));
+        }
+        return vlan;
+    }
+
+    /**
+     * Looks up the compute resources a network reaches, from the VLAN cache where possible. A network that is not
+     * cached, because it is new or the cache is disabled, is fetched and its compute resources mapped from the
+     * response.
+     * @param vlanId the network
+     * @return the IDs of the compute resources the network reaches; empty if the network does not exist
+     * @throws InternalException the response could not be parsed
+     * @throws CloudException an error occurred talking to Virtustream
+     */
+    public @Nonnull List<String> getComputeResourceIds(@Nonnull String vlanId) throws CloudException, InternalException {
+        return getComputeResourceIds(provider.getVlanCache(), vlanId, source);
+    }
+
+    static @Nonnull List<String> getComputeResourceIds(@Nonnull VlanCache cache, @Nonnull String vlanId, @Nonnull NetworkSource source) throws CloudException, InternalException {
+        List<String> ids = cache.getComputeResourceIds(vlanId);
+
+        if (ids != null) {
+            return ids;
+        }
+        JSONObject json = source.getNetwork(vlanId);
+
+        if (json == null || toVlan(json) == null) {
+            return Collections.emptyList();
+        }
+        ids = toComputeResourceIds(json);
+        cache.put(vlanId, ids);
+        return ids;
+    }
+
+    private @Nullable JSONObject getNetworkDocument(@Nonnull String vlanId) throws CloudException, InternalException {
         APITrace.begin(provider, GET_NETWORK);
         try {
             try {
                 VirtustreamMethod method = new VirtustreamMethod(provider);
                 String obj = method.getString("/Network/"+vlanId+"?$filter=IsRemoved eq false", GET_NETWORK);
                 if (obj != null && obj.length() > 0) {
-                    JSONObject json = new JSONObject(obj);
-                    VLAN vlan = toVlan(json);
-                    if (vlan != null){
-                        return vlan;
-                    }
+                    return new JSONObject(obj);
                 }
+                return null;
             }
             catch (JSONException e) {
                 logger.error(e);
                 throw new InternalException("Unable to parse JSONObject "+e.getMessage());
             }
-            return null;
         }
         finally {
             APITrace.end();
@@ -167,54 +242,59 @@ public class Networks extends AbstractVLANSupport {
     public Iterable<ResourceStatus> listVlanStatus() throws CloudException, InternalException {
         APITrace.begin(provider, LIST_VLAN_STATUS);
         try {
-            try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
-                ArrayList<ResourceStatus> list = new ArrayList<ResourceStatus>();
-                String obj = method.getString("/Network?$filter=IsRemoved eq false", LIST_VLAN_STATUS);
-                if (obj != null && obj.length() > 0) {
-                    JSONArray json = new JSONArray(obj);
-                    for (int i=0; i<json.length(); i++) {
-                        JSONObject node = json.getJSONObject(i);
-
-                        if (node.has("NetworkID") && !node.isNull("NetworkID")) {
-                            String id = node.getString("NetworkID");
-                            ResourceStatus status = new ResourceStatus(id, VLANState.AVAILABLE);
-                            list.add(status);
-                        }
-                    }
-                }
-                return list;
-            }
-            catch (JSONException e) {
-                logger.error(e);
-                throw new InternalException("Unable to parse JSONObject "+e.getMessage());
-            }
+            return listVlanStatus(provider.getNetworkSnapshot(), source);
         }
         finally {
             APITrace.end();
         }
     }
 
+    static @Nonnull List<ResourceStatus> listVlanStatus(@Nonnull SharedSnapshot snapshot, @Nonnull NetworkSource source) throws CloudException, InternalException {
+        try {
+            ArrayList<ResourceStatus> list = new ArrayList<ResourceStatus>();
+            // a network listing made moments ago already has the IDs, otherwise fetch only the IDs
+            JSONArray json = snapshot.peek();
+
+            if (json == null) {
+                json = source.listNetworkIds();
+            }
+            for (int i=0; i<json.length(); i++) {
+                JSONObject node = json.getJSONObject(i);
+
+                if (node.has("NetworkID") && !node.isNull("NetworkID")) {
+                    String id = node.getString("NetworkID");
+                    ResourceStatus status = new ResourceStatus(id, VLANState.AVAILABLE);
+                    list.add(status);
+                }
+            }
+            return list;
+        }
+        catch (JSONException e) {
+            logger.error(e);
+            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+        }
+    }
+
     @Nonnull
     @Override
     public Iterable<VLAN> listVlans() throws CloudException, InternalException {
         APITrace.begin(provider, LIST_VLANS);
         try {
             try {
-                VirtustreamMethod method = new VirtustreamMethod(provider);
                 ArrayList<VLAN> list = new ArrayList<VLAN>();
-                String obj = method.getString("/Network?$filter=IsRemoved eq false", LIST_VLAN_STATUS);
-                if (obj != null && obj.length() > 0) {
-                    JSONArray json = new JSONArray(obj);
-                    for (int i=0; i<json.length(); i++) {
-                        JSONObject node = json.getJSONObject(i);
-
-                        VLAN vlan = toVlan(node);
-                        if (vlan != null) {
-                            list.add(vlan);
-                        }
+                Map<String,List<String>> computeResources = new HashMap<String, List<String>>();
+                JSONArray json = provider.getNetworkSnapshot().get();
+
+                for (int i=0; i<json.length(); i++) {
+                    JSONObject node = json.getJSONObject(i);
+
+                    VLAN vlan = toVlan(node);
+                    if (vlan != null) {
+                        list.add(vlan);
+                        computeResources.put(vlan.getProviderVlanId(), toComputeResourceIds(node));
                     }
                 }
+                provider.getVlanCache().rebuild(computeResources);
                 return list;
             }
             catch (JSONException e) {
@@ -237,14 +317,33 @@ public class Networks extends AbstractVLANSupport {
         //To change body of implemented methods use File | Settings | File Templates.
     }
 
-    private VLAN toVlan(@Nonnull JSONObject json) throws InternalException, CloudException {
+    static private @Nonnull List<String> toComputeResourceIds(@Nonnull JSONObject json) throws InternalException {
+        try {
+            if (!json.has("ComputeResourceIDs") || json.isNull("ComputeResourceIDs")) {
+                return Collections.emptyList();
+            }
+            JSONArray ids = json.getJSONArray("ComputeResourceIDs");
+            List<String> list = new ArrayList<String>(ids.length());
+
+            for (int i = 0; i<ids.length(); i++) {
+                list.add(StringInterner.intern(ids.getString(i)));
+            }
+            return Collections.unmodifiableList(list);
+        }
+        catch (JSONException e) {
+            logger.error(e);
+            throw new InternalException("Unable to parse JSONObject "+e.getMessage());
+        }
+    }
+
+    static VLAN toVlan(@Nonnull JSONObject json) throws InternalException, CloudException {
         try{
             VLAN vlan = new VLAN();
             vlan.setCurrentState(VLANState.AVAILABLE);
             vlan.setSupportedTraffic(new IPVersion[] { IPVersion.IPV4,IPVersion.IPV6 });
 
             if (json.has("NetworkID") && !json.isNull("NetworkID")) {
-                vlan.setProviderVlanId(json.getString("NetworkID"));
+                vlan.setProviderVlanId(StringInterner.intern(json.getString("NetworkID")));
             }
             else {
                 return null;
@@ -267,14 +366,14 @@ public class Networks extends AbstractVLANSupport {
                 vlan.setDescription(json.getString("Description"));
             }
             if (json.has("TenantID") && !json.isNull("TenantID")) {
-                vlan.setProviderOwnerId(json.getString("TenantID"));
+                vlan.setProviderOwnerId(StringInterner.intern(json.getString("TenantID")));
             }
             if (json.has("Hypervisor") && !json.isNull("Hypervisor")) {
                 JSONObject hv = json.getJSONObject("Hypervisor");
                 JSONObject site = hv.getJSONObject("Site");
-                vlan.setProviderDataCenterId(site.getString("SiteID"));
+                vlan.setProviderDataCenterId(StringInterner.intern(site.getString("SiteID")));
                 JSONObject r = site.getJSONObject("Region");
-                vlan.setProviderRegionId(r.getString("RegionID"));
+                vlan.setProviderRegionId(StringInterner.intern(r.getString("RegionID")));
             }
             String gateway = null;
             if (json.has("Address") && !json.isNull("Address")) {
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.network;
+
+import org.dasein.cloud.virtustream.ExpiringCache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps networks to the compute resources they reach, so launch placement can pick a resource pool without fetching
+ * the network. The cache is filled from every full network listing and from individual network lookups.
+ */
+public class VlanCache {
+    private final ExpiringCache<List<String>> computeResources;
+
+    /**
+     * @param ttl the time in milliseconds a network's compute resources are trusted; zero disables the cache
+     */
+    public VlanCache(long ttl) {
+        this.computeResources = new ExpiringCache<List<String>>(ttl);
+    }
+
+    /**
+     * @param vlanId the network to look up
+     * @return the IDs of the compute resources the network reaches, or <code>null</code> if it is not cached
+     */
+    public @Nullable List<String> getComputeResourceIds(@Nonnull String vlanId) {
+        return computeResources.get(vlanId);
+    }
+
+    /**
+     * Replaces the cache with the networks from a full listing.
+     * @param vlans the compute resource IDs of every network, which must not be modified afterwards
+     */
+    public synchronized void rebuild(@Nonnull Map<String,List<String>> vlans) {
+        computeResources.clear();
+        for (Map.Entry<String,List<String>> entry : vlans.entrySet()) {
+            computeResources.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Caches the compute resources of a single network.
+     * @param vlanId the network
+     * @param computeResourceIds the IDs of the compute resources it reaches, which must not be modified afterwards
+     */
+    public void put(@Nonnull String vlanId, @Nonnull List<String> computeResourceIds) {
+        computeResources.put(vlanId, computeResourceIds);
+    }
+
+    /**
+     * Empties the cache so the next lookup of each network fetches it again.
+     */
+    public synchronized void invalidate() {
+        computeResources.clear();
+    }
+}
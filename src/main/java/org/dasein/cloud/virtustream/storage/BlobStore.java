@@ -30,6 +30,8 @@ import org.dasein.cloud.storage.BlobStoreCapabilities;
 import org.dasein.cloud.storage.FileTransfer;
 import org.dasein.cloud.util.APITrace;
 import org.dasein.cloud.util.NamingConstraints;
+import org.dasein.cloud.virtustream.JSONMapping;
+import org.dasein.cloud.virtustream.PagedResults;
 import org.dasein.cloud.virtustream.Virtustream;
 import org.dasein.cloud.virtustream.VirtustreamMethod;
 import org.dasein.util.uom.storage.Storage;
@@ -50,11 +52,8 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.Locale;
 
 public class BlobStore extends AbstractBlobStoreSupport<Virtustream> {
@@ -390,54 +389,47 @@ public class BlobStore extends AbstractBlobStoreSupport<Virtustream> {
     public Iterable<Blob> list(@Nullable String bucket) throws CloudException, InternalException {
         APITrace.begin(getProvider(), LIST_STORAGE);
         try {
+            if (bucket == null) {
+                return new PagedResults<Blob>(getProvider(), "/Storage?$filter=IsRemoved eq false", LIST_STORAGE, new PagedResults.Mapper<Blob>() {
+                    @Override
+                    public Blob map(@Nonnull JSONObject json) throws InternalException, CloudException {
+                        return toBlob(json, "", true, null);
+                    }
+                });
+            }
             try {
                 ArrayList<Blob> list = new ArrayList<Blob>();
                 VirtustreamMethod method = new VirtustreamMethod(getProvider());
-                if (bucket == null) {
-                    String obj = method.getString("/Storage?$filter=IsRemoved eq false", LIST_STORAGE);
-                    if (obj != null && obj.length() > 0) {
-                        JSONArray json = new JSONArray(obj);
-                        for (int i=0; i<json.length(); i++) {
-                            JSONObject node = json.getJSONObject(i);
-                            Blob container = toBlob(node, "", true, null);
-                            if (container != null) {
-                                list.add(container);
-                            }
-                        }
-                    }
+                int position = bucket.indexOf("/");
+                String tmp;
+                String path;
+                if (position>0) {
+                    tmp = bucket.substring(0, bucket.indexOf("/"));
+                    path = bucket.substring(bucket.indexOf("/"));
                 }
                 else {
-                    int position = bucket.indexOf("/");
-                    String tmp;
-                    String path;
-                    if (position>0) {
-                        tmp = bucket.substring(0, bucket.indexOf("/"));
-                        path = bucket.substring(bucket.indexOf("/"));
-                    }
-                    else {
-                        tmp = bucket;
-                        path = "/";
-                    }
+                    tmp = bucket;
+                    path = "/";
+                }
 
-                    findStorageObjectForName(tmp);
+                findStorageObjectForName(tmp);
 
-                    JSONObject body = new JSONObject();
-                    body.put("StorageID", storageId);
-                    body.put("Path", path);
-                    body.put("Pattern", "*");
-                    String obj = method.postString("/Storage/StorageSearchFile", body.toString(),LIST_STORAGE);
-                    if (obj != null && obj.length()> 0) {
-                        JSONObject json = new JSONObject(obj);
-                        String response = getProvider().parseTaskId(json);
-                        if (response != null && response.length()> 0) {
-                            JSONArray objects = new JSONArray(response);
-                            for (int i=0; i<objects.length(); i++) {
-                                JSONObject result = objects.getJSONObject(i);
-                                boolean isContainer = result.getBoolean("IsDirectory");
-                                Blob object = toBlob(result,bucket,isContainer, storageRegionId);
-                                if (object != null) {
-                                    list.add(object);
-                                }
+                JSONObject body = new JSONObject();
+                body.put("StorageID", storageId);
+                body.put("Path", path);
+                body.put("Pattern", "*");
+                String obj = method.postString("/Storage/StorageSearchFile", body.toString(),LIST_STORAGE);
+                if (obj != null && obj.length()> 0) {
+                    JSONObject json = new JSONObject(obj);
+                    String response = getProvider().parseTaskId(json);
+                    if (response != null && response.length()> 0) {
+                        JSONArray objects = new JSONArray(response);
+                        for (int i=0; i<objects.length(); i++) {
+                            JSONObject result = objects.getJSONObject(i);
+                            boolean isContainer = result.getBoolean("IsDirectory");
+                            Blob object = toBlob(result,bucket,isContainer, storageRegionId);
+                            if (object != null) {
+                                list.add(object);
                             }
                         }
                     }
@@ -896,14 +888,12 @@ public class BlobStore extends AbstractBlobStoreSupport<Virtustream> {
                 object = json.getString("Name");
                 path = bucket+"/"+object;
                 String lastModified = json.getString("LastModified");
-                SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-                try {
-                    Date d = f.parse(lastModified);
-                    long milliseconds = d.getTime();
+                long milliseconds = JSONMapping.parseTimestamp(lastModified);
+                if (milliseconds >= 0) {
                     creationDate = milliseconds;
                 }
-                catch (ParseException e) {
-                    logger.error(e);
+                else {
+                    logger.error("Unable to parse last modified date "+lastModified);
                 }
                 size = json.getLong("Size");
             }
@@ -931,7 +921,7 @@ public class BlobStore extends AbstractBlobStoreSupport<Virtustream> {
                 VirtustreamMethod method = new VirtustreamMethod(getProvider());
                 String obj = method.getString("/Storage?$filter=IsRemoved eq false", FIND_STORAGE_ID);
                 if( obj != null && obj.length() > 0 ) {
-                    JSONArray json = new JSONArray(obj);
+                    JSONArray json = JSONMapping.parseArray(obj);
                     for( int i = 0; i < json.length(); i++ ) {
                         JSONObject node = json.getJSONObject(i);
 
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentRequestsTest {
+    /**
+     * Returns its index after a delay that makes later requests finish first, failing at the given indexes.
+     */
+    static private List<ConcurrentRequests.Request<Integer>> requests(int n, final AtomicInteger finished, final int... failures) {
+        List<ConcurrentRequests.Request<Integer>> requests = new ArrayList<ConcurrentRequests.Request<Integer>>();
+
+        for (int i=0; i<n; i++) {
+            final int index = i;
+            final int delay = (n - i) * 5;
+
+            requests.add(new ConcurrentRequests.Request<Integer>() {
+                public Integer call() throws InternalException, CloudException {
+                    try {
+                        Thread.sleep(delay);
+                    }
+                    catch (InterruptedException e) {
+                        throw new InternalException("Interrupted");
+                    }
+                    finished.incrementAndGet();
+                    for (int failure : failures) {
+                        if (failure == index) {
+                            throw new CloudException("request " + index + " failed");
+                        }
+                    }
+                    return index;
+                }
+            });
+        }
+        return requests;
+    }
+
+    @Test
+    public void resultsKeepBatchOrder() throws Exception {
+        List<Integer> results = ConcurrentRequests.run(requests(10, new AtomicInteger(), new int[0]), 4, 0L);
+
+        assertEquals(10, results.size());
+        for (int i=0; i<10; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+    }
+
+    @Test
+    public void earliestFailureIsThrownAfterEveryRequestFinishes() throws Exception {
+        AtomicInteger finished = new AtomicInteger();
+
+        try {
+            ConcurrentRequests.run(requests(8, finished, 6, 3), 8, 0L);
+            fail("The failed requests were not reported");
+        }
+        catch (CloudException expected) {
+            assertEquals("request 3 failed", expected.getMessage());
+        }
+        assertEquals(8, finished.get());
+    }
+
+    @Test
+    public void slotsHoldResultsAndFailures() throws Exception {
+        Object[] slots = ConcurrentRequests.runSlots(requests(5, new AtomicInteger(), 1), 2, 0L);
+
+        assertEquals(5, slots.length);
+        assertEquals(0, slots[0]);
+        assertTrue(slots[1] instanceof CloudException);
+        assertEquals(4, slots[4]);
+    }
+
+    @Test
+    public void limitBoundsRequestsInFlight() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        List<ConcurrentRequests.Request<Void>> requests = new ArrayList<ConcurrentRequests.Request<Void>>();
+
+        for (int i=0; i<12; i++) {
+            requests.add(new ConcurrentRequests.Request<Void>() {
+                public Void call() throws InternalException {
+                    int now = inFlight.incrementAndGet();
+
+                    synchronized (peak) {
+                        peak.set(Math.max(peak.get(), now));
+                    }
+                    try {
+                        Thread.sleep(20L);
+                    }
+                    catch (InterruptedException e) {
+                        throw new InternalException("Interrupted");
+                    }
+                    inFlight.decrementAndGet();
+                    return null;
+                }
+            });
+        }
+        ConcurrentRequests.run(requests, 3, 0L);
+        assertTrue("Peak of " + peak.get(), peak.get() <= 3);
+    }
+
+    @Test
+    public void staggerSpacesOutStarts() throws Exception {
+        final List<Long> starts = Collections.synchronizedList(new ArrayList<Long>());
+        List<ConcurrentRequests.Request<Void>> requests = new ArrayList<ConcurrentRequests.Request<Void>>();
+
+        for (int i=0; i<4; i++) {
+            requests.add(new ConcurrentRequests.Request<Void>() {
+                public Void call() {
+                    starts.add(System.currentTimeMillis());
+                    return null;
+                }
+            });
+        }
+        ConcurrentRequests.run(requests, 4, 50L);
+        Collections.sort(starts);
+        // allow for timer granularity
+        assertTrue(starts.get(3) - starts.get(0) >= 140L);
+    }
+
+    @Test
+    public void emptyBatch() throws Exception {
+        assertTrue(ConcurrentRequests.run(new ArrayList<ConcurrentRequests.Request<Integer>>(), 4, 0L).isEmpty());
+    }
+}
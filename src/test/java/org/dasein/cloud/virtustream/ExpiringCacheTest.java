@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExpiringCacheTest {
+    @Test
+    public void storedValueIsReturnedUntilInvalidated() {
+        ExpiringCache<String> cache = new ExpiringCache<String>(60000L);
+
+        cache.put("vm-1", "one");
+        assertEquals("one", cache.get("vm-1"));
+        assertNull(cache.get("vm-2"));
+        cache.invalidate("vm-1");
+        assertNull(cache.get("vm-1"));
+    }
+
+    @Test
+    public void zeroTtlCachesNothing() {
+        ExpiringCache<String> cache = new ExpiringCache<String>(0L);
+
+        assertFalse(cache.isEnabled());
+        cache.put("vm-1", "one");
+        assertNull(cache.get("vm-1"));
+    }
+
+    @Test
+    public void entriesExpire() throws Exception {
+        ExpiringCache<String> cache = new ExpiringCache<String>(1L);
+
+        cache.put("vm-1", "one");
+        Thread.sleep(20L);
+        assertNull(cache.get("vm-1"));
+    }
+
+    @Test
+    public void disablingClearsEntries() {
+        ExpiringCache<String> cache = new ExpiringCache<String>(60000L);
+
+        cache.put("vm-1", "one");
+        cache.setTtl(0L);
+        assertFalse(cache.isEnabled());
+        cache.setTtl(60000L);
+        assertTrue(cache.isEnabled());
+        assertNull(cache.get("vm-1"));
+    }
+
+    @Test
+    public void pruneKeepsLiveEntries() throws Exception {
+        ExpiringCache<String> cache = new ExpiringCache<String>(1L);
+
+        cache.put("vm-1", "one");
+        Thread.sleep(20L);
+        cache.setTtl(60000L);
+        cache.put("vm-2", "two");
+        cache.prune();
+        assertNull(cache.get("vm-1"));
+        assertEquals("two", cache.get("vm-2"));
+    }
+
+    @Test
+    public void valueReadBeforeAnInvalidationIsNotStored() {
+        ExpiringCache<String> cache = new ExpiringCache<String>(60000L);
+        long generation = cache.getGeneration("vm-1");
+
+        // the VM changes while the stale value is being read
+        cache.invalidate("vm-1");
+        cache.put("vm-1", "stale", generation);
+        assertNull(cache.get("vm-1"));
+        cache.put("vm-1", "fresh", cache.getGeneration("vm-1"));
+        assertEquals("fresh", cache.get("vm-1"));
+    }
+
+    @Test
+    public void clearDropsValuesBeingRead() {
+        ExpiringCache<String> cache = new ExpiringCache<String>(60000L);
+        long generation = cache.getGeneration("vm-1");
+
+        cache.clear();
+        cache.put("vm-1", "stale", generation);
+        assertNull(cache.get("vm-1"));
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class JSONMappingTest {
+    static private long local(int year, int month, int day, int hour, int minute, int second, int millis) {
+        Calendar cal = Calendar.getInstance();
+
+        cal.clear();
+        cal.set(year, month - 1, day, hour, minute, second);
+        cal.set(Calendar.MILLISECOND, millis);
+        return cal.getTimeInMillis();
+    }
+
+    @Test
+    public void optStringReadsPresentValuesOnly() throws Exception {
+        JSONObject json = new JSONObject("{ \"Name\" : \"vm-1\", \"NumCpu\" : 2, \"Description\" : null }");
+
+        assertEquals("vm-1", JSONMapping.optString(json, "Name"));
+        assertEquals("2", JSONMapping.optString(json, "NumCpu"));
+        assertNull(JSONMapping.optString(json, "Description"));
+        assertNull(JSONMapping.optString(json, "OS"));
+    }
+
+    @Test
+    public void optObjectReadsObjectsOnly() throws Exception {
+        JSONObject json = new JSONObject("{ \"Hypervisor\" : { \"Site\" : {} }, \"Name\" : \"vm-1\", \"Nics\" : [], \"Site\" : null }");
+
+        assertEquals(1, JSONMapping.optObject(json, "Hypervisor").length());
+        assertNull(JSONMapping.optObject(json, "Name"));
+        assertNull(JSONMapping.optObject(json, "Nics"));
+        assertNull(JSONMapping.optObject(json, "Site"));
+        assertNull(JSONMapping.optObject(json, "Region"));
+    }
+
+    @Test
+    public void mapAllKeepsArrayOrderAndLeavesOutSkippedEntries() throws Exception {
+        JSONArray array = new JSONArray("[ { \"ID\" : 3 }, { \"ID\" : 1 }, { \"Skip\" : true }, { \"ID\" : 2 } ]");
+        List<Integer> ids = JSONMapping.mapAll(array, new PagedResults.Mapper<Integer>() {
+            public Integer map(@Nonnull JSONObject json) {
+                return (json.has("ID") ? json.optInt("ID") : null);
+            }
+        });
+
+        assertEquals(Arrays.asList(3, 1, 2), ids);
+    }
+
+    @Test
+    public void mapAllReportsEntriesThatAreNotObjects() throws Exception {
+        JSONArray array = new JSONArray("[ { \"ID\" : 1 }, \"not an object\" ]");
+
+        try {
+            JSONMapping.mapAll(array, new PagedResults.Mapper<Integer>() {
+                public Integer map(@Nonnull JSONObject json) {
+                    return json.optInt("ID");
+                }
+            });
+            fail("A string entry should not map");
+        }
+        catch (InternalException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parseTimestampReadsBothFormats() {
+        assertEquals(local(2015, 6, 1, 10, 30, 15, 250), JSONMapping.parseTimestamp("2015-06-01T10:30:15.250Z"));
+        assertEquals(local(2015, 6, 1, 10, 30, 15, 0), JSONMapping.parseTimestamp("2015-06-01T10:30:15Z"));
+    }
+
+    @Test
+    public void parseTimestampRejectsOtherInput() {
+        assertEquals(-1L, JSONMapping.parseTimestamp(null));
+        assertEquals(-1L, JSONMapping.parseTimestamp(""));
+        assertEquals(-1L, JSONMapping.parseTimestamp("yesterday"));
+        assertEquals(-1L, JSONMapping.parseTimestamp("2015-06-01"));
+        assertEquals(-1L, JSONMapping.parseTimestamp("2015-06-01T10:30:15Z and more"));
+        // a failed parse must not disturb the next one on the same thread
+        assertEquals(local(2015, 6, 1, 10, 30, 15, 0), JSONMapping.parseTimestamp("2015-06-01T10:30:15Z"));
+    }
+
+    @Test
+    public void parseTimestampIsSafeAcrossThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Future<?>[] results = new Future<?>[8];
+
+            for (int t=0; t<results.length; t++) {
+                final int second = t;
+
+                results[t] = executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        String timestamp = String.format("2015-06-01T10:30:%02d.500Z", second);
+                        long expected = local(2015, 6, 1, 10, 30, second, 500);
+
+                        for (int i=0; i<2000; i++) {
+                            assertEquals(expected, JSONMapping.parseTimestamp(timestamp));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void platformGuessesMatchPlatformGuess() {
+        for (String os : new String[] { "Microsoft Windows Server 2012 (64-bit)", "Ubuntu Linux (64-bit)", "CentOS 4/5/6 (32-bit)", "Something else" }) {
+            assertSame(Platform.guess(os), JSONMapping.guessPlatform(os));
+            // the second lookup is served from the memo
+            assertSame(Platform.guess(os), JSONMapping.guessPlatform(os));
+        }
+        assertSame(Platform.UNKNOWN, JSONMapping.guessPlatform(null));
+    }
+
+    @Test
+    public void architectureGuessesDefaultTo64Bit() {
+        assertSame(Architecture.I64, JSONMapping.guessArchitecture(null));
+        assertSame(Architecture.I64, JSONMapping.guessArchitecture("Microsoft Windows Server 2012 (64-bit)"));
+        assertSame(Architecture.I32, JSONMapping.guessArchitecture("CentOS 4/5/6 (32-bit)"));
+        assertSame(Architecture.I32, JSONMapping.guessArchitecture("Debian GNU/Linux 6 i386"));
+        assertSame(Architecture.I64, JSONMapping.guessArchitecture("Red Hat Enterprise Linux 6 x64"));
+        assertSame(Architecture.I64, JSONMapping.guessArchitecture("Other"));
+        assertSame(Architecture.I32, JSONMapping.guessArchitecture("CentOS 4/5/6 (32-bit)"));
+    }
+}
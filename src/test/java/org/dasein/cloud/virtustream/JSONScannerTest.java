@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.InternalException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class JSONScannerTest {
+    static private List<String[]> scan(String body, String ... fields) throws Exception {
+        final List<String[]> rows = new ArrayList<String[]>();
+
+        JSONScanner.scan(body, fields, new JSONScanner.FieldHandler() {
+            public void element(String[] values) {
+                rows.add(values.clone());
+            }
+        });
+        return rows;
+    }
+
+    @Test
+    public void scanReadsRequestedFields() throws Exception {
+        String body = "[ { \"VirtualMachineID\" : \"vm-1\", \"Nics\" : [ { \"PowerState\" : \"nested\" } ], \"PowerState\" : \"poweredOn\", \"NumCpu\" : 2 },\n" +
+                "{ \"PowerState\" : null, \"VirtualMachineID\" : \"vm-\\\"2\\\"\", \"Hypervisor\" : { \"a\" : \"}\" } },\n" +
+                "{ \"Pow\\u0065rState\" : \"escaped key\" } ]";
+        List<String[]> rows = scan(body, "VirtualMachineID", "PowerState", "NumCpu", "Hypervisor");
+
+        assertEquals(3, rows.size());
+        assertEquals("vm-1", rows.get(0)[0]);
+        assertEquals("poweredOn", rows.get(0)[1]);
+        assertEquals("2", rows.get(0)[2]);
+        assertNull(rows.get(0)[3]);
+        assertEquals("vm-\"2\"", rows.get(1)[0]);
+        assertNull(rows.get(1)[1]);
+        assertEquals("}", new JSONObject(rows.get(1)[3]).getString("a"));
+        assertNull(rows.get(2)[0]);
+        assertEquals("escaped key", rows.get(2)[1]);
+    }
+
+    @Test
+    public void scanDecodesEscapesInValues() throws Exception {
+        List<String[]> rows = scan("[ { \"a\" : \"quote \\\" slash \\/ \\u00e9t\\u00E9\\n\", \"b\" : true, \"c\" : -1.5e3 } ]", "a", "b", "c");
+
+        assertEquals("quote \" slash / \u00e9t\u00e9\n", rows.get(0)[0]);
+        assertEquals("true", rows.get(0)[1]);
+        assertEquals("-1.5e3", rows.get(0)[2]);
+    }
+
+    @Test
+    public void scanSkipsNestedValuesThatLookLikeTheEnd() throws Exception {
+        List<String[]> rows = scan("[ { \"x\" : [ \"]\", { \"y\" : \"}\" } ], \"id\" : \"1\" }, {}, { \"id\" : \"3\" } ]", "id");
+
+        assertEquals(3, rows.size());
+        assertEquals("1", rows.get(0)[0]);
+        assertNull(rows.get(1)[0]);
+        assertEquals("3", rows.get(2)[0]);
+    }
+
+    @Test
+    public void scanOfEmptyArrayCallsNothing() throws Exception {
+        int count = JSONScanner.scan(" [ ] ", new String[] { "a" }, new JSONScanner.FieldHandler() {
+            public void element(String[] values) {
+                fail("No elements expected");
+            }
+        });
+
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void malformedInputIsRejected() {
+        String[] bodies = {
+                "",
+                "[",
+                "[{\"a\": 1}",
+                "[{\"a\": \"unterminated}]",
+                "[{\"a\": \"bad escape \\u12\"}]",
+                "[{\"a\" 1}]",
+                "[{\"a\": 1,}]",
+                "[1]",
+                "[{\"a\": 1}] trailing",
+                "{\"a\": 1}"
+        };
+
+        for (String body : bodies) {
+            try {
+                scan(body, "a");
+                fail("Accepted malformed body " + body);
+            }
+            catch (InternalException expected) {
+                // expected
+            }
+            catch (Exception e) {
+                fail("Unexpected " + e + " for body " + body);
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PagedResultsTest {
+    /**
+     * Serves a listing of entities numbered from 0, never more than <code>cap</code> to a page.
+     */
+    static private class FakeSource implements PagedResults.PageSource {
+        final List<Integer> skips = Collections.synchronizedList(new ArrayList<Integer>());
+        final int           total;
+        final int           cap;
+        int                 failAt = -1;
+
+        FakeSource(int total, int cap) {
+            this.total = total;
+            this.cap = cap;
+        }
+
+        public String getPage(@Nonnull String resource, int skip, int top, @Nonnull String command) throws InternalException, CloudException {
+            skips.add(skip);
+            if (skip == failAt) {
+                throw new CloudException("page at " + skip + " failed");
+            }
+            JSONArray page = new JSONArray();
+            int end = Math.min(total, skip + Math.min(top, cap));
+
+            try {
+                for (int i=skip; i<end; i++) {
+                    page.put(new JSONObject().put("ID", i));
+                }
+            }
+            catch (Exception e) {
+                throw new InternalException(e.getMessage());
+            }
+            return page.toString();
+        }
+    }
+
+    /**
+     * Serves a listing keyed by <code>ThingID</code> in which an entity is created at the front once the first page
+     * has been served, pushing the last entity of that page onto the next one.
+     */
+    static private class GrowingSource implements PagedResults.PageSource {
+        final List<Integer> things = Collections.synchronizedList(range(9));
+
+        public String getPage(@Nonnull String resource, int skip, int top, @Nonnull String command) throws InternalException, CloudException {
+            JSONArray page = new JSONArray();
+
+            try {
+                for (int i=skip; i<Math.min(things.size(), skip + top); i++) {
+                    page.put(new JSONObject().put("ThingID", "thing-" + things.get(i)).put("ID", things.get(i)));
+                }
+            }
+            catch (Exception e) {
+                throw new InternalException(e.getMessage());
+            }
+            if (skip == 0) {
+                things.add(0, 100);
+            }
+            return page.toString();
+        }
+    }
+
+    static private final PagedResults.Mapper<Integer> ids = new PagedResults.Mapper<Integer>() {
+        public Integer map(@Nonnull JSONObject json) {
+            return json.optInt("ID");
+        }
+    };
+
+    static private List<Integer> drain(Iterable<Integer> results) {
+        List<Integer> list = new ArrayList<Integer>();
+
+        for (Integer i : results) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    static private List<Integer> range(int n) {
+        List<Integer> list = new ArrayList<Integer>();
+
+        for (int i=0; i<n; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    @Test
+    public void listingEndsAtTheFirstEmptyPage() throws Exception {
+        FakeSource source = new FakeSource(10, 100);
+
+        assertEquals(range(10), drain(new PagedResults<Integer>(null, source, 4, "/Thing", "test", ids)));
+        assertEquals(4, source.skips.size());
+        assertEquals(Integer.valueOf(10), source.skips.get(source.skips.size()-1));
+    }
+
+    @Test
+    public void serverPageCapDoesNotTruncate() throws Exception {
+        // the server returns at most 3 entities even though 5 are asked for
+        FakeSource source = new FakeSource(11, 3);
+
+        assertEquals(range(11), drain(new PagedResults<Integer>(null, source, 5, "/Thing", "test", ids)));
+        assertEquals(0, source.skips.get(0).intValue());
+        assertEquals(3, source.skips.get(1).intValue());
+        assertEquals(6, source.skips.get(2).intValue());
+    }
+
+    @Test
+    public void emptyListingMakesOneRequest() throws Exception {
+        FakeSource source = new FakeSource(0, 10);
+
+        assertTrue(drain(new PagedResults<Integer>(null, source, 10, "/Thing", "test", ids)).isEmpty());
+        assertEquals(1, source.skips.size());
+    }
+
+    @Test
+    public void skippedEntriesAreLeftOut() throws Exception {
+        FakeSource source = new FakeSource(7, 7);
+        PagedResults.Mapper<Integer> even = new PagedResults.Mapper<Integer>() {
+            public Integer map(@Nonnull JSONObject json) {
+                int id = json.optInt("ID");
+
+                return (id % 2 == 0 ? id : null);
+            }
+        };
+        List<Integer> result = drain(new PagedResults<Integer>(null, source, 3, "/Thing", "test", even));
+
+        assertEquals(4, result.size());
+        assertEquals(Integer.valueOf(6), result.get(3));
+    }
+
+    @Test
+    public void laterPageErrorKeepsItsType() throws Exception {
+        FakeSource source = new FakeSource(10, 10);
+
+        source.failAt = 4;
+        PagedResults<Integer> results = new PagedResults<Integer>(null, source, 4, "/Thing", "test", ids);
+
+        try {
+            drain(results);
+            fail("The failed page was not reported");
+        }
+        catch (PagedResults.PageException e) {
+            assertTrue(e.getCause() instanceof CloudException);
+            try {
+                e.rethrow();
+                fail("rethrow() did not throw");
+            }
+            catch (CloudException expected) {
+                assertEquals("page at 4 failed", expected.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void fetchAllFollowsCappedPages() throws Exception {
+        FakeSource source = new FakeSource(8, 3);
+        JSONArray all = PagedResults.fetchAll(source, 5, "/Thing", "test");
+
+        assertEquals(8, all.length());
+        assertEquals(7, all.getJSONObject(7).getInt("ID"));
+    }
+
+    @Test
+    public void scanFollowsCappedPages() throws Exception {
+        FakeSource source = new FakeSource(8, 3);
+        final List<String> seen = new ArrayList<String>();
+
+        PagedResults.scan(source, 5, "/Thing", "test", new String[] { "ID" }, new JSONScanner.FieldHandler() {
+            public void element(@Nonnull String[] values) {
+                seen.add(values[0]);
+            }
+        });
+        assertEquals(8, seen.size());
+        assertEquals("7", seen.get(7));
+    }
+
+    @Test
+    public void entityPushedOntoTheNextPageIsReturnedOnce() throws Exception {
+        assertEquals(range(9), drain(new PagedResults<Integer>(null, new GrowingSource(), 3, "/Thing", "test", ids)));
+    }
+
+    @Test
+    public void fetchAllReturnsAPushedEntityOnce() throws Exception {
+        JSONArray all = PagedResults.fetchAll(new GrowingSource(), 3, "/Thing", "test");
+
+        assertEquals(9, all.length());
+        assertEquals(8, all.getJSONObject(8).getInt("ID"));
+    }
+
+    @Test
+    public void scanReturnsAPushedEntityOnceWhenTheKeyIsScanned() throws Exception {
+        final List<String> seen = new ArrayList<String>();
+
+        PagedResults.scan(new GrowingSource(), 3, "/Thing", "test", new String[] { "ID", "ThingID" }, new JSONScanner.FieldHandler() {
+            public void element(@Nonnull String[] values) {
+                seen.add(values[0]);
+            }
+        });
+        assertEquals(9, seen.size());
+        assertEquals("2", seen.get(2));
+        assertEquals("3", seen.get(3));
+    }
+
+    @Test
+    public void parallelPagesKeepOrderAndReturnAPushedEntityOnce() throws Exception {
+        assertEquals(range(9), drain(new PagedResults<Integer>(null, new GrowingSource(), 3, 1, "/Thing", "test", ids)));
+        assertEquals(range(50), drain(new PagedResults<Integer>(null, new FakeSource(50, 50), 20, 5, "/Thing", "test", ids)));
+    }
+
+    @Test
+    public void parallelMappingErrorIsThrownAtItsEntry() throws Exception {
+        PagedResults.Mapper<Integer> failAtSix = new PagedResults.Mapper<Integer>() {
+            public Integer map(@Nonnull JSONObject json) throws InternalException {
+                int id = json.optInt("ID");
+
+                if (id >= 6) {
+                    throw new InternalException("entity " + id + " failed");
+                }
+                return id;
+            }
+        };
+        Iterator<Integer> it = new PagedResults<Integer>(null, new FakeSource(10, 10), 10, 1, "/Thing", "test", failAtSix).iterator();
+
+        for (int i=0; i<6; i++) {
+            assertEquals(Integer.valueOf(i), it.next());
+        }
+        try {
+            it.next();
+            fail("The failed entity was not reported");
+        }
+        catch (PagedResults.PageException e) {
+            assertEquals("entity 6 failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void pagesAreOrderedByTheEntityKey() {
+        assertEquals("VirtualMachineID", VirtustreamMethod.getKeyField("/VirtualMachine?$filter=IsTemplate eq false"));
+        assertEquals("StorageID", VirtustreamMethod.getKeyField("/Storage"));
+        assertEquals("VirtualMachineID", VirtustreamMethod.getKeyField("VirtualMachine?$filter=IsGlobalTemplate eq true"));
+    }
+}
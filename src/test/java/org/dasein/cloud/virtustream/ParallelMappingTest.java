@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelMappingTest {
+    static private JSONArray things(int n) throws Exception {
+        JSONArray array = new JSONArray();
+
+        for (int i=0; i<n; i++) {
+            array.put(new JSONObject().put("ID", i));
+        }
+        return array;
+    }
+
+    /**
+     * Maps an entity to its ID and records the thread that mapped it.
+     */
+    static private class Ids implements PagedResults.Mapper<Integer> {
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+        public Integer map(@Nonnull JSONObject json) throws InternalException, CloudException {
+            threads.add(Thread.currentThread());
+            return json.optInt("ID");
+        }
+    }
+
+    @Test
+    public void arrayBelowTheThresholdIsMappedOnTheCallingThread() throws Exception {
+        Ids mapper = new Ids();
+        List<Integer> ids = ParallelMapping.map(100, things(99), mapper);
+
+        assertEquals(99, ids.size());
+        assertEquals(Collections.singleton(Thread.currentThread()), mapper.threads);
+    }
+
+    @Test
+    public void zeroThresholdTurnsParallelMappingOff() throws Exception {
+        Ids mapper = new Ids();
+
+        ParallelMapping.map(0, things(1000), mapper);
+        assertEquals(Collections.singleton(Thread.currentThread()), mapper.threads);
+    }
+
+    @Test
+    public void parallelMappingKeepsArrayOrder() throws Exception {
+        Ids mapper = new Ids();
+        List<Integer> ids = ParallelMapping.map(1, things(1000), mapper);
+        List<Integer> expected = new ArrayList<Integer>();
+
+        for (int i=0; i<1000; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, ids);
+        assertTrue(!mapper.threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void skippedEntriesAreLeftOut() throws Exception {
+        List<Integer> odd = ParallelMapping.map(1, things(101), new PagedResults.Mapper<Integer>() {
+            public Integer map(@Nonnull JSONObject json) {
+                int id = json.optInt("ID");
+
+                return (id % 2 == 1 ? id : null);
+            }
+        });
+
+        assertEquals(50, odd.size());
+        assertEquals(Integer.valueOf(99), odd.get(49));
+    }
+
+    @Test
+    public void earliestFailureIsReported() throws Exception {
+        try {
+            ParallelMapping.map(1, things(1000), new PagedResults.Mapper<Integer>() {
+                public Integer map(@Nonnull JSONObject json) throws InternalException, CloudException {
+                    int id = json.optInt("ID");
+
+                    if (id == 300) {
+                        throw new InternalException("entity 300 failed");
+                    }
+                    if (id % 100 == 0 && id > 300) {
+                        throw new CloudException("entity " + id + " failed");
+                    }
+                    return id;
+                }
+            });
+            fail("The failed entity was not reported");
+        }
+        catch (InternalException e) {
+            assertEquals("entity 300 failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void entryThatIsNotAnObjectFails() throws Exception {
+        JSONArray array = things(10);
+
+        array.put(5, "not an object");
+        try {
+            ParallelMapping.map(1, array, new Ids());
+            fail("The bad entry was not reported");
+        }
+        catch (InternalException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseBuffersTest {
+    static private byte[] body(int size) {
+        byte[] bytes = new byte[size];
+
+        Arrays.fill(bytes, (byte)'x');
+        bytes[size - 1] = (byte)'!';
+        return bytes;
+    }
+
+    static private AbstractHttpEntity withoutLength(byte[] bytes) {
+        return new InputStreamEntity(new ByteArrayInputStream(bytes), -1);
+    }
+
+    @Before
+    public void setUp() {
+        ResponseBuffers.clear();
+    }
+
+    @Test
+    public void bodyOfUnknownLengthIsReadInFull() throws Exception {
+        byte[] bytes = body(300 * 1024);
+        String text = ResponseBuffers.toString(withoutLength(bytes));
+
+        assertEquals(bytes.length, text.length());
+        assertEquals('!', text.charAt(text.length() - 1));
+    }
+
+    @Test
+    public void bodyOfKnownLengthIsReadInFull() throws Exception {
+        byte[] bytes = body(100 * 1024);
+
+        assertEquals(new String(bytes, "ISO-8859-1"), ResponseBuffers.toString(new ByteArrayEntity(bytes)));
+    }
+
+    @Test
+    public void bodyLongerThanItsDeclaredLengthIsReadInFull() throws Exception {
+        byte[] bytes = body(1000);
+
+        assertEquals(1000, ResponseBuffers.toString(new InputStreamEntity(new ByteArrayInputStream(bytes), 10)).length());
+    }
+
+    @Test
+    public void emptyBodyIsEmpty() throws Exception {
+        assertEquals("", ResponseBuffers.toString(new ByteArrayEntity(new byte[0])));
+    }
+
+    @Test
+    public void bodyWithoutCharsetIsDecodedAsIso88591() throws Exception {
+        byte[] bytes = "caf\u00e9".getBytes("UTF-8");
+
+        assertEquals(new String(bytes, "ISO-8859-1"), ResponseBuffers.toString(new ByteArrayEntity(bytes)));
+    }
+
+    @Test
+    public void declaredCharsetIsUsed() throws Exception {
+        ByteArrayEntity entity = new ByteArrayEntity("caf\u00e9 \u65e5\u672c".getBytes("UTF-8"));
+
+        entity.setContentType("application/json; charset=UTF-8");
+        assertEquals("caf\u00e9 \u65e5\u672c", ResponseBuffers.toString(entity));
+    }
+
+    @Test
+    public void buffersAreReused() throws Exception {
+        byte[] bytes = body(200 * 1024);
+
+        ResponseBuffers.toString(new ByteArrayEntity(bytes));
+        long allocated = ResponseBuffers.getAllocatedBytes();
+        long read = ResponseBuffers.getReadBytes();
+
+        for (int i=0; i<10; i++) {
+            ResponseBuffers.toString(new ByteArrayEntity(bytes));
+        }
+        assertEquals(allocated, ResponseBuffers.getAllocatedBytes());
+        assertEquals(read + 10L * bytes.length, ResponseBuffers.getReadBytes());
+    }
+
+    @Test
+    public void oversizedBuffersAreNotRetained() throws Exception {
+        byte[] bytes = body(ResponseBuffers.MAX_RETAINED + 1);
+
+        ResponseBuffers.toString(new ByteArrayEntity(bytes));
+        long allocated = ResponseBuffers.getAllocatedBytes();
+
+        ResponseBuffers.toString(new ByteArrayEntity(bytes));
+        assertTrue(ResponseBuffers.getAllocatedBytes() >= allocated + bytes.length);
+    }
+}
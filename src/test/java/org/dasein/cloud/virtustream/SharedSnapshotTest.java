@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedSnapshotTest {
+    static private class CountingLoader implements SharedSnapshot.Loader {
+        final AtomicInteger  loads   = new AtomicInteger(0);
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile CountDownLatch release = null;
+        volatile boolean     fail    = false;
+
+        public @Nonnull JSONArray load() throws InternalException, CloudException {
+            loads.incrementAndGet();
+            started.countDown();
+            if (release != null) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    throw new InternalException("Interrupted");
+                }
+            }
+            if (fail) {
+                throw new CloudException("listing failed");
+            }
+            return new JSONArray();
+        }
+    }
+
+    @Test
+    public void overlappingCallersShareOneDownload() throws Exception {
+        final CountingLoader loader = new CountingLoader();
+        final SharedSnapshot snapshot = new SharedSnapshot(0L, loader);
+        final List<JSONArray> results = new ArrayList<JSONArray>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        loader.release = new CountDownLatch(1);
+        for (int i=0; i<8; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        JSONArray array = snapshot.get();
+
+                        synchronized (results) {
+                            results.add(array);
+                        }
+                    }
+                    catch (Exception e) {
+                        // reported by the size check below
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+        // give the other callers time to queue up behind the download
+        Thread.sleep(200L);
+        loader.release.countDown();
+        for (Thread t : threads) {
+            t.join(10000L);
+        }
+        assertEquals(8, results.size());
+        assertEquals(1, loader.loads.get());
+        for (JSONArray array : results) {
+            assertSame(results.get(0), array);
+        }
+    }
+
+    @Test
+    public void snapshotIsReusedWithinItsTtl() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, loader);
+
+        assertNull(snapshot.peek());
+        JSONArray first = snapshot.get();
+
+        assertSame(first, snapshot.get());
+        assertSame(first, snapshot.peek());
+        assertEquals(1, loader.loads.get());
+    }
+
+    @Test
+    public void zeroTtlLoadsEveryCall() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        SharedSnapshot snapshot = new SharedSnapshot(0L, loader);
+
+        snapshot.get();
+        snapshot.get();
+        assertEquals(2, loader.loads.get());
+        assertNull(snapshot.peek());
+    }
+
+    @Test
+    public void invalidateForcesADownload() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, loader);
+        JSONArray first = snapshot.get();
+
+        snapshot.invalidate();
+        assertNull(snapshot.peek());
+        assertNotSame(first, snapshot.get());
+        assertEquals(2, loader.loads.get());
+    }
+
+    @Test
+    public void downloadInvalidatedWhileRunningIsNotKept() throws Exception {
+        final CountingLoader loader = new CountingLoader();
+        final SharedSnapshot snapshot = new SharedSnapshot(60000L, loader);
+        final JSONArray[] result = new JSONArray[1];
+
+        loader.release = new CountDownLatch(1);
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    result[0] = snapshot.get();
+                }
+                catch (Exception e) {
+                    // checked below
+                }
+            }
+        };
+        t.start();
+        assertTrue(loader.started.await(10, TimeUnit.SECONDS));
+        snapshot.invalidate();
+        loader.release.countDown();
+        t.join(10000L);
+        assertTrue(result[0] != null);
+        assertNull(snapshot.peek());
+    }
+
+    @Test
+    public void failedDownloadIsRetried() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, loader);
+
+        loader.fail = true;
+        try {
+            snapshot.get();
+            fail("The failed download was not reported");
+        }
+        catch (CloudException expected) {
+            // expected
+        }
+        loader.fail = false;
+        snapshot.get();
+        assertEquals(2, loader.loads.get());
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StringInternerTest {
+    @Before
+    public void clear() {
+        StringInterner.clear();
+    }
+
+    @Test
+    public void equalValuesShareOneInstance() {
+        String first = new String("tenant-1");
+        String second = new String("tenant-1");
+
+        assertSame(first, StringInterner.intern(first));
+        assertSame(first, StringInterner.intern(second));
+        assertEquals(1, StringInterner.size());
+    }
+
+    @Test
+    public void nullStaysNull() {
+        assertNull(StringInterner.intern(null));
+        assertEquals(0, StringInterner.size());
+    }
+
+    @Test
+    public void tableStartsOverOnceFull() {
+        for (int i=0; i<StringInterner.MAX_ENTRIES; i++) {
+            StringInterner.intern("id-" + i);
+        }
+        assertEquals(StringInterner.MAX_ENTRIES, StringInterner.size());
+        String next = new String("id-next");
+
+        assertSame(next, StringInterner.intern(next));
+        assertEquals(1, StringInterner.size());
+        assertSame(next, StringInterner.intern(new String("id-next")));
+    }
+
+    @Test
+    public void valuesAlreadyHeldAreReturnedWhenFull() {
+        String first = new String("id-0");
+
+        StringInterner.intern(first);
+        for (int i=1; i<StringInterner.MAX_ENTRIES; i++) {
+            StringInterner.intern("id-" + i);
+        }
+        assertSame(first, StringInterner.intern(new String("id-0")));
+        assertTrue(StringInterner.size() <= StringInterner.MAX_ENTRIES);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream;
+
+import org.dasein.cloud.dc.DataCenter;
+import org.dasein.cloud.dc.Region;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VirtustreamDataCenterServicesTest {
+    static private @Nonnull DataCenter dataCenter(@Nonnull String dataCenterId, @Nonnull String regionId) {
+        DataCenter dc = new DataCenter();
+
+        dc.setProviderDataCenterId(dataCenterId);
+        dc.setRegionId(regionId);
+        dc.setName(dataCenterId);
+        return dc;
+    }
+
+    static private @Nonnull Region region(@Nonnull String regionId) {
+        Region r = new Region();
+
+        r.setProviderRegionId(regionId);
+        r.setName(regionId);
+        return r;
+    }
+
+    /**
+     * Serves listings and individual lookups from memory, recording every call.
+     */
+    static private class FakeSource implements VirtustreamDataCenterServices.Source {
+        final Map<String,List<DataCenter>> dataCenters = new HashMap<String, List<DataCenter>>();
+        final Map<String,DataCenter>       sites       = new HashMap<String, DataCenter>();
+        final List<Region>                 regions     = new ArrayList<Region>();
+        final Map<String,Region>           allRegions  = new HashMap<String, Region>();
+        final List<String>                 calls       = new ArrayList<String>();
+
+        public @Nonnull Collection<DataCenter> listDataCenters(@Nonnull String providerRegionId) {
+            calls.add("listDataCenters " + providerRegionId);
+            List<DataCenter> list = dataCenters.get(providerRegionId);
+
+            return (list == null ? new ArrayList<DataCenter>() : list);
+        }
+
+        public @Nullable DataCenter fetchDataCenter(@Nonnull String providerDataCenterId) {
+            calls.add("fetchDataCenter " + providerDataCenterId);
+            return sites.get(providerDataCenterId);
+        }
+
+        public @Nonnull Collection<Region> listRegions() {
+            calls.add("listRegions");
+            return regions;
+        }
+
+        public @Nullable Region fetchRegion(@Nonnull String providerRegionId) {
+            calls.add("fetchRegion " + providerRegionId);
+            return allRegions.get(providerRegionId);
+        }
+    }
+
+    @Test
+    public void dataCenterInTheContextRegionComesFromTheListing() throws Exception {
+        FakeSource source = new FakeSource();
+        DataCenter dc = dataCenter("dc-2", "r-1");
+
+        source.dataCenters.put("r-1", Arrays.asList(dataCenter("dc-1", "r-1"), dc));
+
+        assertSame(dc, VirtustreamDataCenterServices.findDataCenter("r-1", "dc-2", source));
+        assertEquals(Arrays.asList("listDataCenters r-1"), source.calls);
+    }
+
+    @Test
+    public void dataCenterOutsideTheContextRegionIsFetched() throws Exception {
+        FakeSource source = new FakeSource();
+        DataCenter dc = dataCenter("dc-9", "r-2");
+
+        source.dataCenters.put("r-1", Arrays.asList(dataCenter("dc-1", "r-1")));
+        source.sites.put("dc-9", dc);
+
+        assertSame(dc, VirtustreamDataCenterServices.findDataCenter("r-1", "dc-9", source));
+        assertEquals(Arrays.asList("listDataCenters r-1", "fetchDataCenter dc-9"), source.calls);
+    }
+
+    @Test
+    public void dataCenterWithoutAContextRegionIsFetched() throws Exception {
+        FakeSource source = new FakeSource();
+        DataCenter dc = dataCenter("dc-1", "r-1");
+
+        source.sites.put("dc-1", dc);
+
+        assertSame(dc, VirtustreamDataCenterServices.findDataCenter(null, "dc-1", source));
+        assertEquals(Arrays.asList("fetchDataCenter dc-1"), source.calls);
+    }
+
+    @Test
+    public void unknownDataCenterIsNull() throws Exception {
+        FakeSource source = new FakeSource();
+
+        assertNull(VirtustreamDataCenterServices.findDataCenter("r-1", "dc-1", source));
+    }
+
+    @Test
+    public void listedRegionIsNotFetched() throws Exception {
+        FakeSource source = new FakeSource();
+        Region r = region("r-2");
+
+        source.regions.add(region("r-1"));
+        source.regions.add(r);
+
+        assertSame(r, VirtustreamDataCenterServices.findRegion("r-2", source));
+        assertEquals(Arrays.asList("listRegions"), source.calls);
+    }
+
+    @Test
+    public void regionWithoutComputeResourcesIsFetched() throws Exception {
+        FakeSource source = new FakeSource();
+        Region r = region("r-3");
+
+        source.regions.add(region("r-1"));
+        source.allRegions.put("r-3", r);
+
+        assertSame(r, VirtustreamDataCenterServices.findRegion("r-3", source));
+        assertEquals(Arrays.asList("listRegions", "fetchRegion r-3"), source.calls);
+    }
+
+    @Test
+    public void unknownRegionIsNull() throws Exception {
+        FakeSource source = new FakeSource();
+
+        assertNull(VirtustreamDataCenterServices.findRegion("r-1", source));
+        assertTrue(source.calls.contains("fetchRegion r-1"));
+    }
+}
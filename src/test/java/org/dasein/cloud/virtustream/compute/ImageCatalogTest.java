@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.MachineImageState;
+import org.dasein.cloud.compute.Platform;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that name searches only narrow the candidates to a superset of what the filter itself accepts, and that
+ * a scope refreshes incrementally without holding up readers.
+ */
+public class ImageCatalogTest {
+    @Test
+    public void tokensAreLowerCaseWords() {
+        assertEquals(Arrays.asList("ubuntu", "14", "04", "lts", "x64"), ImageCatalog.tokenize("Ubuntu 14.04 LTS_x64"));
+        assertTrue(ImageCatalog.tokenize(" -- ").isEmpty());
+    }
+
+    @Test
+    public void literalWordsOfSimplePatterns() {
+        assertEquals(Arrays.asList("ubuntu", "server"), ImageCatalog.getLiteralWords("(?i)ubuntu.*server"));
+        assertEquals(Arrays.asList("web", "01"), ImageCatalog.getLiteralWords("web-01"));
+        assertEquals(Arrays.asList("cent", "s"), ImageCatalog.getLiteralWords("Cent.S"));
+        assertTrue(ImageCatalog.getLiteralWords(".*").isEmpty());
+    }
+
+    @Test
+    public void otherPatternsYieldNoWords() {
+        String[] patterns = { "web[0-9]+", "a*", "foo|bar", "^centos", "win(dows)?", "a+b", "x\\d", "tpl?" };
+
+        for (String pattern : patterns) {
+            assertTrue(pattern, ImageCatalog.getLiteralWords(pattern).isEmpty());
+        }
+    }
+
+    @Test
+    public void everyMatchContainsTheLiteralWords() {
+        String[] names = {
+                "Ubuntu 14.04 Server x64", "ubuntu-server", "CentOS 6.5", "Windows Server 2012 R2", "web-01",
+                "WEB_01 template", "centos_s", "Cent S"
+        };
+        String[] patterns = {
+                "(?i)ubuntu.*server", "(?i).*server.*", "web-01", "(?i)web.01.*", "Cent.S", "(?i)cent.*s", ".*2012.*"
+        };
+
+        for (String pattern : patterns) {
+            List<String> words = ImageCatalog.getLiteralWords(pattern);
+
+            for (String name : names) {
+                if (Pattern.compile(pattern).matcher(name).matches()) {
+                    List<String> tokens = ImageCatalog.tokenize(name);
+
+                    for (String word : words) {
+                        assertTrue(pattern + " matched " + name + " without a token containing " + word, containedIn(word, tokens));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void narrowingIntersects() {
+        Collection<String> candidates = Arrays.asList("a", "b", "c", "d");
+
+        assertEquals(new HashSet<String>(Arrays.asList("b", "d")), new HashSet<String>(ImageCatalog.narrow(candidates, new HashSet<String>(Arrays.asList("b", "d", "e")))));
+        assertEquals(new HashSet<String>(Arrays.asList("a")), new HashSet<String>(ImageCatalog.narrow(candidates, new HashSet<String>(Arrays.asList("a", "x", "y", "z", "w")))));
+        assertTrue(ImageCatalog.narrow(candidates, new HashSet<String>()).isEmpty());
+    }
+
+    @Test
+    public void refreshFetchesOnlyChangedTemplates() throws Exception {
+        FakeScope scope = new FakeScope();
+
+        scope.add("t1", "Ubuntu web", 1);
+        scope.add("t2", "CentOS db", 1);
+        scope.add("t3", "Windows app", 1);
+        assertEquals(3, scope.get().images.size());
+        assertEquals(1, scope.fetchAllCalls);
+
+        scope.add("t2", "CentOS db renamed", 2);
+        scope.templates.remove("t3");
+        scope.fingerprints.remove("t3");
+        scope.refresh();
+
+        ImageCatalog.View view = scope.get();
+
+        assertEquals(Arrays.asList("t2"), scope.fetched);
+        assertEquals(1, scope.fetchAllCalls);
+        assertEquals(new HashSet<String>(Arrays.asList("t1", "t2")), view.images.keySet());
+        assertEquals("CentOS db renamed", view.images.get("t2").getName());
+        assertTrue(view.byToken.get("renamed").contains("t2"));
+    }
+
+    @Test
+    public void unchangedRefreshKeepsTheView() throws Exception {
+        FakeScope scope = new FakeScope();
+
+        scope.add("t1", "Ubuntu web", 1);
+
+        ImageCatalog.View view = scope.get();
+
+        scope.refresh();
+        assertSame(view, scope.get());
+        assertTrue(scope.fetched.isEmpty());
+    }
+
+    @Test
+    public void putAndRemoveReplaceTheView() throws Exception {
+        FakeScope scope = new FakeScope();
+
+        scope.put(image("t9", "ignored before the first load"));
+        scope.add("t1", "Ubuntu web", 1);
+        assertFalse(scope.get().images.containsKey("t9"));
+
+        scope.put(image("t2", "Captured"));
+        assertTrue(scope.get().images.containsKey("t2"));
+        assertTrue(scope.get().byToken.get("captured").contains("t2"));
+
+        scope.remove("t1");
+        assertEquals(new HashSet<String>(Arrays.asList("t2")), scope.get().images.keySet());
+        assertFalse(scope.get().fingerprints.containsKey("t1"));
+    }
+
+    @Test
+    public void readersDoNotWaitForARefresh() throws Exception {
+        final FakeScope scope = new FakeScope();
+
+        scope.add("t1", "Ubuntu web", 1);
+
+        ImageCatalog.View view = scope.get();
+        final CountDownLatch inRefresh = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        scope.blockFingerprint = new Runnable() {
+            public void run() {
+                inRefresh.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException ignore) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        scope.add("t2", "CentOS db", 1);
+
+        Thread refresher = new Thread() {
+            public void run() {
+                try {
+                    scope.refresh();
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+
+        refresher.start();
+        assertTrue(inRefresh.await(10, TimeUnit.SECONDS));
+        // the refresh holds the scope's lock while it waits, yet the current view is still returned
+        assertSame(view, scope.get());
+        release.countDown();
+        refresher.join(10000);
+        assertEquals(new HashSet<String>(Arrays.asList("t1", "t2")), scope.get().images.keySet());
+    }
+
+    static private MachineImage image(String id, String name) {
+        return MachineImage.getMachineImageInstance("owner", "region", id, MachineImageState.ACTIVE, name, name, Architecture.I64, Platform.guess(name));
+    }
+
+    static private class FakeScope extends ImageCatalog.Scope {
+        final Map<String,MachineImage>  templates    = new HashMap<String, MachineImage>();
+        final Map<String,Integer>       fingerprints = new HashMap<String, Integer>();
+        final List<String>              fetched      = new ArrayList<String>();
+        int                             fetchAllCalls;
+        volatile Runnable               blockFingerprint;
+
+        void add(String id, String name, int fingerprint) {
+            templates.put(id, image(id, name));
+            fingerprints.put(id, fingerprint);
+        }
+
+        @Override
+        @Nonnull Map<String,Integer> fingerprint() {
+            Runnable block = blockFingerprint;
+
+            if (block != null) {
+                blockFingerprint = null;
+                block.run();
+            }
+            return new HashMap<String, Integer>(fingerprints);
+        }
+
+        @Override
+        @Nonnull Collection<MachineImage> fetchAll() {
+            fetchAllCalls++;
+            return new ArrayList<MachineImage>(templates.values());
+        }
+
+        @Override
+        @Nullable MachineImage fetch(@Nonnull String imageId) {
+            fetched.add(imageId);
+            return templates.get(imageId);
+        }
+    }
+
+    static private boolean containedIn(String word, List<String> tokens) {
+        for (String token : tokens) {
+            if (token.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.InternalException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyVirtualMachineTest {
+    static private JSONObject listing() throws Exception {
+        JSONObject region = new JSONObject().put("RegionID", "r-1");
+        JSONObject site = new JSONObject().put("SiteID", "s-1").put("Region", region);
+
+        return new JSONObject()
+                .put("VirtualMachineID", "vm-1")
+                .put("RegionID", "0")
+                .put("Hypervisor", new JSONObject().put("Site", site))
+                .put("NumCpu", "2")
+                .put("RamAllocatedMB", "4096");
+    }
+
+    @Test
+    public void detailsAreDecodedOnFirstRead() throws Exception {
+        LazyVirtualMachine vm = new LazyVirtualMachine(listing(), "default");
+
+        assertFalse(vm.isDecoded());
+        assertEquals("4096:2", vm.getProductId());
+        assertTrue(vm.isDecoded());
+        assertEquals("s-1", vm.getProviderDataCenterId());
+        assertEquals("r-1", vm.getProviderRegionId());
+    }
+
+    @Test
+    public void missingRegionFallsBackToTheDefault() throws Exception {
+        JSONObject json = listing();
+
+        json.remove("RegionID");
+        json.remove("Hypervisor");
+        assertEquals("default", new LazyVirtualMachine(json, "default").getProviderRegionId());
+    }
+
+    @Test
+    public void undecodableEntryFailsEveryRead() throws Exception {
+        JSONObject json = listing();
+
+        json.remove("NumCpu");
+        LazyVirtualMachine vm = new LazyVirtualMachine(json, "default");
+
+        for (int i=0; i<2; i++) {
+            try {
+                vm.getProductId();
+                fail("The undecodable entry was read");
+            }
+            catch (IllegalStateException expected) {
+                assertTrue(expected.getCause() instanceof InternalException);
+            }
+        }
+        try {
+            vm.getProviderDataCenterId();
+            fail("The undecodable entry was read");
+        }
+        catch (IllegalStateException expected) {
+            assertTrue(expected.getCause() instanceof InternalException);
+        }
+    }
+
+    @Test
+    public void concurrentFirstReadsSeeTheSameDetails() throws Exception {
+        final LazyVirtualMachine vm = new LazyVirtualMachine(listing(), "default");
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> seen = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i=0; i<8; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        String details = vm.getProductId() + "|" + vm.getProviderDataCenterId() + "|" + vm.getProviderRegionId();
+
+                        synchronized (seen) {
+                            seen.add(details);
+                        }
+                    }
+                    catch (InterruptedException ignore) {
+                        // reported by the size check below
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join(10000L);
+        }
+        assertEquals(8, seen.size());
+        for (String details : seen) {
+            assertEquals("4096:2|s-1|r-1", details);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.MachineImageState;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.virtustream.ExpiringCache;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TemplateMetadataTest {
+    static private @Nonnull MachineImage template(@Nonnull String templateId) {
+        MachineImage img = MachineImage.getMachineImageInstance("tenant-1", "r-1", templateId, MachineImageState.ACTIVE, templateId, templateId, Architecture.I64, Platform.UBUNTU);
+
+        img.setTag("diskDeviceKey", "2000");
+        img.setTag("nicDeviceKey", "4000");
+        img.setTag("nicID", "nic-1");
+        img.setTag("nicAdapterType", "3");
+        return img;
+    }
+
+    /**
+     * Serves templates from memory, counting fetches, and can run something in the middle of a fetch.
+     */
+    static private class FakeSource implements TemplateMetadata.Source {
+        final List<String> fetched = new ArrayList<String>();
+        Runnable           duringFetch;
+
+        public @Nullable MachineImage getImage(@Nonnull String templateId) {
+            fetched.add(templateId);
+            if (duringFetch != null) {
+                duringFetch.run();
+            }
+            return (templateId.startsWith("missing") ? null : template(templateId));
+        }
+    }
+
+    @Test
+    public void deviceTagsAreTyped() throws Exception {
+        TemplateMetadata metadata = TemplateMetadata.getInstance(template("tpl-1"));
+
+        assertEquals("tpl-1", metadata.getTemplateId());
+        assertEquals(Platform.UBUNTU, metadata.getPlatform());
+        assertEquals(2000, metadata.getDiskDeviceKey());
+        assertEquals(4000, metadata.getNicDeviceKey());
+        assertEquals("nic-1", metadata.getNicId());
+        assertEquals(3, metadata.getNicAdapterType());
+    }
+
+    @Test
+    public void templatesWithoutDevicesCannotBeLaunchedFrom() {
+        for (String tag : new String[] { "diskDeviceKey", "nicDeviceKey", "nicID", "nicAdapterType" }) {
+            MachineImage img = template("tpl-1");
+
+            img.setTag(tag, (String)null);
+            try {
+                TemplateMetadata.getInstance(img);
+                fail("Template without " + tag + " was accepted");
+            }
+            catch (CloudException expected) {
+                assertTrue(expected.getMessage().contains("tpl-1"));
+            }
+        }
+    }
+
+    @Test(expected = CloudException.class)
+    public void invalidDeviceKeyIsRejected() throws Exception {
+        MachineImage img = template("tpl-1");
+
+        img.setTag("diskDeviceKey", "scsi0");
+        TemplateMetadata.getInstance(img);
+    }
+
+    @Test
+    public void repeatedLookupsAreServedFromTheCache() throws Exception {
+        ExpiringCache<TemplateMetadata> cache = new ExpiringCache<TemplateMetadata>(60000L);
+        FakeSource source = new FakeSource();
+        TemplateMetadata first = TemplateMetadata.getCached(cache, "tpl-1", source);
+
+        assertSame(first, TemplateMetadata.getCached(cache, "tpl-1", source));
+        assertEquals(Arrays.asList("tpl-1"), source.fetched);
+    }
+
+    @Test
+    public void invalidatedTemplateIsFetchedAgain() throws Exception {
+        ExpiringCache<TemplateMetadata> cache = new ExpiringCache<TemplateMetadata>(60000L);
+        FakeSource source = new FakeSource();
+
+        TemplateMetadata.getCached(cache, "tpl-1", source);
+        TemplateMetadata.getCached(cache, "tpl-2", source);
+        cache.invalidate("tpl-1");
+        TemplateMetadata.getCached(cache, "tpl-1", source);
+        TemplateMetadata.getCached(cache, "tpl-2", source);
+
+        assertEquals(Arrays.asList("tpl-1", "tpl-2", "tpl-1"), source.fetched);
+    }
+
+    @Test
+    public void fetchOverlappingAnInvalidationIsNotCached() throws Exception {
+        final ExpiringCache<TemplateMetadata> cache = new ExpiringCache<TemplateMetadata>(60000L);
+        FakeSource source = new FakeSource();
+
+        source.duringFetch = new Runnable() {
+            public void run() {
+                // the template is removed while its metadata is being read
+                cache.invalidate("tpl-1");
+            }
+        };
+        assertEquals("tpl-1", TemplateMetadata.getCached(cache, "tpl-1", source).getTemplateId());
+        source.duringFetch = null;
+        TemplateMetadata.getCached(cache, "tpl-1", source);
+
+        assertEquals(Arrays.asList("tpl-1", "tpl-1"), source.fetched);
+    }
+
+    @Test
+    public void disabledCacheFetchesEveryTime() throws Exception {
+        ExpiringCache<TemplateMetadata> cache = new ExpiringCache<TemplateMetadata>(0L);
+        FakeSource source = new FakeSource();
+
+        TemplateMetadata.getCached(cache, "tpl-1", source);
+        TemplateMetadata.getCached(cache, "tpl-1", source);
+
+        assertEquals(Arrays.asList("tpl-1", "tpl-1"), source.fetched);
+    }
+
+    @Test(expected = CloudException.class)
+    public void missingTemplateFails() throws Exception {
+        TemplateMetadata.getCached(new ExpiringCache<TemplateMetadata>(60000L), "missing-1", new FakeSource());
+    }
+}
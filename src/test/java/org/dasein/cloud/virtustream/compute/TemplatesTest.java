@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.AsynchronousTask;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.ImageCreateOptions;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.MachineImageState;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the capture pipeline against canned steps, and batches of captures against a fake capturer.
+ */
+public class TemplatesTest {
+    static private @Nonnull ImageCreateOptions options(@Nonnull String vmId, @Nonnull String name) {
+        VirtualMachine vm = new VirtualMachine();
+
+        vm.setProviderVirtualMachineId(vmId);
+        return ImageCreateOptions.getInstance(vm, name, name);
+    }
+
+    static private @Nonnull MachineImage template(@Nonnull String templateId) {
+        return MachineImage.getMachineImageInstance("tenant-1", "r-1", templateId, MachineImageState.ACTIVE, templateId, templateId, Architecture.I64, Platform.UBUNTU);
+    }
+
+    static private class FakeSteps implements Templates.CaptureSteps {
+        final List<String> calls       = new ArrayList<String>();
+        String             cloneId     = "vm-clone";
+        boolean            listed      = true;
+        String             templateId  = "tpl-1";
+        int                unlistedFor = 0;
+
+        public @Nullable String cloneVirtualMachine(@Nonnull String vmId, @Nonnull String name) {
+            calls.add("clone " + vmId + " " + name);
+            return cloneId;
+        }
+
+        public boolean awaitVirtualMachine(@Nonnull String vmId) {
+            calls.add("await " + vmId);
+            return listed;
+        }
+
+        public @Nullable String markAsTemplate(@Nonnull String vmId) {
+            calls.add("mark " + vmId);
+            return templateId;
+        }
+
+        public @Nullable MachineImage getImage(@Nonnull String templateId) {
+            calls.add("get " + templateId);
+            return (unlistedFor-- > 0 ? null : template(templateId));
+        }
+    }
+
+    static private class ProgressTask extends AsynchronousTask<MachineImage> {
+        final List<Double> progress = new ArrayList<Double>();
+
+        @Override
+        public synchronized void setPercentComplete(double percentComplete) {
+            progress.add(percentComplete);
+            super.setPercentComplete(percentComplete);
+        }
+    }
+
+    @Test
+    public void eachStepFollowsThePreviousOne() throws Exception {
+        FakeSteps steps = new FakeSteps();
+        ProgressTask task = new ProgressTask();
+        MachineImage img = Templates.capture(steps, options("vm-1", "golden"), task, 0L);
+
+        assertEquals("tpl-1", img.getProviderMachineImageId());
+        assertEquals(Arrays.asList("clone vm-1 golden", "await vm-clone", "mark vm-clone", "get tpl-1"), steps.calls);
+        assertEquals(Arrays.asList(40.0, 50.0, 90.0), task.progress);
+    }
+
+    @Test
+    public void templateIsPolledForUntilListed() throws Exception {
+        FakeSteps steps = new FakeSteps();
+
+        steps.unlistedFor = 1;
+        assertEquals("tpl-1", Templates.capture(steps, options("vm-1", "golden"), null, 60000L).getProviderMachineImageId());
+        assertEquals(Arrays.asList("get tpl-1", "get tpl-1"), steps.calls.subList(3, steps.calls.size()));
+    }
+
+    @Test
+    public void missingCloneStopsTheCapture() throws Exception {
+        FakeSteps steps = new FakeSteps();
+
+        steps.cloneId = null;
+        assertCaptureFails(steps, 1);
+        steps = new FakeSteps();
+        steps.listed = false;
+        assertCaptureFails(steps, 2);
+    }
+
+    @Test
+    public void missingTemplateStopsTheCapture() throws Exception {
+        FakeSteps steps = new FakeSteps();
+
+        steps.templateId = null;
+        assertCaptureFails(steps, 3);
+        steps = new FakeSteps();
+        steps.unlistedFor = Integer.MAX_VALUE;
+        assertCaptureFails(steps, 4);
+    }
+
+    static private void assertCaptureFails(@Nonnull FakeSteps steps, int callsMade) throws Exception {
+        ProgressTask task = new ProgressTask();
+
+        try {
+            Templates.capture(steps, options("vm-1", "golden"), task, 0L);
+            fail("Capture succeeded");
+        }
+        catch (CloudException expected) {
+            assertEquals(callsMade, steps.calls.size());
+            // progress is only reported for the steps that succeeded
+            assertEquals(callsMade - 1, task.progress.size());
+        }
+    }
+
+    @Test
+    public void capturesRunSideBySideWithinTheLimit() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger(0);
+        final AtomicInteger mostInFlight = new AtomicInteger(0);
+        final List<String> heard = Collections.synchronizedList(new ArrayList<String>());
+        List<ImageCreateOptions> options = new ArrayList<ImageCreateOptions>();
+
+        for (int i=0; i<6; i++) {
+            options.add(options("vm-" + i, "tpl-" + i));
+        }
+        List<MachineImage> images = Templates.captureAll(options, 2, new Templates.Capturer() {
+            public @Nonnull MachineImage capture(@Nonnull ImageCreateOptions option) throws CloudException {
+                int now = inFlight.incrementAndGet();
+
+                synchronized (mostInFlight) {
+                    mostInFlight.set(Math.max(mostInFlight.get(), now));
+                }
+                try {
+                    Thread.sleep(20L);
+                }
+                catch (InterruptedException e) {
+                    throw new CloudException(e);
+                }
+                finally {
+                    inFlight.decrementAndGet();
+                }
+                return template(option.getName());
+            }
+        }, new Templates.CaptureListener() {
+            public void captured(@Nonnull ImageCreateOptions option, @Nonnull MachineImage img) {
+                heard.add(img.getProviderMachineImageId());
+            }
+        });
+
+        assertEquals(6, images.size());
+        for (int i=0; i<6; i++) {
+            assertEquals("tpl-" + i, images.get(i).getProviderMachineImageId());
+        }
+        assertTrue(mostInFlight.get() <= 2);
+        assertEquals(6, heard.size());
+    }
+
+    @Test
+    public void listenerHearsOfCapturesMadeBeforeAFailure() throws Exception {
+        final List<String> heard = Collections.synchronizedList(new ArrayList<String>());
+
+        try {
+            Templates.captureAll(Arrays.asList(options("vm-1", "tpl-1"), options("vm-2", "tpl-2"), options("vm-3", "tpl-3")), 1, new Templates.Capturer() {
+                public @Nonnull MachineImage capture(@Nonnull ImageCreateOptions option) throws CloudException {
+                    if (option.getName().equals("tpl-2")) {
+                        throw new CloudException("Clone of vm-2 failed");
+                    }
+                    return template(option.getName());
+                }
+            }, new Templates.CaptureListener() {
+                public void captured(@Nonnull ImageCreateOptions option, @Nonnull MachineImage img) {
+                    heard.add(img.getProviderMachineImageId());
+                    // a failing listener does not fail the capture
+                    throw new IllegalStateException("listener failed");
+                }
+            });
+            fail("The failed capture was not reported");
+        }
+        catch (CloudException expected) {
+            assertEquals("Clone of vm-2 failed", expected.getMessage());
+        }
+        assertEquals(Arrays.asList("tpl-1", "tpl-3"), heard);
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds a store the way its sync would and checks what the indexes and filtered listings return.
+ */
+public class VMInventoryStoreTest {
+    static private @Nonnull VirtualMachine vm(@Nonnull String vmId, @Nonnull String dataCenterId, @Nonnull String poolId, @Nonnull String vlanId, @Nonnull VmState state) {
+        VirtualMachine vm = new VirtualMachine();
+
+        vm.setProviderVirtualMachineId(vmId);
+        vm.setName(vmId);
+        vm.setProviderOwnerId("tenant-1");
+        vm.setProviderDataCenterId(dataCenterId);
+        vm.setProviderVlanId(vlanId);
+        vm.setCurrentState(state);
+        vm.setTag("ResourcePoolID", poolId);
+        return vm;
+    }
+
+    static private @Nonnull Set<String> ids(@Nonnull Collection<VirtualMachine> vms) {
+        Set<String> ids = new HashSet<String>();
+
+        for (VirtualMachine vm : vms) {
+            ids.add(vm.getProviderVirtualMachineId());
+        }
+        return ids;
+    }
+
+    static private @Nonnull Set<String> ids(@Nonnull String ... ids) {
+        return new HashSet<String>(Arrays.asList(ids));
+    }
+
+    static private @Nonnull VMInventoryStore store() {
+        // never synced; the tests call the listener methods the way a sync would
+        VMInventoryStore store = new VMInventoryStore(new VMInventorySync(null, null));
+
+        store.vmAdded(vm("vm-1", "dc-1", "pool-1", "vlan-1", VmState.RUNNING));
+        store.vmAdded(vm("vm-2", "dc-1", "pool-2", "vlan-2", VmState.STOPPED));
+        store.vmAdded(vm("vm-3", "dc-2", "pool-2", "vlan-1", VmState.RUNNING));
+        return store;
+    }
+
+    @Test
+    public void eachIndexFindsItsVMs() {
+        VMInventoryStore store = store();
+
+        assertEquals(3, store.size());
+        assertEquals(ids("vm-1", "vm-2"), ids(store.findByDataCenter("dc-1")));
+        assertEquals(ids("vm-2", "vm-3"), ids(store.findByResourcePool("pool-2")));
+        assertEquals(ids("vm-1", "vm-3"), ids(store.findByVlan("vlan-1")));
+        assertEquals(ids("vm-1", "vm-3"), ids(store.findByState(VmState.RUNNING)));
+        assertEquals(ids("vm-1", "vm-2", "vm-3"), ids(store.findByTenant("tenant-1")));
+        assertTrue(store.findByDataCenter("dc-9").isEmpty());
+    }
+
+    @Test
+    public void criteriaAreIntersected() {
+        VMInventoryStore store = store();
+
+        assertEquals(ids("vm-3"), ids(store.find(null, "pool-2", "vlan-1", null, VmState.RUNNING)));
+        assertEquals(ids("vm-1"), ids(store.find("dc-1", null, null, "tenant-1", VmState.RUNNING)));
+        assertTrue(store.find("dc-2", "pool-1", null, null, null).isEmpty());
+        assertEquals(ids("vm-1", "vm-2", "vm-3"), ids(store.find(null, null, null, null, null)));
+    }
+
+    @Test
+    public void changedVMIsReindexed() {
+        VMInventoryStore store = store();
+        VirtualMachine before = store.getVirtualMachine("vm-1");
+
+        store.vmChanged(before, vm("vm-1", "dc-2", "pool-1", "vlan-2", VmState.STOPPED));
+
+        assertEquals(ids("vm-2"), ids(store.findByDataCenter("dc-1")));
+        assertEquals(ids("vm-1", "vm-3"), ids(store.findByDataCenter("dc-2")));
+        assertEquals(ids("vm-3"), ids(store.findByState(VmState.RUNNING)));
+        assertEquals(ids("vm-1", "vm-2"), ids(store.findByVlan("vlan-2")));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void removedVMLeavesEveryIndex() {
+        VMInventoryStore store = store();
+
+        store.vmRemoved(store.getVirtualMachine("vm-1"));
+
+        assertNull(store.getVirtualMachine("vm-1"));
+        assertEquals(ids("vm-2"), ids(store.findByDataCenter("dc-1")));
+        assertTrue(store.findByResourcePool("pool-1").isEmpty());
+        assertEquals(ids("vm-3"), ids(store.findByState(VmState.RUNNING)));
+        assertEquals(ids("vm-2", "vm-3"), ids(store.findByTenant("tenant-1")));
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertTrue(store.findByTenant("tenant-1").isEmpty());
+    }
+
+    @Test
+    public void listAppliesTheFilter() {
+        VMInventoryStore store = store();
+
+        assertEquals(ids("vm-1", "vm-2", "vm-3"), ids(store.list(null)));
+        assertEquals(ids("vm-1", "vm-3"), ids(store.list(VMFilterOptions.getInstance().withVmStates(VmState.RUNNING))));
+        assertEquals(ids("vm-1", "vm-2", "vm-3"), ids(store.list(VMFilterOptions.getInstance().withVmStates(VmState.RUNNING, VmState.STOPPED))));
+        assertEquals(ids("vm-2", "vm-3"), ids(store.list(VMFilterOptions.getInstance().withTags(Collections.singletonMap("ResourcePoolID", "pool-2")))));
+        assertEquals(ids("vm-3"), ids(store.list(VMFilterOptions.getInstance().withTags(Collections.singletonMap("ResourcePoolID", "pool-2")).withVmStates(VmState.RUNNING))));
+        assertTrue(store.list(VMFilterOptions.getInstance().withVmStates(VmState.SUSPENDED)).isEmpty());
+    }
+
+    @Test
+    public void listedVMsAreIndexedWithoutDecoding() throws Exception {
+        VMInventoryStore store = store();
+        JSONObject site = new JSONObject().put("SiteID", "dc-3").put("Region", new JSONObject().put("RegionID", "r-1"));
+        JSONObject json = new JSONObject()
+                .put("VirtualMachineID", "vm-4")
+                .put("Hypervisor", new JSONObject().put("Site", site))
+                .put("NumCpu", "2")
+                .put("RamAllocatedMB", "4096");
+        LazyVirtualMachine lazy = new LazyVirtualMachine(json, "default");
+
+        lazy.setProviderVirtualMachineId("vm-4");
+        lazy.setCurrentState(VmState.RUNNING);
+        store.vmAdded(lazy);
+
+        assertEquals(ids("vm-4"), ids(store.findByDataCenter("dc-3")));
+        assertFalse(lazy.isDecoded());
+
+        // decoding afterwards reads the same data center, so the VM is still found and can be unindexed
+        assertEquals("dc-3", lazy.getProviderDataCenterId());
+        store.vmRemoved(lazy);
+        assertTrue(store.findByDataCenter("dc-3").isEmpty());
+    }
+}
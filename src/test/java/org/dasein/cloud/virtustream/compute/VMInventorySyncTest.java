@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.virtustream.JSONScanner;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VMInventorySyncTest {
+    static private final String LIVE    = "live";
+    static private final String REMOVED = "removed";
+
+    static private List<Integer> fingerprints(@Nonnull String body) throws Exception {
+        final List<Integer> list = new ArrayList<Integer>();
+
+        JSONScanner.scan(body, VMInventorySync.FINGERPRINT_FIELDS, new JSONScanner.FieldHandler() {
+            public void element(@Nonnull String[] values) {
+                list.add(VMInventorySync.fingerprint(values));
+            }
+        });
+        return list;
+    }
+
+    static private String vm(@Nonnull String networkId, @Nonnull String siteId) {
+        return "[ { \"VirtualMachineID\" : \"vm-1\", \"PowerState\" : \"poweredOn\", " +
+                "\"Nics\" : [ { \"VirtualMachineNicID\" : \"nic-1\", \"NetworkID\" : \"" + networkId + "\" } ], " +
+                "\"Hypervisor\" : { \"Site\" : { \"SiteID\" : \"" + siteId + "\", \"Region\" : { \"RegionID\" : \"r-1\" } } } } ]";
+    }
+
+    @Test
+    public void watermarkMovesToTheLatestInstant() {
+        VMInventorySync.Progress progress = new VMInventorySync.Progress();
+
+        progress.advance(LIVE, new VMInventorySync.Marker("vm-1", "2015-06-01T10:00:00Z"));
+        progress.advance(LIVE, new VMInventorySync.Marker("vm-2", "2015-06-01T09:00:00Z"));
+        progress.advance(LIVE, new VMInventorySync.Marker("vm-3", null));
+        assertEquals("2015-06-01T10:00:00Z", progress.watermark);
+        assertEquals(1, progress.atWatermark.size());
+        progress.advance(REMOVED, new VMInventorySync.Marker("vm-4", "2015-06-01T11:00:00Z"));
+        assertEquals("2015-06-01T11:00:00Z", progress.watermark);
+        assertEquals(1, progress.atWatermark.size());
+    }
+
+    @Test
+    public void onlyVmsSeenAtTheWatermarkInTheSameListingAreHandled() {
+        VMInventorySync.Progress progress = new VMInventorySync.Progress();
+        String since = "2015-06-01T10:00:00Z";
+
+        progress.advance(LIVE, new VMInventorySync.Marker("vm-1", since));
+        progress.advance(LIVE, new VMInventorySync.Marker("vm-2", since));
+        assertTrue(progress.isHandled(LIVE, new VMInventorySync.Marker("vm-2", since), since));
+        assertFalse(progress.isHandled(REMOVED, new VMInventorySync.Marker("vm-2", since), since));
+        assertFalse(progress.isHandled(LIVE, new VMInventorySync.Marker("vm-3", since), since));
+        // modified again after the watermark
+        assertFalse(progress.isHandled(LIVE, new VMInventorySync.Marker("vm-1", "2015-06-01T10:00:01Z"), since));
+    }
+
+    @Test
+    public void advancingACopyLeavesTheCommittedProgressAlone() {
+        VMInventorySync.Progress committed = new VMInventorySync.Progress();
+
+        committed.advance(LIVE, new VMInventorySync.Marker("vm-1", "2015-06-01T10:00:00Z"));
+        VMInventorySync.Progress next = committed.copy();
+
+        next.advance(LIVE, new VMInventorySync.Marker("vm-2", "2015-06-01T10:00:00Z"));
+        next.advance(LIVE, new VMInventorySync.Marker("vm-3", "2015-06-01T12:00:00Z"));
+        assertEquals("2015-06-01T12:00:00Z", next.watermark);
+        assertEquals("2015-06-01T10:00:00Z", committed.watermark);
+        assertEquals(1, committed.atWatermark.size());
+        assertTrue(committed.atWatermark.contains(LIVE + "vm-1"));
+    }
+
+    @Test
+    public void newProgressHasNoWatermark() {
+        VMInventorySync.Progress progress = new VMInventorySync.Progress();
+
+        assertNull(progress.watermark);
+        assertTrue(progress.fingerprints.isEmpty());
+        assertNull(progress.copy().watermark);
+    }
+
+    @Test
+    public void fingerprintChangesWithTheNetworkOfANic() throws Exception {
+        assertEquals(fingerprints(vm("net-1", "site-1")), fingerprints(vm("net-1", "site-1")));
+        assertFalse(fingerprints(vm("net-1", "site-1")).equals(fingerprints(vm("net-2", "site-1"))));
+    }
+
+    @Test
+    public void fingerprintChangesWithTheSiteOfTheHypervisor() throws Exception {
+        assertFalse(fingerprints(vm("net-1", "site-1")).equals(fingerprints(vm("net-1", "site-2"))));
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.compute.VmState;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VMStatusTableTest {
+    static private class Recorder implements VMStatusTable.DiffHandler {
+        final List<String> events = new ArrayList<String>();
+
+        public void created(@Nonnull String vmId, @Nonnull VmState state) {
+            events.add("created " + vmId + " " + state);
+        }
+
+        public void changed(@Nonnull String vmId, @Nonnull VmState previous, @Nonnull VmState current) {
+            events.add("changed " + vmId + " " + previous + " " + current);
+        }
+
+        public void removed(@Nonnull String vmId, @Nonnull VmState lastState) {
+            events.add("removed " + vmId + " " + lastState);
+        }
+    }
+
+    @Test
+    public void entriesAreSortedById() {
+        VMStatusTable table = new VMStatusTable.Builder(null)
+                .add("vm-c", VmState.RUNNING)
+                .add("vm-a", VmState.STOPPED)
+                .add("vm-b", VmState.SUSPENDED)
+                .build();
+
+        assertEquals(3, table.size());
+        assertEquals("vm-a", table.getVirtualMachineId(0));
+        assertEquals("vm-b", table.getVirtualMachineId(1));
+        assertEquals("vm-c", table.getVirtualMachineId(2));
+        assertEquals(VmState.STOPPED, table.getState("vm-a"));
+        assertNull(table.getState("vm-d"));
+    }
+
+    @Test
+    public void duplicateKeepsTheLastStateReported() {
+        // enough entries that the sort has to move duplicates past other IDs
+        VMStatusTable.Builder builder = new VMStatusTable.Builder(null);
+
+        for (int i=0; i<200; i++) {
+            builder.add("vm-" + (i % 50), VmState.STOPPED);
+        }
+        for (int i=0; i<50; i++) {
+            builder.add("vm-" + i, (i % 2 == 0 ? VmState.RUNNING : VmState.SUSPENDED));
+        }
+        VMStatusTable table = builder.build();
+
+        assertEquals(50, table.size());
+        for (int i=0; i<50; i++) {
+            assertEquals(i % 2 == 0 ? VmState.RUNNING : VmState.SUSPENDED, table.getState("vm-" + i));
+        }
+    }
+
+    @Test
+    public void idsAreReusedFromThePreviousTable() {
+        String id = new String("vm-1");
+        VMStatusTable previous = new VMStatusTable.Builder(null).add(id, VmState.RUNNING).build();
+        VMStatusTable current = new VMStatusTable.Builder(previous).add(new String("vm-1"), VmState.STOPPED).build();
+
+        assertSame(id, current.getVirtualMachineId(0));
+    }
+
+    @Test
+    public void diffReportsOnlyDifferences() {
+        VMStatusTable previous = new VMStatusTable.Builder(null)
+                .add("vm-1", VmState.RUNNING)
+                .add("vm-2", VmState.RUNNING)
+                .add("vm-3", VmState.STOPPED)
+                .build();
+        VMStatusTable current = new VMStatusTable.Builder(previous)
+                .add("vm-2", VmState.STOPPED)
+                .add("vm-3", VmState.STOPPED)
+                .add("vm-4", VmState.RUNNING)
+                .build();
+        Recorder recorder = new Recorder();
+
+        VMStatusTable.diff(previous, current, recorder);
+        assertEquals(3, recorder.events.size());
+        assertEquals("removed vm-1 RUNNING", recorder.events.get(0));
+        assertEquals("changed vm-2 RUNNING STOPPED", recorder.events.get(1));
+        assertEquals("created vm-4 RUNNING", recorder.events.get(2));
+    }
+
+    @Test
+    public void unknownStateKeepsThePreviousOne() {
+        VMStatusTable previous = new VMStatusTable.Builder(null).add("vm-1", VmState.RUNNING).build();
+        VMStatusTable current = new VMStatusTable.Builder(previous).add("vm-1", null).build();
+        Recorder recorder = new Recorder();
+
+        assertTrue(current.contains("vm-1"));
+        assertEquals(VmState.RUNNING, current.getState("vm-1"));
+        VMStatusTable.diff(previous, current, recorder);
+        assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test
+    public void vmWithoutAKnownStateIsNotReportedUntilItHasOne() {
+        VMStatusTable first = new VMStatusTable.Builder(null).add("vm-1", null).build();
+        VMStatusTable second = new VMStatusTable.Builder(first).add("vm-1", null).build();
+        VMStatusTable third = new VMStatusTable.Builder(second).add("vm-1", VmState.STOPPED).build();
+        Recorder recorder = new Recorder();
+
+        assertTrue(first.contains("vm-1"));
+        assertNull(first.getState("vm-1"));
+        VMStatusTable.diff(VMStatusTable.EMPTY, first, recorder);
+        VMStatusTable.diff(first, second, recorder);
+        assertTrue(recorder.events.isEmpty());
+        VMStatusTable.diff(second, third, recorder);
+        assertEquals(1, recorder.events.size());
+        assertEquals("created vm-1 STOPPED", recorder.events.get(0));
+        recorder.events.clear();
+        VMStatusTable.diff(first, VMStatusTable.EMPTY, recorder);
+        assertTrue(recorder.events.isEmpty());
+    }
+
+    @Test
+    public void emptyTable() {
+        VMStatusTable table = new VMStatusTable.Builder(null).build();
+
+        assertEquals(0, table.size());
+        assertFalse(table.contains("vm-1"));
+    }
+}
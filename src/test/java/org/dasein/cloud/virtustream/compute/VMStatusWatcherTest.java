@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.VmState;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VMStatusWatcherTest {
+    static private final long WAIT = 10000L;
+
+    /**
+     * Serves the given tables one sweep at a time, repeating the last one, and fails where a table is missing.
+     */
+    static private class FakeSource implements VMStatusWatcher.StatusSource {
+        final LinkedList<VMStatusTable> tables = new LinkedList<VMStatusTable>();
+        final Semaphore                 sweeps = new Semaphore(0);
+        VMStatusTable                   last   = VMStatusTable.EMPTY;
+
+        FakeSource(VMStatusTable ... tables) {
+            this.tables.addAll(Arrays.asList(tables));
+        }
+
+        public @Nonnull VMStatusTable sweep(@Nullable VMStatusTable previous) throws CloudException {
+            try {
+                if (!tables.isEmpty()) {
+                    VMStatusTable next = tables.removeFirst();
+
+                    if (next == null) {
+                        throw new CloudException("Sweep failed");
+                    }
+                    last = next;
+                }
+                return last;
+            }
+            finally {
+                sweeps.release();
+            }
+        }
+    }
+
+    static private class Recorder implements VMStatusWatcher.Listener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        public void vmCreated(@Nonnull String vmId, @Nonnull VmState state) {
+            events.add("created " + vmId + " " + state);
+        }
+
+        public void vmStateChanged(@Nonnull String vmId, @Nonnull VmState previous, @Nonnull VmState current) {
+            events.add("changed " + vmId + " " + previous + " " + current);
+        }
+
+        public void vmRemoved(@Nonnull String vmId, @Nonnull VmState lastState) {
+            events.add("removed " + vmId + " " + lastState);
+        }
+    }
+
+    static private class Failing implements VMStatusWatcher.Listener {
+        public void vmCreated(@Nonnull String vmId, @Nonnull VmState state) {
+            throw new IllegalStateException("created");
+        }
+
+        public void vmStateChanged(@Nonnull String vmId, @Nonnull VmState previous, @Nonnull VmState current) {
+            throw new IllegalStateException("changed");
+        }
+
+        public void vmRemoved(@Nonnull String vmId, @Nonnull VmState lastState) {
+            throw new IllegalStateException("removed");
+        }
+    }
+
+    static private final VMStatusTable FIRST = new VMStatusTable.Builder(null)
+            .add("vm-a", VmState.RUNNING)
+            .add("vm-b", VmState.STOPPED)
+            .build();
+
+    static private final VMStatusTable SECOND = new VMStatusTable.Builder(null)
+            .add("vm-a", VmState.STOPPED)
+            .add("vm-c", VmState.RUNNING)
+            .build();
+
+    static private final List<String> FIRST_TO_SECOND = Arrays.asList(
+            "changed vm-a RUNNING STOPPED", "removed vm-b STOPPED", "created vm-c RUNNING"
+    );
+
+    private VMStatusWatcher watcher;
+
+    @After
+    public void shutdown() {
+        if (watcher != null) {
+            watcher.shutdown();
+        }
+    }
+
+    private void awaitSweeps(@Nonnull FakeSource source, int count) throws InterruptedException {
+        assertTrue("Expected " + count + " sweeps", source.sweeps.tryAcquire(count, WAIT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void firstSweepIsOnlyABaseline() throws Exception {
+        FakeSource source = new FakeSource(FIRST, SECOND);
+        Recorder recorder = new Recorder();
+
+        watcher = new VMStatusWatcher(source, 10L);
+        watcher.addListener(recorder);
+        // the third sweep only starts once the second one has been reported
+        awaitSweeps(source, 3);
+
+        assertEquals(new HashSet<String>(FIRST_TO_SECOND), new HashSet<String>(recorder.events));
+        assertEquals(FIRST_TO_SECOND.size(), recorder.events.size());
+        assertEquals(VmState.STOPPED, watcher.getLastKnownState("vm-a"));
+        assertNull(watcher.getLastKnownState("vm-b"));
+    }
+
+    @Test
+    public void failingListenerDoesNotStopTheOthers() throws Exception {
+        FakeSource source = new FakeSource(FIRST, SECOND);
+        Recorder recorder = new Recorder();
+
+        watcher = new VMStatusWatcher(source, 10L);
+        watcher.addListener(new Failing());
+        watcher.addListener(recorder);
+        awaitSweeps(source, 3);
+
+        assertEquals(new HashSet<String>(FIRST_TO_SECOND), new HashSet<String>(recorder.events));
+    }
+
+    @Test
+    public void failedSweepKeepsThePreviousTable() throws Exception {
+        FakeSource source = new FakeSource(FIRST, null, SECOND);
+        Recorder recorder = new Recorder();
+
+        watcher = new VMStatusWatcher(source, 10L);
+        watcher.addListener(recorder);
+        awaitSweeps(source, 4);
+
+        assertEquals(new HashSet<String>(FIRST_TO_SECOND), new HashSet<String>(recorder.events));
+    }
+
+    @Test
+    public void setIntervalReschedulesTheRunningPoller() throws Exception {
+        FakeSource source = new FakeSource(FIRST, SECOND);
+        Recorder recorder = new Recorder();
+
+        watcher = new VMStatusWatcher(source, TimeUnit.HOURS.toMillis(1));
+        watcher.addListener(recorder);
+        awaitSweeps(source, 1);
+        assertFalse(source.sweeps.tryAcquire(200L, TimeUnit.MILLISECONDS));
+
+        watcher.setInterval(10L);
+        assertEquals(10L, watcher.getInterval());
+        awaitSweeps(source, 2);
+        assertTrue(recorder.events.containsAll(FIRST_TO_SECOND));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intervalMustBePositive() {
+        new VMStatusWatcher(new FakeSource(), 10L).setInterval(0L);
+    }
+
+    @Test
+    public void removingTheLastListenerStopsPolling() throws Exception {
+        FakeSource source = new FakeSource(FIRST);
+        Recorder recorder = new Recorder();
+
+        watcher = new VMStatusWatcher(source, 10L);
+        watcher.addListener(recorder);
+        awaitSweeps(source, 2);
+        watcher.removeListener(recorder);
+        Thread.sleep(50L);
+        source.sweeps.drainPermits();
+
+        assertFalse(source.sweeps.tryAcquire(200L, TimeUnit.MILLISECONDS));
+    }
+}
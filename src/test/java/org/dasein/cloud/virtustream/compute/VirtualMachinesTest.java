@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs batches of clones against a fake cloner that records when each clone started and how many ran at once.
+ */
+public class VirtualMachinesTest {
+    static private class FakeCloner implements VirtualMachines.Cloner {
+        final AtomicInteger inFlight     = new AtomicInteger(0);
+        final AtomicInteger mostInFlight = new AtomicInteger(0);
+        final List<Long>    starts       = Collections.synchronizedList(new ArrayList<Long>());
+        final long          duration;
+        final String        failing;
+
+        FakeCloner(long duration, String failing) {
+            this.duration = duration;
+            this.failing = failing;
+        }
+
+        public @Nonnull VirtualMachine cloneOne(@Nonnull String name) throws CloudException {
+            starts.add(System.currentTimeMillis());
+
+            int now = inFlight.incrementAndGet();
+
+            synchronized (mostInFlight) {
+                mostInFlight.set(Math.max(mostInFlight.get(), now));
+            }
+            try {
+                Thread.sleep(duration);
+            }
+            catch (InterruptedException e) {
+                throw new CloudException(e);
+            }
+            finally {
+                inFlight.decrementAndGet();
+            }
+            if (name.equals(failing)) {
+                throw new CloudException("Clone " + name + " failed");
+            }
+            VirtualMachine vm = new VirtualMachine();
+
+            vm.setProviderVirtualMachineId("id-" + name);
+            vm.setName(name);
+            return vm;
+        }
+    }
+
+    static private class Recorder implements VirtualMachines.CloneListener {
+        final List<String> cloned = Collections.synchronizedList(new ArrayList<String>());
+
+        public void cloned(@Nonnull String name, @Nonnull VirtualMachine vm) {
+            cloned.add(name);
+        }
+    }
+
+    static private @Nonnull List<String> names(int count) {
+        List<String> names = new ArrayList<String>();
+
+        for (int i=0; i<count; i++) {
+            names.add("web-" + i);
+        }
+        return names;
+    }
+
+    @Test
+    public void clonesStayWithinTheLimitAndKeepTheirOrder() throws Exception {
+        FakeCloner cloner = new FakeCloner(30L, null);
+        Recorder recorder = new Recorder();
+        List<VirtualMachine> vms = VirtualMachines.cloneAll(names(6), 2, 0L, cloner, recorder);
+
+        assertEquals(6, vms.size());
+        for (int i=0; i<6; i++) {
+            assertEquals("id-web-" + i, vms.get(i).getProviderVirtualMachineId());
+        }
+        assertTrue("At most 2 clones at once, saw " + cloner.mostInFlight.get(), cloner.mostInFlight.get() <= 2);
+        assertEquals(6, recorder.cloned.size());
+    }
+
+    @Test
+    public void startsAreSpreadOutByTheStagger() throws Exception {
+        FakeCloner cloner = new FakeCloner(0L, null);
+        List<Long> starts;
+
+        VirtualMachines.cloneAll(names(4), 4, 50L, cloner, null);
+        starts = new ArrayList<Long>(cloner.starts);
+        Collections.sort(starts);
+        assertEquals(4, starts.size());
+        for (int i=1; i<starts.size(); i++) {
+            long gap = starts.get(i) - starts.get(i-1);
+
+            // a little slack for the clock's granularity
+            assertTrue("Clones started " + gap + "ms apart", gap >= 45L);
+        }
+    }
+
+    @Test
+    public void failedCloneIsReportedAfterTheOthersFinish() throws Exception {
+        FakeCloner cloner = new FakeCloner(10L, "web-1");
+        final List<String> cloned = Collections.synchronizedList(new ArrayList<String>());
+
+        try {
+            VirtualMachines.cloneAll(names(3), 1, 0L, cloner, new VirtualMachines.CloneListener() {
+                public void cloned(@Nonnull String name, @Nonnull VirtualMachine vm) {
+                    cloned.add(name);
+                    // a failing listener does not fail the batch
+                    throw new IllegalStateException("listener failed");
+                }
+            });
+            fail("The failed clone was not reported");
+        }
+        catch (CloudException expected) {
+            assertEquals("Clone web-1 failed", expected.getMessage());
+        }
+        assertEquals(Arrays.asList("web-0", "web-2"), cloned);
+        assertEquals(3, cloner.starts.size());
+    }
+
+    @Test
+    public void emptyBatchClonesNothing() throws Exception {
+        FakeCloner cloner = new FakeCloner(0L, null);
+
+        assertTrue(VirtualMachines.cloneAll(new ArrayList<String>(), 4, 50L, cloner, null).isEmpty());
+        assertTrue(cloner.starts.isEmpty());
+    }
+}
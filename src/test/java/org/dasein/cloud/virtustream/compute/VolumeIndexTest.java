@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.compute.Volume;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VolumeIndexTest {
+    static private Volume disk(String vmId, String diskId) {
+        Volume volume = new Volume();
+
+        volume.setProviderVirtualMachineId(vmId);
+        volume.setProviderVolumeId(diskId);
+        return volume;
+    }
+
+    @Test
+    public void rebuildReplacesEverything() {
+        VolumeIndex index = new VolumeIndex();
+
+        index.rebuild(Arrays.asList(disk("vm-1", "d-1"), disk("vm-1", "d-2"), disk("vm-2", "d-3")));
+        assertEquals(3, index.size());
+        assertEquals("vm-1", index.getVirtualMachineId("d-2"));
+        index.rebuild(Arrays.asList(disk("vm-3", "d-4")));
+        assertEquals(1, index.size());
+        assertNull(index.getVirtualMachineId("d-1"));
+        assertEquals("vm-3", index.getVirtualMachineId("d-4"));
+    }
+
+    @Test
+    public void updateReplacesOneVm() {
+        VolumeIndex index = new VolumeIndex();
+
+        index.rebuild(Arrays.asList(disk("vm-1", "d-1"), disk("vm-1", "d-2"), disk("vm-2", "d-3")));
+        index.update("vm-1", Arrays.asList(disk("vm-1", "d-2"), disk("vm-1", "d-5")));
+        assertNull(index.getVirtualMachineId("d-1"));
+        assertEquals("vm-1", index.getVirtualMachineId("d-5"));
+        assertEquals("vm-2", index.getVirtualMachineId("d-3"));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void diskMovedToAnotherVmIsForgottenByTheOldOne() {
+        VolumeIndex index = new VolumeIndex();
+
+        index.rebuild(Arrays.asList(disk("vm-1", "d-1"), disk("vm-1", "d-2")));
+        index.update("vm-2", Arrays.asList(disk("vm-2", "d-1")));
+        assertEquals("vm-2", index.getVirtualMachineId("d-1"));
+        // dropping vm-1 must not take the moved disk with it
+        index.removeVirtualMachine("vm-1");
+        assertEquals("vm-2", index.getVirtualMachineId("d-1"));
+        assertNull(index.getVirtualMachineId("d-2"));
+    }
+
+    @Test
+    public void removeForgetsOneDisk() {
+        VolumeIndex index = new VolumeIndex();
+
+        index.rebuild(Arrays.asList(disk("vm-1", "d-1"), disk("vm-1", "d-2")));
+        index.remove("d-1");
+        index.remove("d-9");
+        assertNull(index.getVirtualMachineId("d-1"));
+        assertEquals("vm-1", index.getVirtualMachineId("d-2"));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void incompleteVolumesAreIgnored() {
+        VolumeIndex index = new VolumeIndex();
+
+        index.rebuild(Arrays.asList(disk(null, "d-1"), disk("vm-1", null)));
+        assertEquals(0, index.size());
+        index.update("vm-1", Collections.<Volume>emptyList());
+        assertEquals(0, index.size());
+    }
+}
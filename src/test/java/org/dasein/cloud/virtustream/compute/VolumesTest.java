@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class VolumesTest {
+    static private Set<String> disks(String ... ids) {
+        return new LinkedHashSet<String>(Arrays.asList(ids));
+    }
+
+    @Test
+    public void taskResultNamesTheNewDisk() throws Exception {
+        assertEquals("d-3", Volumes.identifyNewDisk("d-3", disks("d-1", "d-2"), disks("d-1", "d-2", "d-3")));
+    }
+
+    @Test
+    public void taskResultPicksTheNewDiskWhenOthersAppeared() throws Exception {
+        // another client added d-4 to the VM at the same time
+        assertEquals("d-3", Volumes.identifyNewDisk("d-3", disks("d-1"), disks("d-1", "d-3", "d-4")));
+    }
+
+    @Test
+    public void missingTaskResultFallsBackToTheDiskThatAppeared() throws Exception {
+        assertEquals("d-2", Volumes.identifyNewDisk(null, disks("d-1"), disks("d-1", "d-2")));
+    }
+
+    @Test
+    public void taskResultThatIsNotANewDiskFallsBackToTheDiskThatAppeared() throws Exception {
+        assertEquals("d-2", Volumes.identifyNewDisk("d-1", disks("d-1"), disks("d-1", "d-2")));
+        assertEquals("d-2", Volumes.identifyNewDisk("task-42", disks("d-1"), disks("d-1", "d-2")));
+    }
+
+    @Test
+    public void noNewDiskFails() {
+        try {
+            Volumes.identifyNewDisk("d-9", disks("d-1"), disks("d-1"));
+            fail("A disk was identified although none was added");
+        }
+        catch (CloudException expected) {
+            assertEquals("Can't find new volume", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void severalNewDisksWithoutAUsableTaskResultFail() {
+        try {
+            Volumes.identifyNewDisk(null, disks("d-1"), disks("d-1", "d-2", "d-3"));
+            fail("A disk was guessed among several");
+        }
+        catch (CloudException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void noFailuresThrowNothing() throws Exception {
+        Volumes.throwFailures(new LinkedHashMap<String, Exception>());
+    }
+
+    @Test
+    public void singleFailureIsThrownAsItIs() throws Exception {
+        Map<String,Exception> failures = new LinkedHashMap<String, Exception>();
+        InternalException failure = new InternalException("bad response");
+
+        failures.put("d-1", failure);
+        try {
+            Volumes.throwFailures(failures);
+            fail("The failure was not reported");
+        }
+        catch (InternalException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void severalFailuresNameEveryDisk() throws Exception {
+        Map<String,Exception> failures = new LinkedHashMap<String, Exception>();
+
+        failures.put("d-1", new CloudException("disk is busy"));
+        failures.put("d-3", new InternalException("bad response"));
+        try {
+            Volumes.throwFailures(failures);
+            fail("The failures were not reported");
+        }
+        catch (CloudException e) {
+            assertEquals("Unable to remove volumes [d-1, d-3]: disk is busy", e.getMessage());
+        }
+    }
+}
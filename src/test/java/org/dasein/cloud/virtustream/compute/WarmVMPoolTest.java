@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.VMLaunchOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a pool manager against an in-memory set of VMs: filling and topping up pools, serving launches, counting
+ * hits and misses, and cleaning up only its own owner's left over VMs.
+ */
+public class WarmVMPoolTest {
+    static private final String OWNER = "test-owner";
+
+    static private class FakeMachines implements WarmVMPool.Machines {
+        final Map<String,VirtualMachine>    vms          = new ConcurrentHashMap<String, VirtualMachine>();
+        final List<String>                  takenOver    = Collections.synchronizedList(new ArrayList<String>());
+        final List<String>                  terminated   = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger                 launches     = new AtomicInteger(0);
+        volatile CountDownLatch             launchGate;
+        volatile boolean                    failTakeOver;
+
+        @Nonnull VirtualMachine add(@Nonnull String vmId, @Nonnull String name, @Nonnull String description) {
+            VirtualMachine vm = new VirtualMachine();
+
+            vm.setProviderVirtualMachineId(vmId);
+            vm.setName(name);
+            vm.setDescription(description);
+            vm.setCurrentState(VmState.STOPPED);
+            vms.put(vmId, vm);
+            return vm;
+        }
+
+        public @Nonnull Iterable<VirtualMachine> list() {
+            return new ArrayList<VirtualMachine>(vms.values());
+        }
+
+        public @Nullable VirtualMachine launch(@Nonnull VMLaunchOptions options) throws CloudException {
+            CountDownLatch gate = launchGate;
+
+            if (gate != null) {
+                try {
+                    gate.await();
+                }
+                catch (InterruptedException e) {
+                    throw new CloudException(e);
+                }
+            }
+            VirtualMachine vm = add("vm-" + launches.incrementAndGet(), options.getHostName(), options.getDescription());
+
+            // launches come up running, so the pool has to stop them
+            vm.setCurrentState(VmState.RUNNING);
+            return vm;
+        }
+
+        public @Nullable VirtualMachine takeOver(@Nonnull String vmId, @Nonnull VMLaunchOptions options) throws CloudException {
+            if (failTakeOver) {
+                throw new CloudException("Unable to reconfigure " + vmId);
+            }
+            VirtualMachine vm = vms.get(vmId);
+
+            takenOver.add(vmId);
+            if (vm != null) {
+                vm.setName(options.getHostName());
+                vm.setCurrentState(VmState.RUNNING);
+            }
+            return vm;
+        }
+
+        public void stop(@Nonnull String vmId) {
+            vms.get(vmId).setCurrentState(VmState.STOPPED);
+        }
+
+        public @Nullable VmState getState(@Nonnull String vmId) {
+            VirtualMachine vm = vms.get(vmId);
+
+            return (vm == null ? null : vm.getCurrentState());
+        }
+
+        public void terminate(@Nonnull String vmId, @Nonnull String explanation) {
+            terminated.add(vmId);
+            vms.remove(vmId);
+        }
+    }
+
+    private FakeMachines machines = new FakeMachines();
+    private WarmVMPool   pool     = new WarmVMPool(machines, OWNER, 2);
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    static private @Nonnull VMLaunchOptions options(@Nonnull String imageId, @Nonnull String hostName) {
+        VMLaunchOptions options = VMLaunchOptions.getInstance("product-1", imageId, hostName, "A launch");
+
+        options.inDataCenter("dc-1");
+        options.inVlan(null, "dc-1", "vlan-1");
+        return options;
+    }
+
+    private void awaitReady(int count) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 10000L;
+
+        while (pool.getMetrics().getReadyCount() != count && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10L);
+        }
+        assertEquals(count, pool.getMetrics().getReadyCount());
+    }
+
+    @Test
+    public void poolIsFilledWithStoppedVMs() throws Exception {
+        pool.setPoolSize(options("tpl-1", "ignored"), 2);
+        awaitReady(2);
+
+        assertEquals(2, machines.launches.get());
+        assertEquals(2, pool.getMetrics().getBuilds());
+        assertEquals(0, pool.getMetrics().getBuildFailures());
+        for (VirtualMachine vm : machines.vms.values()) {
+            assertTrue(vm.getName().startsWith("warm-"));
+            assertEquals("Pre-provisioned for warm pool " + OWNER, vm.getDescription());
+            assertEquals(VmState.STOPPED, vm.getCurrentState());
+        }
+    }
+
+    @Test
+    public void matchingLaunchIsServedAndThePoolToppedUp() throws Exception {
+        pool.setPoolSize(options("tpl-1", "ignored"), 2);
+        awaitReady(2);
+
+        VirtualMachine vm = pool.launch(options("tpl-1", "web-1"));
+
+        assertNotNull(vm);
+        assertEquals("web-1", vm.getName());
+        assertEquals(VmState.RUNNING, vm.getCurrentState());
+        assertEquals(Arrays.asList(vm.getProviderVirtualMachineId()), machines.takenOver);
+        awaitReady(2);
+        assertEquals(3, pool.getMetrics().getBuilds());
+        assertEquals(1, pool.getMetrics().getHits());
+        assertEquals(0, pool.getMetrics().getMisses());
+        assertEquals(1.0, pool.getMetrics().getHitRate(), 0.0);
+        assertTrue(pool.getMetrics().getLastReplenishmentLag() >= 0);
+    }
+
+    @Test
+    public void otherLaunchesAreNotCounted() throws Exception {
+        pool.setPoolSize(options("tpl-1", "ignored"), 1);
+        awaitReady(1);
+
+        assertNull(pool.launch(options("tpl-2", "web-1")));
+        assertEquals(0, pool.getMetrics().getHits());
+        assertEquals(0, pool.getMetrics().getMisses());
+        assertEquals(0.0, pool.getMetrics().getHitRate(), 0.0);
+    }
+
+    @Test
+    public void emptyPoolIsAMiss() throws Exception {
+        machines.launchGate = new CountDownLatch(1);
+        pool.setPoolSize(options("tpl-1", "ignored"), 1);
+
+        assertNull(pool.launch(options("tpl-1", "web-1")));
+        assertEquals(1, pool.getMetrics().getMisses());
+        assertEquals(0.0, pool.getMetrics().getHitRate(), 0.0);
+
+        machines.launchGate.countDown();
+        awaitReady(1);
+        assertNotNull(pool.launch(options("tpl-1", "web-2")));
+        assertEquals(0.5, pool.getMetrics().getHitRate(), 0.0);
+    }
+
+    @Test
+    public void unusableVMIsTerminatedAndCountedAsAMiss() throws Exception {
+        pool.setPoolSize(options("tpl-1", "ignored"), 1);
+        awaitReady(1);
+
+        String vmId = machines.vms.keySet().iterator().next();
+
+        machines.failTakeOver = true;
+        assertNull(pool.launch(options("tpl-1", "web-1")));
+        assertEquals(Arrays.asList(vmId), machines.terminated);
+        assertEquals(1, pool.getMetrics().getMisses());
+        assertEquals(0, pool.getMetrics().getHits());
+    }
+
+    @Test
+    public void onlyOwnLeftOversAreReaped() throws Exception {
+        long earlier = System.currentTimeMillis() - 60000L;
+
+        machines.add("vm-own", "warm-" + earlier, "Pre-provisioned for warm pool " + OWNER);
+        machines.add("vm-other", "warm-" + earlier, "Pre-provisioned for warm pool someone-else");
+        machines.add("vm-unowned", "warm-" + earlier, "Pre-provisioned for a warm pool");
+        machines.add("vm-named", "warm-web", "Pre-provisioned for warm pool " + OWNER);
+        machines.add("vm-later", "warm-" + (System.currentTimeMillis() + 60000L), "Pre-provisioned for warm pool " + OWNER);
+        pool.reap();
+
+        assertEquals(Arrays.asList("vm-own"), machines.terminated);
+    }
+
+    @Test
+    public void shutdownTerminatesReadyVMs() throws Exception {
+        pool.setPoolSize(options("tpl-1", "ignored"), 2);
+        awaitReady(2);
+        pool.shutdown();
+
+        assertEquals(2, machines.terminated.size());
+        assertTrue(machines.vms.isEmpty());
+        assertNull(pool.launch(options("tpl-1", "web-1")));
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.network;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ResourceStatus;
+import org.dasein.cloud.virtustream.SharedSnapshot;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NetworksTest {
+    static private @Nonnull JSONArray networks(@Nonnull String ... vlanIds) throws Exception {
+        JSONArray list = new JSONArray();
+
+        for (String id : vlanIds) {
+            list.put(new JSONObject().put("NetworkID", id));
+        }
+        return list;
+    }
+
+    static private @Nonnull List<String> ids(@Nonnull List<ResourceStatus> statuses) {
+        List<String> list = new ArrayList<String>();
+
+        for (ResourceStatus status : statuses) {
+            list.add(status.getProviderResourceId());
+        }
+        return list;
+    }
+
+    /**
+     * Serves a fixed list of network IDs, counting fetches.
+     */
+    static private class FakeSource implements Networks.NetworkSource {
+        final JSONArray networkIds;
+        int             listings = 0;
+        CloudException  failure  = null;
+
+        FakeSource(@Nonnull JSONArray networkIds) {
+            this.networkIds = networkIds;
+        }
+
+        public @Nullable JSONObject getNetwork(@Nonnull String vlanId) {
+            throw new AssertionError("Unexpected fetch of " + vlanId);
+        }
+
+        public @Nonnull JSONArray listNetworkIds() throws CloudException {
+            listings++;
+            if (failure != null) {
+                throw failure;
+            }
+            return networkIds;
+        }
+    }
+
+    /**
+     * Hands out a fixed listing, counting downloads.
+     */
+    static private class FixedLoader implements SharedSnapshot.Loader {
+        final JSONArray listing;
+        int             loads = 0;
+
+        FixedLoader(@Nonnull JSONArray listing) {
+            this.listing = listing;
+        }
+
+        public @Nonnull JSONArray load() {
+            loads++;
+            return listing;
+        }
+    }
+
+    @Test
+    public void freshListingIsReused() throws Exception {
+        FixedLoader loader = new FixedLoader(networks("net-1", "net-2"));
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, loader);
+        FakeSource source = new FakeSource(networks("net-3"));
+
+        snapshot.get();
+
+        assertEquals(Arrays.asList("net-1", "net-2"), ids(Networks.listVlanStatus(snapshot, source)));
+        assertEquals(0, source.listings);
+        assertEquals(1, loader.loads);
+    }
+
+    @Test
+    public void missingListingFetchesOnlyTheIds() throws Exception {
+        FixedLoader loader = new FixedLoader(networks("net-1"));
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, loader);
+        FakeSource source = new FakeSource(networks("net-2", "net-3"));
+
+        assertEquals(Arrays.asList("net-2", "net-3"), ids(Networks.listVlanStatus(snapshot, source)));
+        assertEquals(1, source.listings);
+        assertEquals(0, loader.loads);
+    }
+
+    @Test
+    public void invalidatedListingIsNotReused() throws Exception {
+        FixedLoader loader = new FixedLoader(networks("net-1"));
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, loader);
+        FakeSource source = new FakeSource(networks("net-2"));
+
+        snapshot.get();
+        snapshot.invalidate();
+
+        assertEquals(Arrays.asList("net-2"), ids(Networks.listVlanStatus(snapshot, source)));
+        assertEquals(1, source.listings);
+    }
+
+    @Test
+    public void disabledSnapshotAlwaysFetches() throws Exception {
+        FixedLoader loader = new FixedLoader(networks("net-1"));
+        SharedSnapshot snapshot = new SharedSnapshot(0L, loader);
+        FakeSource source = new FakeSource(networks("net-2"));
+
+        snapshot.get();
+
+        assertEquals(Arrays.asList("net-2"), ids(Networks.listVlanStatus(snapshot, source)));
+        assertEquals(1, source.listings);
+    }
+
+    @Test
+    public void entriesWithoutAnIdAreSkipped() throws Exception {
+        JSONArray listing = networks("net-1");
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, new FixedLoader(listing));
+
+        listing.put(new JSONObject().put("Name", "unnamed"));
+        listing.put(new JSONObject().put("NetworkID", JSONObject.NULL));
+        snapshot.get();
+
+        List<ResourceStatus> statuses = Networks.listVlanStatus(snapshot, new FakeSource(new JSONArray()));
+
+        assertEquals(Arrays.asList("net-1"), ids(statuses));
+    }
+
+    @Test
+    public void unparseableEntryIsAnInternalException() throws Exception {
+        JSONArray listing = new JSONArray().put("not a network");
+        SharedSnapshot snapshot = new SharedSnapshot(0L, new FixedLoader(listing));
+
+        try {
+            Networks.listVlanStatus(snapshot, new FakeSource(listing));
+            fail("Expected an InternalException");
+        }
+        catch (InternalException expected) {
+            assertTrue(expected.getMessage().startsWith("Unable to parse"));
+        }
+    }
+
+    @Test
+    public void failedFetchPropagates() throws Exception {
+        SharedSnapshot snapshot = new SharedSnapshot(60000L, new FixedLoader(new JSONArray()));
+        FakeSource source = new FakeSource(new JSONArray());
+
+        source.failure = new CloudException("listing failed");
+        try {
+            Networks.listVlanStatus(snapshot, source);
+            fail("Expected the listing to fail");
+        }
+        catch (CloudException expected) {
+            assertEquals("listing failed", expected.getMessage());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2012-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.virtustream.network;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VlanCacheTest {
+    static private @Nonnull JSONObject network(@Nonnull String vlanId, boolean removed, @Nonnull String ... computeResourceIds) throws Exception {
+        JSONObject region = new JSONObject().put("RegionID", "r-1");
+        JSONObject site = new JSONObject().put("SiteID", "dc-1").put("Region", region);
+
+        return new JSONObject()
+                .put("NetworkID", vlanId)
+                .put("IsRemoved", removed)
+                .put("Hypervisor", new JSONObject().put("Site", site))
+                .put("ComputeResourceIDs", new JSONArray(Arrays.asList(computeResourceIds)));
+    }
+
+    /**
+     * Serves networks from memory, counting fetches.
+     */
+    static private class FakeSource implements Networks.NetworkSource {
+        final Map<String,JSONObject> networks = new HashMap<String, JSONObject>();
+        final List<String>           fetched  = new ArrayList<String>();
+
+        public @Nullable JSONObject getNetwork(@Nonnull String vlanId) {
+            fetched.add(vlanId);
+            return networks.get(vlanId);
+        }
+
+        public @Nonnull JSONArray listNetworkIds() {
+            return new JSONArray(networks.keySet());
+        }
+    }
+
+    @Test
+    public void unknownNetworkIsNotCached() {
+        VlanCache cache = new VlanCache(60000L);
+
+        assertNull(cache.getComputeResourceIds("net-1"));
+    }
+
+    @Test
+    public void rebuildReplacesEveryNetwork() {
+        VlanCache cache = new VlanCache(60000L);
+        Map<String,List<String>> first = new HashMap<String, List<String>>();
+        Map<String,List<String>> second = new HashMap<String, List<String>>();
+
+        first.put("net-1", Arrays.asList("cr-1"));
+        first.put("net-2", Arrays.asList("cr-2"));
+        cache.rebuild(first);
+        second.put("net-2", Arrays.asList("cr-3"));
+        cache.rebuild(second);
+
+        assertNull(cache.getComputeResourceIds("net-1"));
+        assertEquals(Arrays.asList("cr-3"), cache.getComputeResourceIds("net-2"));
+    }
+
+    @Test
+    public void putAddsToARebuiltCache() {
+        VlanCache cache = new VlanCache(60000L);
+
+        cache.rebuild(Collections.singletonMap("net-1", Arrays.asList("cr-1")));
+        cache.put("net-2", Arrays.asList("cr-2"));
+
+        assertEquals(Arrays.asList("cr-1"), cache.getComputeResourceIds("net-1"));
+        assertEquals(Arrays.asList("cr-2"), cache.getComputeResourceIds("net-2"));
+    }
+
+    @Test
+    public void invalidateEmptiesTheCache() {
+        VlanCache cache = new VlanCache(60000L);
+
+        cache.put("net-1", Arrays.asList("cr-1"));
+        cache.invalidate();
+
+        assertNull(cache.getComputeResourceIds("net-1"));
+    }
+
+    @Test
+    public void zeroTtlDisablesTheCache() {
+        VlanCache cache = new VlanCache(0L);
+
+        cache.put("net-1", Arrays.asList("cr-1"));
+
+        assertNull(cache.getComputeResourceIds("net-1"));
+    }
+
+    @Test
+    public void cachedNetworkIsNotFetched() throws Exception {
+        VlanCache cache = new VlanCache(60000L);
+        FakeSource source = new FakeSource();
+        List<String> ids = Arrays.asList("cr-1");
+
+        cache.put("net-1", ids);
+
+        assertSame(ids, Networks.getComputeResourceIds(cache, "net-1", source));
+        assertTrue(source.fetched.isEmpty());
+    }
+
+    @Test
+    public void missIsFetchedAndCached() throws Exception {
+        VlanCache cache = new VlanCache(60000L);
+        FakeSource source = new FakeSource();
+
+        source.networks.put("net-1", network("net-1", false, "cr-1", "cr-2"));
+
+        assertEquals(Arrays.asList("cr-1", "cr-2"), Networks.getComputeResourceIds(cache, "net-1", source));
+        assertEquals(Arrays.asList("cr-1", "cr-2"), Networks.getComputeResourceIds(cache, "net-1", source));
+        assertEquals(Arrays.asList("net-1"), source.fetched);
+    }
+
+    @Test
+    public void missIsMappedEvenWithTheCacheDisabled() throws Exception {
+        VlanCache cache = new VlanCache(0L);
+        FakeSource source = new FakeSource();
+
+        source.networks.put("net-1", network("net-1", false, "cr-1"));
+
+        assertEquals(Arrays.asList("cr-1"), Networks.getComputeResourceIds(cache, "net-1", source));
+        assertEquals(Arrays.asList("cr-1"), Networks.getComputeResourceIds(cache, "net-1", source));
+        assertEquals(2, source.fetched.size());
+    }
+
+    @Test
+    public void missingOrRemovedNetworkHasNoComputeResources() throws Exception {
+        VlanCache cache = new VlanCache(60000L);
+        FakeSource source = new FakeSource();
+
+        source.networks.put("net-2", network("net-2", true, "cr-1"));
+
+        assertTrue(Networks.getComputeResourceIds(cache, "net-1", source).isEmpty());
+        assertTrue(Networks.getComputeResourceIds(cache, "net-2", source).isEmpty());
+        assertNull(cache.getComputeResourceIds("net-1"));
+        assertNull(cache.getComputeResourceIds("net-2"));
+    }
+}